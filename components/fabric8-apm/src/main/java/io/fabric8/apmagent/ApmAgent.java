@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.apmagent.metrics.MetricsExporter;
 import io.fabric8.apmagent.metrics.ThreadMetrics;
 import io.fabric8.apmagent.strategy.sampling.SamplingStrategy;
 import io.fabric8.apmagent.strategy.trace.TraceStrategy;
@@ -86,6 +87,24 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         }
     }
 
+    public static void enterMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.enterMethod(methodId, false);
+        }
+    }
+
+    public static void exitMethod(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId, false);
+        }
+    }
+
+    public static void exitMethodWithException(int methodId) {
+        if (INSTANCE.started.get()) {
+            INSTANCE.apmAgentContext.exitMethod(methodId, false, true);
+        }
+    }
+
     public static void enterMethod(String methodName) {
         if (INSTANCE.started.get()) {
             INSTANCE.apmAgentContext.enterMethod(Thread.currentThread(), methodName, false);
@@ -112,6 +131,55 @@ public class ApmAgent implements ApmAgentMBean, ApmConfigurationChangeListener {
         return Collections.EMPTY_LIST;
     }
 
+    @Override
+    public long getRetransformPending() {
+        Strategy s = this.strategy;
+        return s instanceof TraceStrategy ? ((TraceStrategy) s).getRetransformPending() : 0;
+    }
+
+    @Override
+    public long getRetransformCompleted() {
+        Strategy s = this.strategy;
+        return s instanceof TraceStrategy ? ((TraceStrategy) s).getRetransformCompleted() : 0;
+    }
+
+    @Override
+    public long getRetransformFailed() {
+        Strategy s = this.strategy;
+        return s instanceof TraceStrategy ? ((TraceStrategy) s).getRetransformFailed() : 0;
+    }
+
+    @Override
+    public double getRetransformRate() {
+        Strategy s = this.strategy;
+        return s instanceof TraceStrategy ? ((TraceStrategy) s).getRetransformRate() : 0;
+    }
+
+    @Override
+    public String getCollapsedStacks() {
+        Strategy s = this.strategy;
+        if (isInitialized() && s instanceof SamplingStrategy) {
+            return ((SamplingStrategy) s).getStackProfile().toCollapsedStacks();
+        }
+        return "";
+    }
+
+    @Override
+    public void resetCollapsedStacks() {
+        Strategy s = this.strategy;
+        if (s instanceof SamplingStrategy) {
+            ((SamplingStrategy) s).getStackProfile().reset();
+        }
+    }
+
+    @Override
+    public String exportMetrics(String format) {
+        if (isInitialized()) {
+            return apmAgentContext.getMetricsExporter().export(MetricsExporter.FORMAT.getFormat(format));
+        }
+        return "";
+    }
+
     public List<ThreadMetrics> getThreadMetrics() {
         if (isInitialized()) {
             return apmAgentContext.getThreadMetrics();
@@ -36,4 +36,41 @@ public interface ApmAgentMBean {
      * @return List of all <className>@<methodName>
      */
     List<String> getAllMethods();
+
+    /**
+     * @return the number of classes waiting to be retransformed by the trace strategy
+     */
+    long getRetransformPending();
+
+    /**
+     * @return the number of classes retransformed by the trace strategy
+     */
+    long getRetransformCompleted();
+
+    /**
+     * @return the number of classes the trace strategy failed to retransform
+     */
+    long getRetransformFailed();
+
+    /**
+     * @return classes retransformed per second by the trace strategy
+     */
+    double getRetransformRate();
+
+    /**
+     * @return the stacks sampled by the sampling strategy in collapsed stack (flame graph) format,
+     * or an empty string when the sampling strategy is not in use
+     */
+    String getCollapsedStacks();
+
+    /**
+     * Discards the stacks sampled so far
+     */
+    void resetCollapsedStacks();
+
+    /**
+     * @param format prometheus or json
+     * @return the metrics of all methods, and of all methods per thread, in the given format
+     */
+    String exportMetrics(String format);
 }
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ApmConfiguration implements ApmConfigurationMBean {
@@ -43,10 +45,34 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         }
     }
 
+    public enum LATENCY_RECORDER {
+        HISTOGRAM,
+        RESERVOIR;
+
+        static LATENCY_RECORDER getLatencyRecorder(String name) {
+            for (LATENCY_RECORDER v : values()) {
+                if (v.name().equals(name.toUpperCase())) {
+                    return v;
+                }
+            }
+            return HISTOGRAM;
+        }
+    }
+
     final static Logger logger = LoggerFactory.getLogger(ApmConfiguration.class);
+    //bounds the memoized isAudit() results - class names are finite, but be defensive
+    private static final int MAX_AUDIT_CACHE_SIZE = 50000;
     private boolean trace = false;
     private boolean debug = false;
     private boolean asyncTransformation = false;
+    private int transformBatchSize = 100;
+    private int transformThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private long transformCacheSize = 32 * 1024 * 1024;
+    private String transformCacheDirectory = "";
+    private boolean methodMetricsMBeans = true;
+    private String metricsExportFile = "";
+    private String metricsExportFormat = "prometheus";
+    private int metricsExportInterval = 10;
     private boolean startJolokiaAgent = false;
     private boolean autoStartMetrics = false;
     private boolean usePlatformMBeanServer = true;
@@ -58,10 +84,15 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     private boolean threadMetricDepthChanged = false;
     private boolean strategyChanged = false;
     private int samplingInterval = 1;
+    private int samplingMaxDepth = 128;
+    private int samplingMaxThreads = 0;
+    private String samplingThreadFilter = "";
     private List<FilterItem> whiteFilterList = new ArrayList<>();
     private List<FilterItem> blackFilterList = new ArrayList<>();
+    private volatile CompiledFilters compiledFilters = new CompiledFilters(new FilterMatcher(whiteFilterList), new FilterMatcher(blackFilterList));
     private List<ApmConfigurationChangeListener> changeListeners = new CopyOnWriteArrayList<>();
     private STRATEGY strategy = STRATEGY.TRACE;
+    private LATENCY_RECORDER latencyRecorder = LATENCY_RECORDER.HISTOGRAM;
 
     ApmConfiguration() {
         addToBlackList("java");
@@ -102,7 +133,7 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     public void setWhiteList(String whiteList) {
         whiteFilterList = new ArrayList<>();
         initializeList(whiteList, this.whiteFilterList);
-        filterChanged = true;
+        filtersChanged();
         fireConfigurationChanged();
     }
 
@@ -115,7 +146,7 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     public void setBlackList(String blackList) {
         this.blackFilterList = new ArrayList<>();
         initializeList(blackList, this.blackFilterList);
-        filterChanged = true;
+        filtersChanged();
         fireConfigurationChanged();
     }
 
@@ -128,7 +159,7 @@ public class ApmConfiguration implements ApmConfigurationMBean {
             filterItem.setMethodName(classAndMethod[1]);
         }
         blackFilterList.add(filterItem);
-        filterChanged = true;
+        filtersChanged();
         fireConfigurationChanged();
     }
 
@@ -141,7 +172,7 @@ public class ApmConfiguration implements ApmConfigurationMBean {
             filterItem.setMethodName(classAndMethod[1]);
         }
         whiteFilterList.add(filterItem);
-        filterChanged = true;
+        filtersChanged();
         fireConfigurationChanged();
     }
 
@@ -175,6 +206,56 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         this.asyncTransformation = asyncTransformation;
     }
 
+    @Override
+    public int getTransformBatchSize() {
+        return transformBatchSize;
+    }
+
+    @Override
+    public void setTransformBatchSize(int transformBatchSize) {
+        this.transformBatchSize = Math.max(1, transformBatchSize);
+    }
+
+    @Override
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    /**
+     * Sets the number of threads used to retransform classes. Takes effect the next time the strategy is started.
+     */
+    @Override
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = Math.max(1, transformThreads);
+    }
+
+    @Override
+    public long getTransformCacheSize() {
+        return transformCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of instrumented classes kept in memory - 0 disables the cache.
+     * Takes effect the next time the strategy is initialized.
+     */
+    @Override
+    public void setTransformCacheSize(long transformCacheSize) {
+        this.transformCacheSize = Math.max(0, transformCacheSize);
+    }
+
+    @Override
+    public String getTransformCacheDirectory() {
+        return transformCacheDirectory;
+    }
+
+    /**
+     * A directory to also keep instrumented classes in, so they are reused across restarts - empty keeps them in memory only
+     */
+    @Override
+    public void setTransformCacheDirectory(String transformCacheDirectory) {
+        this.transformCacheDirectory = transformCacheDirectory != null ? transformCacheDirectory : "";
+    }
+
     public boolean isStartJolokiaAgent() {
         return startJolokiaAgent;
     }
@@ -227,6 +308,52 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         fireConfigurationChanged();
     }
 
+    public boolean isMethodMetricsMBeans() {
+        return methodMetricsMBeans;
+    }
+
+    /**
+     * If false, the top methods aren't registered as MBeans per rank (and per thread) - use
+     * {@link ApmAgentMBean#exportMetrics(String)} or the metrics export file instead. Changing it at runtime
+     * unregisters or registers the MBeans in the next housekeeping round.
+     */
+    public void setMethodMetricsMBeans(boolean methodMetricsMBeans) {
+        this.methodMetricsMBeans = methodMetricsMBeans;
+    }
+
+    public String getMetricsExportFile() {
+        return metricsExportFile;
+    }
+
+    /**
+     * A file the metrics are periodically written to - empty disables the export
+     */
+    public void setMetricsExportFile(String metricsExportFile) {
+        this.metricsExportFile = metricsExportFile != null ? metricsExportFile : "";
+    }
+
+    public String getMetricsExportFormat() {
+        return metricsExportFormat;
+    }
+
+    /**
+     * prometheus or json
+     */
+    public void setMetricsExportFormat(String metricsExportFormat) {
+        this.metricsExportFormat = metricsExportFormat;
+    }
+
+    public int getMetricsExportInterval() {
+        return metricsExportInterval;
+    }
+
+    /**
+     * The number of seconds between writes of the metrics export file
+     */
+    public void setMetricsExportInterval(int metricsExportInterval) {
+        this.metricsExportInterval = Math.max(1, metricsExportInterval);
+    }
+
     public boolean isStrategyChanged() {
         return strategyChanged;
     }
@@ -251,6 +378,40 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         this.samplingInterval = samplingInterval;
     }
 
+    public int getSamplingMaxDepth() {
+        return samplingMaxDepth;
+    }
+
+    /**
+     * The maximum number of frames captured for each sampled thread
+     */
+    public void setSamplingMaxDepth(int samplingMaxDepth) {
+        this.samplingMaxDepth = samplingMaxDepth;
+    }
+
+    public int getSamplingMaxThreads() {
+        return samplingMaxThreads;
+    }
+
+    /**
+     * The maximum number of threads captured in each sample - threads are sampled in turn
+     * when there are more. Zero or less samples every thread each time.
+     */
+    public void setSamplingMaxThreads(int samplingMaxThreads) {
+        this.samplingMaxThreads = samplingMaxThreads;
+    }
+
+    public String getSamplingThreadFilter() {
+        return samplingThreadFilter;
+    }
+
+    /**
+     * A regular expression a thread name must match for the thread to be sampled - empty samples all threads
+     */
+    public void setSamplingThreadFilter(String samplingThreadFilter) {
+        this.samplingThreadFilter = samplingThreadFilter != null ? samplingThreadFilter : "";
+    }
+
     public String getStrategy() {
         return strategy.name();
     }
@@ -268,6 +429,22 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         return strategy;
     }
 
+    public String getLatencyRecorder() {
+        return latencyRecorder.name();
+    }
+
+    /**
+     * Sets how method latencies are recorded - either HISTOGRAM (the default) or RESERVOIR.
+     * Only applies to methods first seen after the change.
+     */
+    public void setLatencyRecorder(String name) {
+        this.latencyRecorder = LATENCY_RECORDER.getLatencyRecorder(name);
+    }
+
+    public LATENCY_RECORDER getLatencyRecorderImpl() {
+        return latencyRecorder;
+    }
+
     public void initalizeFromProperties(Properties properties) {
         for (Map.Entry entry : properties.entrySet()) {
             if (entry.getKey() != null && entry.getValue() != null) {
@@ -277,50 +454,47 @@ public class ApmConfiguration implements ApmConfigurationMBean {
     }
 
     public boolean isAudit(String className) {
-        return isWhiteListed(className) || !isBlackListed(className);
+        CompiledFilters filters = compiledFilters;
+        Boolean result = filters.classAudits.get(className);
+        if (result == null) {
+            result = filters.white.matchesClassExactly(className) || !filters.black.matchesClass(className);
+            filters.cache(filters.classAudits, className, result);
+        }
+        return result;
     }
 
     public boolean isAudit(String className, String methodName) {
-        return isWhiteListed(className, methodName) || !isBlackListed(className, methodName);
+        CompiledFilters filters = compiledFilters;
+        ConcurrentMap<String, Boolean> methodAudits = filters.methodAudits.get(className);
+        if (methodAudits == null) {
+            methodAudits = new ConcurrentHashMap<>();
+            filters.cache(filters.methodAudits, className, methodAudits);
+        }
+        Boolean result = methodName != null ? methodAudits.get(methodName) : null;
+        if (result == null) {
+            result = filters.white.matches(className, methodName, false) || !filters.black.matches(className, methodName, true);
+            if (methodName != null && methodAudits.size() < MAX_AUDIT_CACHE_SIZE) {
+                methodAudits.put(methodName, result);
+            }
+        }
+        return result;
     }
 
     public boolean isBlackListed(String className) {
-        for (FilterItem item : blackFilterList) {
-            if (item.matches(className)) {
-                return true;
-            }
-        }
-        return false;
+        return compiledFilters.black.matchesClass(className);
     }
 
     public boolean isBlackListed(String className, String methodName) {
-        for (FilterItem item : blackFilterList) {
-            if (item.matches(className, methodName, true)) {
-                return true;
-            }
-        }
-        return false;
+        return compiledFilters.black.matches(className, methodName, true);
     }
 
     public boolean isWhiteListed(String className) {
-        if (whiteFilterList.isEmpty()) {
-            return false;
-        }
-        for (FilterItem item : whiteFilterList) {
-            if (className.matches(item.getClassName())) {
-                return true;
-            }
-        }
-        return false;
+        FilterMatcher white = compiledFilters.white;
+        return !white.isEmpty() && white.matchesClassExactly(className);
     }
 
     public boolean isWhiteListed(String className, String methodName) {
-        for (FilterItem item : whiteFilterList) {
-            if (item.matches(className, methodName, false)) {
-                return true;
-            }
-        }
-        return false;
+        return compiledFilters.white.matches(className, methodName, false);
     }
 
     public void addChangeListener(ApmConfigurationChangeListener changeListener) {
@@ -331,6 +505,14 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         changeListeners.remove(changeListener);
     }
 
+    /**
+     * Recompiles the white and black lists, which also discards all memoized isAudit() results
+     */
+    private void filtersChanged() {
+        compiledFilters = new CompiledFilters(new FilterMatcher(whiteFilterList), new FilterMatcher(blackFilterList));
+        filterChanged = true;
+    }
+
     private void fireConfigurationChanged() {
         for (ApmConfigurationChangeListener apmConfigurationChangeListener : this.changeListeners) {
             apmConfigurationChangeListener.configurationChanged();
@@ -414,4 +596,22 @@ public class ApmConfiguration implements ApmConfigurationMBean {
         }
         return result;
     }
+
+    private static class CompiledFilters {
+        private final FilterMatcher white;
+        private final FilterMatcher black;
+        private final ConcurrentMap<String, Boolean> classAudits = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, ConcurrentMap<String, Boolean>> methodAudits = new ConcurrentHashMap<>();
+
+        CompiledFilters(FilterMatcher white, FilterMatcher black) {
+            this.white = white;
+            this.black = black;
+        }
+
+        <T> void cache(ConcurrentMap<String, T> map, String className, T value) {
+            if (map.size() < MAX_AUDIT_CACHE_SIZE) {
+                map.putIfAbsent(className, value);
+            }
+        }
+    }
 }
@@ -41,6 +41,38 @@ public interface ApmConfigurationMBean {
 
     void setAsyncTransformation(boolean asyncTransformation);
 
+    int getTransformBatchSize();
+
+    void setTransformBatchSize(int transformBatchSize);
+
+    int getTransformThreads();
+
+    void setTransformThreads(int transformThreads);
+
+    long getTransformCacheSize();
+
+    void setTransformCacheSize(long transformCacheSize);
+
+    String getTransformCacheDirectory();
+
+    void setTransformCacheDirectory(String transformCacheDirectory);
+
+    boolean isMethodMetricsMBeans();
+
+    void setMethodMetricsMBeans(boolean methodMetricsMBeans);
+
+    String getMetricsExportFile();
+
+    void setMetricsExportFile(String metricsExportFile);
+
+    String getMetricsExportFormat();
+
+    void setMetricsExportFormat(String metricsExportFormat);
+
+    int getMetricsExportInterval();
+
+    void setMetricsExportInterval(int metricsExportInterval);
+
     int getThreadMetricDepth();
 
     void setThreadMetricDepth(int threadMetricDepth);
@@ -53,4 +85,24 @@ public interface ApmConfigurationMBean {
 
     void setStrategy(String strategy);
 
+    int getSamplingInterval();
+
+    void setSamplingInterval(int samplingInterval);
+
+    int getSamplingMaxDepth();
+
+    void setSamplingMaxDepth(int samplingMaxDepth);
+
+    int getSamplingMaxThreads();
+
+    void setSamplingMaxThreads(int samplingMaxThreads);
+
+    String getSamplingThreadFilter();
+
+    void setSamplingThreadFilter(String samplingThreadFilter);
+
+    String getLatencyRecorder();
+
+    void setLatencyRecorder(String latencyRecorder);
+
 }
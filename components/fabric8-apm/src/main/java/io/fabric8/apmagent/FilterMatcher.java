@@ -0,0 +1,272 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable, precompiled form of a list of {@link FilterItem}s that gives the same answers as
+ * calling {@link FilterItem#matches(String)} and {@link FilterItem#matches(String, String, boolean)}
+ * on every item in turn.
+ * <p/>
+ * Class name prefixes are held in a character trie. Class names that are regular expressions are
+ * compiled once - and the common case of a plain name whose only special characters are '.' is
+ * matched by length and character without a regex at all.
+ */
+class FilterMatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterMatcher.class);
+    private static final String REGEX_CHARACTERS = "\\^$|?*+()[]{}";
+
+    private final TrieNode prefixes = new TrieNode();
+    private final Map<Integer, List<Entry>> dotPatterns = new HashMap<>();
+    private final List<Entry> patterns = new ArrayList<>();
+    private final boolean empty;
+
+    FilterMatcher(List<FilterItem> items) {
+        for (FilterItem item : items) {
+            String className = item.getClassName();
+            if (className == null) {
+                continue;
+            }
+            Entry entry = new Entry(item);
+            prefixes.add(className, 0, entry);
+            if (isDotPattern(className)) {
+                List<Entry> list = dotPatterns.get(className.length());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dotPatterns.put(className.length(), list);
+                }
+                list.add(entry);
+            } else if (entry.classPattern != null) {
+                patterns.add(entry);
+            }
+        }
+        this.empty = items.isEmpty();
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * @return true if the class name starts with, or is a regex match for, any item - regardless of its method
+     */
+    boolean matchesClass(String className) {
+        className = className.replace('/', '.');
+        if (prefixes.hasPrefixOf(className)) {
+            return true;
+        }
+        List<Entry> candidates = dotPatterns.get(className.length());
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (dotPatternMatches(entry.className, className)) {
+                    return true;
+                }
+            }
+        }
+        for (Entry entry : patterns) {
+            if (entry.classPattern.matcher(className).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the class name is a regex match for any item, prefixes are not considered
+     */
+    boolean matchesClassExactly(String className) {
+        if (prefixes.isEntry(className)) {
+            return true;
+        }
+        List<Entry> candidates = dotPatterns.get(className.length());
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (dotPatternMatches(entry.className, className)) {
+                    return true;
+                }
+            }
+        }
+        for (Entry entry : patterns) {
+            if (entry.classPattern.matcher(className).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @see FilterItem#matches(String, String, boolean)
+     */
+    boolean matches(String className, String methodName, boolean matchIfNoFilterMethod) {
+        className = className.replace('/', '.');
+        TrieNode node = prefixes;
+        for (int i = 0; node != null; i++) {
+            for (Entry entry : node.entries) {
+                if (entry.matchesMethod(methodName, matchIfNoFilterMethod)) {
+                    return true;
+                }
+            }
+            node = i < className.length() ? node.child(className.charAt(i)) : null;
+        }
+        List<Entry> candidates = dotPatterns.get(className.length());
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (dotPatternMatches(entry.className, className) && entry.matchesMethod(methodName, matchIfNoFilterMethod)) {
+                    return true;
+                }
+            }
+        }
+        for (Entry entry : patterns) {
+            if (entry.classPattern.matcher(className).matches() && entry.matchesMethod(methodName, matchIfNoFilterMethod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDotPattern(String value) {
+        return value.indexOf('.') >= 0 && !isRegex(value);
+    }
+
+    private static boolean isRegex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (REGEX_CHARACTERS.indexOf(value.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The equivalent of value.matches(pattern) when the only special character in pattern is '.'
+     */
+    private static boolean dotPatternMatches(String pattern, String value) {
+        if (pattern.length() != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '.' && c != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Pattern compile(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            LOG.warn("Filter " + regex + " is not a valid regular expression and will only be matched literally");
+            return null;
+        }
+    }
+
+    private static class Entry {
+        private final String className;
+        private final Pattern classPattern;
+        private final String methodName;
+        private final Pattern methodPattern;
+
+        Entry(FilterItem item) {
+            this.className = item.getClassName();
+            this.classPattern = isRegex(className) ? compile(className) : null;
+            String method = item.getMethodName();
+            this.methodName = method != null && !method.isEmpty() ? method : null;
+            this.methodPattern = methodName != null && (methodName.indexOf('.') >= 0 || isRegex(methodName)) ? compile(methodName) : null;
+        }
+
+        boolean matchesMethod(String method, boolean matchIfNoFilterMethod) {
+            if (method == null || method.isEmpty()) {
+                return methodName == null;
+            }
+            if (methodName == null) {
+                return matchIfNoFilterMethod;
+            }
+            return methodPattern != null ? methodPattern.matcher(method).matches() : methodName.equals(method);
+        }
+    }
+
+    private static class TrieNode {
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private Entry[] entries = NO_ENTRIES;
+
+        void add(String key, int index, Entry entry) {
+            if (index == key.length()) {
+                entries = Arrays.copyOf(entries, entries.length + 1);
+                entries[entries.length - 1] = entry;
+                return;
+            }
+            char c = key.charAt(index);
+            TrieNode node = child(c);
+            if (node == null) {
+                node = new TrieNode();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = node;
+            }
+            node.add(key, index + 1, entry);
+        }
+
+        TrieNode child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        boolean hasPrefixOf(String value) {
+            TrieNode node = this;
+            for (int i = 0; node != null; i++) {
+                if (node.entries.length > 0) {
+                    return true;
+                }
+                node = i < value.length() ? node.child(value.charAt(i)) : null;
+            }
+            return false;
+        }
+
+        boolean isEntry(String value) {
+            TrieNode node = this;
+            for (int i = 0; node != null && i < value.length(); i++) {
+                node = node.child(value.charAt(i));
+            }
+            if (node != null) {
+                for (Entry entry : node.entries) {
+                    if (!isRegex(entry.className)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of a method as they are read - through JMX or an export - whether they are recorded
+ * directly by a {@link MethodMetrics} or summed up from other metrics.
+ */
+public abstract class AbstractMethodMetrics {
+    //JMX reads every attribute separately - so share one snapshot between them
+    private static final long SNAPSHOT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private final String name;
+    private final double durationFactor;
+    private volatile CachedSnapshot cachedSnapshot;
+    private int percentage;
+    private boolean active = true;
+
+    /**
+     * Constructor.
+     *
+     * @param name - the fully qualified method name
+     */
+    protected AbstractMethodMetrics(String name) {
+        this.name = name;
+        this.durationFactor = 1.0 / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public abstract long getCount();
+
+    public abstract double getMeanRate();
+
+    public abstract double getOneMinuteRate();
+
+    public abstract double getFiveMinuteRate();
+
+    public abstract double getFifteenMinuteRate();
+
+    public double getMin() {
+        return getSnapshot().getMin() * durationFactor;
+    }
+
+    public double getMax() {
+        return getSnapshot().getMax() * durationFactor;
+    }
+
+    public double getMean() {
+        return getSnapshot().getMean() * durationFactor;
+    }
+
+    public double getStdDev() {
+        return getSnapshot().getStdDev() * durationFactor;
+    }
+
+    public double get50thPercentile() {
+        return getSnapshot().getValue(0.5) * durationFactor;
+    }
+
+    public double get75thPercentile() {
+        return getSnapshot().getValue(0.75) * durationFactor;
+    }
+
+    public double get95thPercentile() {
+        return getSnapshot().getValue(0.95) * durationFactor;
+    }
+
+    public double get98thPercentile() {
+        return getSnapshot().getValue(0.98) * durationFactor;
+    }
+
+    public double get99thPercentile() {
+        return getSnapshot().getValue(0.99) * durationFactor;
+    }
+
+    public double get999thPercentile() {
+        return getSnapshot().getValue(0.999) * durationFactor;
+    }
+
+    /**
+     * average amount of time for a method multiplied by the number of times called
+     *
+     * @return estimated load
+     */
+    public double getLoad() {
+        return getTotalTime() * durationFactor;
+    }
+
+    /**
+     * @return the total time in nanoseconds spent in the recorded calls
+     */
+    protected abstract long getTotalTime();
+
+    public int getPercentage() {
+        return percentage;
+    }
+
+    public void setPercentage(int percentage) {
+        this.percentage = percentage;
+    }
+
+    public long[] values() {
+        return getSnapshot().getValues();
+    }
+
+    /**
+     * @return the number of calls that were left by an exception
+     */
+    public abstract long getErrorCount();
+
+    public double getErrorMean() {
+        long count = getErrorCount();
+        return count > 0 ? getErrorTotalTime() * durationFactor / count : 0;
+    }
+
+    public double getErrorMax() {
+        LatencySnapshot snapshot = createErrorSnapshot();
+        return snapshot != null ? snapshot.getMax() * durationFactor : 0;
+    }
+
+    public double getError99thPercentile() {
+        LatencySnapshot snapshot = createErrorSnapshot();
+        return snapshot != null ? snapshot.getValue(0.99) * durationFactor : 0;
+    }
+
+    protected abstract long getErrorTotalTime();
+
+    /**
+     * @return the latencies of the calls left by an exception, or null if there haven't been any
+     */
+    protected abstract LatencySnapshot createErrorSnapshot();
+
+    /**
+     * @return a snapshot of the recorded latencies, reused for up to a second while calls are being recorded
+     */
+    public LatencySnapshot getSnapshot() {
+        CachedSnapshot cached = cachedSnapshot;
+        long now = System.nanoTime();
+        long count = getCount();
+        if (cached == null || (count != cached.count && now - cached.time > SNAPSHOT_INTERVAL)) {
+            cached = new CachedSnapshot(createSnapshot(), count, now);
+            cachedSnapshot = cached;
+        }
+        return cached.snapshot;
+    }
+
+    protected abstract LatencySnapshot createSnapshot();
+
+    public static List<? extends AbstractMethodMetrics> sortedMetrics(Collection<? extends AbstractMethodMetrics> collection) {
+        ArrayList<? extends AbstractMethodMetrics> list = new ArrayList<>(collection);
+
+        Collections.sort(list, new Comparator<AbstractMethodMetrics>() {
+            @Override
+            public int compare(AbstractMethodMetrics methodMetrics1, AbstractMethodMetrics methodMetrics2) {
+                return Double.compare(methodMetrics2.getLoad(), methodMetrics1.getLoad());
+            }
+        });
+        //calculate the percentage
+        double totalLoad = 0;
+        for (AbstractMethodMetrics m : list) {
+            totalLoad += m.getLoad();
+        }
+        for (AbstractMethodMetrics m : list) {
+            int percentage = totalLoad > 0 ? (int) ((m.getLoad() * 100) / totalLoad) : 0;
+            m.setPercentage(percentage);
+        }
+        return list;
+    }
+
+    /**
+     * Ranks by load in a single pass, reading the load of each method once and only
+     * keeping the heaviest <code>size</code> methods in a bounded min-heap.
+     *
+     * @return the heaviest methods, heaviest first, with their percentage of the total load set
+     */
+    public static <T extends AbstractMethodMetrics> List<T> topMetrics(Iterable<T> collection, int size) {
+        List<T> result = new ArrayList<>();
+        if (size <= 0) {
+            return result;
+        }
+        PriorityQueue<RankedMethodMetrics<T>> heap = new PriorityQueue<>(size + 1);
+        double totalLoad = 0;
+        for (T m : collection) {
+            double load = m.getLoad();
+            totalLoad += load;
+            if (heap.size() < size) {
+                heap.add(new RankedMethodMetrics<>(m, load));
+            } else if (load > heap.peek().load) {
+                heap.poll();
+                heap.add(new RankedMethodMetrics<>(m, load));
+            }
+        }
+        RankedMethodMetrics<?>[] ranked = heap.toArray(new RankedMethodMetrics<?>[heap.size()]);
+        Arrays.sort(ranked, Collections.reverseOrder());
+        for (RankedMethodMetrics<?> r : ranked) {
+            T m = (T) r.methodMetrics;
+            m.setPercentage(totalLoad > 0 ? (int) ((r.load * 100) / totalLoad) : 0);
+            result.add(m);
+        }
+        return result;
+    }
+
+    private static class RankedMethodMetrics<T extends AbstractMethodMetrics> implements Comparable<RankedMethodMetrics<?>> {
+        private final T methodMetrics;
+        private final double load;
+
+        RankedMethodMetrics(T methodMetrics, double load) {
+            this.methodMetrics = methodMetrics;
+            this.load = load;
+        }
+
+        @Override
+        public int compareTo(RankedMethodMetrics<?> other) {
+            return Double.compare(load, other.load);
+        }
+    }
+
+    private static class CachedSnapshot {
+        private final LatencySnapshot snapshot;
+        private final long count;
+        private final long time;
+
+        CachedSnapshot(LatencySnapshot snapshot, long count, long time) {
+            this.snapshot = snapshot;
+            this.count = count;
+            this.time = time;
+        }
+    }
+}
+
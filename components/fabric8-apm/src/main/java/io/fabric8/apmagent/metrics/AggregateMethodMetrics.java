@@ -0,0 +1,214 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * The metrics of a method across all threads. Nothing is recorded here: calls are only recorded by the
+ * {@link ThreadContextMethodMetrics} of the calling thread, and are summed up by {@link #aggregate()} once
+ * per housekeeping round - or when read if that has not happened for a while.
+ * When a thread dies its counts and latencies are folded into these metrics, but its rates are dropped.
+ */
+class AggregateMethodMetrics extends AbstractMethodMetrics {
+    //the size of a codahale exponentially decaying reservoir
+    private static final int MAX_MERGED_VALUES = 1028;
+    //a few housekeeping rounds - only reached when there is no housekeeping
+    private static final long MAX_TOTALS_AGE = TimeUnit.SECONDS.toNanos(5);
+    private final int methodId;
+    private final Iterable<ThreadMetrics> threadMetrics;
+    private final long startTime = System.nanoTime();
+    private volatile Totals totals = new Totals(0, 0, 0, 0, null, null, 0, 0, 0, startTime - MAX_TOTALS_AGE - 1);
+    private long retiredCount;
+    private long retiredTotalTime;
+    private long retiredErrorCount;
+    private long retiredErrorTotalTime;
+    private LatencySnapshot retiredSnapshot;
+    private LatencySnapshot retiredErrorSnapshot;
+
+    AggregateMethodMetrics(String name, int methodId, Iterable<ThreadMetrics> threadMetrics) {
+        super(name);
+        this.methodId = methodId;
+        this.threadMetrics = threadMetrics;
+    }
+
+    /**
+     * Keeps the counts and latencies of a thread that has died
+     */
+    synchronized void retire(ThreadContextMethodMetrics metrics) {
+        retiredCount += metrics.getCount();
+        retiredTotalTime += metrics.getTotalTime();
+        retiredErrorCount += metrics.getErrorCount();
+        retiredErrorTotalTime += metrics.getErrorTotalTime();
+        retiredSnapshot = merge(retiredSnapshot, metrics.createSnapshot());
+        retiredErrorSnapshot = merge(retiredErrorSnapshot, metrics.createErrorSnapshot());
+    }
+
+    /**
+     * Sums up the metrics of the live and the retired threads, which are then read until the next call
+     */
+    synchronized void aggregate() {
+        long count = retiredCount;
+        long totalTime = retiredTotalTime;
+        long errorCount = retiredErrorCount;
+        long errorTotalTime = retiredErrorTotalTime;
+        LatencySnapshot snapshot = retiredSnapshot;
+        LatencySnapshot errorSnapshot = retiredErrorSnapshot;
+        double oneMinuteRate = 0;
+        double fiveMinuteRate = 0;
+        double fifteenMinuteRate = 0;
+        for (ThreadMetrics tm : threadMetrics) {
+            MethodMetrics metrics = tm.get(methodId);
+            if (metrics != null) {
+                count += metrics.getCount();
+                totalTime += metrics.getTotalTime();
+                errorCount += metrics.getErrorCount();
+                errorTotalTime += metrics.getErrorTotalTime();
+                snapshot = merge(snapshot, metrics.createSnapshot());
+                errorSnapshot = merge(errorSnapshot, metrics.createErrorSnapshot());
+                oneMinuteRate += metrics.getOneMinuteRate();
+                fiveMinuteRate += metrics.getFiveMinuteRate();
+                fifteenMinuteRate += metrics.getFifteenMinuteRate();
+            }
+        }
+        totals = new Totals(count, totalTime, errorCount, errorTotalTime, snapshot, errorSnapshot,
+                            oneMinuteRate, fiveMinuteRate, fifteenMinuteRate, System.nanoTime());
+    }
+
+    private Totals getTotals() {
+        Totals result = totals;
+        if (System.nanoTime() - result.time > MAX_TOTALS_AGE) {
+            aggregate();
+            result = totals;
+        }
+        return result;
+    }
+
+    @Override
+    public long getCount() {
+        return getTotals().count;
+    }
+
+    @Override
+    public double getMeanRate() {
+        double elapsed = System.nanoTime() - startTime;
+        return elapsed > 0 ? getCount() * TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+    }
+
+    @Override
+    public double getOneMinuteRate() {
+        return getTotals().oneMinuteRate;
+    }
+
+    @Override
+    public double getFiveMinuteRate() {
+        return getTotals().fiveMinuteRate;
+    }
+
+    @Override
+    public double getFifteenMinuteRate() {
+        return getTotals().fifteenMinuteRate;
+    }
+
+    @Override
+    protected long getTotalTime() {
+        return getTotals().totalTime;
+    }
+
+    @Override
+    protected LatencySnapshot createSnapshot() {
+        LatencySnapshot result = getTotals().snapshot;
+        return result != null ? result : LogLinearHistogram.HistogramSnapshot.empty();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return getTotals().errorCount;
+    }
+
+    @Override
+    protected long getErrorTotalTime() {
+        return getTotals().errorTotalTime;
+    }
+
+    @Override
+    protected LatencySnapshot createErrorSnapshot() {
+        return getTotals().errorSnapshot;
+    }
+
+    public String toString() {
+        return "AggregateMethodMetrics:" + getName();
+    }
+
+    /**
+     * Histograms are merged bucket by bucket, anything else by combining the sampled values
+     */
+    static LatencySnapshot merge(LatencySnapshot first, LatencySnapshot second) {
+        if (first == null || first.getCount() == 0) {
+            return second;
+        }
+        if (second == null || second.getCount() == 0) {
+            return first;
+        }
+        if (first instanceof LogLinearHistogram.HistogramSnapshot && second instanceof LogLinearHistogram.HistogramSnapshot) {
+            return ((LogLinearHistogram.HistogramSnapshot) first).merge((LogLinearHistogram.HistogramSnapshot) second);
+        }
+        long[] firstValues = first.getValues();
+        long[] secondValues = second.getValues();
+        long[] values = Arrays.copyOf(firstValues, firstValues.length + secondValues.length);
+        System.arraycopy(secondValues, 0, values, firstValues.length, secondValues.length);
+        if (values.length > MAX_MERGED_VALUES) {
+            //keep evenly spaced values, so the distribution is preserved
+            Arrays.sort(values);
+            long[] sampled = new long[MAX_MERGED_VALUES];
+            for (int i = 0; i < sampled.length; i++) {
+                sampled[i] = values[(int) ((long) i * values.length / sampled.length)];
+            }
+            values = sampled;
+        }
+        return ReservoirLatencyRecorder.toLatencySnapshot(new UniformSnapshot(values));
+    }
+
+    private static class Totals {
+        private final long count;
+        private final long totalTime;
+        private final long errorCount;
+        private final long errorTotalTime;
+        private final LatencySnapshot snapshot;
+        private final LatencySnapshot errorSnapshot;
+        private final double oneMinuteRate;
+        private final double fiveMinuteRate;
+        private final double fifteenMinuteRate;
+        private final long time;
+
+        Totals(long count, long totalTime, long errorCount, long errorTotalTime, LatencySnapshot snapshot, LatencySnapshot errorSnapshot,
+               double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate, long time) {
+            this.count = count;
+            this.totalTime = totalTime;
+            this.errorCount = errorCount;
+            this.errorTotalTime = errorTotalTime;
+            this.snapshot = snapshot;
+            this.errorSnapshot = errorSnapshot;
+            this.oneMinuteRate = oneMinuteRate;
+            this.fiveMinuteRate = fiveMinuteRate;
+            this.fifteenMinuteRate = fifteenMinuteRate;
+            this.time = time;
+        }
+    }
+}
@@ -15,7 +15,16 @@
  */
 package io.fabric8.apmagent.metrics;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -26,6 +35,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
@@ -49,8 +59,12 @@ public class ApmAgentContext {
     private final ConcurrentMap<String, ClassInfo> allMethods = new ConcurrentHashMap<>();
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
-    private ConcurrentMap<Thread, ThreadMetrics> threadMetricsMap = new ConcurrentHashMap<>();
-    private ConcurrentMap<String, MethodMetrics> methodMetricsMap = new ConcurrentHashMap<>();
+    //keyed by thread id - only used to find the metrics of other threads, a thread finds its own through currentThreadMetrics
+    private final ConcurrentMap<Long, ThreadMetrics> threadMetricsMap = new ConcurrentHashMap<>();
+    private final MethodRegistry methodRegistry = new MethodRegistry();
+    private final ThreadLocal<ThreadMetrics> currentThreadMetrics = new ThreadLocal<>();
+    //indexed by method id - these are aggregated from the thread metrics once per housekeeping round
+    private volatile AtomicReferenceArray<AggregateMethodMetrics> methodMetrics = new AtomicReferenceArray<>(256);
     private ConcurrentMap<Object, ObjectName> objectNameMap = new ConcurrentHashMap<>();
     private MBeanServer mBeanServer;
     private JolokiaServer jolokiaServer;
@@ -59,9 +73,9 @@ public class ApmAgentContext {
     private ObjectName configurationObjectName;
     private final ApmConfiguration configuration;
     private final MonitoredMethodMetrics monitoredMethodMetrics;
-    private AtomicBoolean doHouseKeeping = new AtomicBoolean();
     private Thread backgroundThread;
     private boolean monitorByDefault = true;
+    private long lastMetricsExport;
 
     public ApmAgentContext(ApmAgent agent) {
         this.apmAgent = agent;
@@ -70,42 +84,134 @@ public class ApmAgentContext {
         this.monitoredMethodMetrics.setMonitorSize(configuration.getMethodMetricDepth());
     }
 
-    public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
+    /**
+     * @return the compact id the instrumented code passes to {@link #enterMethod(int, boolean)}
+     * and {@link #exitMethod(int, boolean)} for the given method
+     */
+    public int getMethodId(String fullMethodName) {
+        return methodRegistry.getId(fullMethodName);
+    }
+
+    public String getMethodName(int methodId) {
+        return methodRegistry.getName(methodId);
+    }
+
+    public void enterMethod(int methodId, boolean alwaysActive) {
         if (isInitialized()) {
-            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread);
-            if (threadMetrics == null) {
-                threadMetrics = new ThreadMetrics(this, currentThread);
-                threadMetricsMap.put(currentThread, threadMetrics);
+            ThreadMetrics threadMetrics = currentThreadMetrics.get();
+            if (threadMetrics == null || threadMetrics.isDestroyed()) {
+                threadMetrics = createThreadMetrics(Thread.currentThread());
+                currentThreadMetrics.set(threadMetrics);
             }
-            threadMetrics.enter(fullMethodName, alwaysActive);
+            enterMethod(threadMetrics, methodId, alwaysActive);
+        }
+    }
+
+    public void exitMethod(int methodId, boolean alwaysActive) {
+        exitMethod(methodId, alwaysActive, false);
+    }
 
-            MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
-            if (methodMetrics == null) {
-                methodMetrics = new MethodMetrics(fullMethodName);
-                methodMetrics.setActive(isMonitorByDefault());
-                methodMetricsMap.putIfAbsent(fullMethodName, methodMetrics);
+    /**
+     * @param error true if the method was left by an exception
+     */
+    public void exitMethod(int methodId, boolean alwaysActive, boolean error) {
+        if (isInitialized()) {
+            ThreadMetrics threadMetrics = currentThreadMetrics.get();
+            if (threadMetrics != null && !threadMetrics.isDestroyed()) {
+                exitMethod(threadMetrics, methodId, alwaysActive, error);
             }
         }
+    }
 
+    public void enterMethod(Thread currentThread, String fullMethodName, boolean alwaysActive) {
+        if (isInitialized()) {
+            enterMethod(getThreadMetrics(currentThread), getMethodId(fullMethodName), alwaysActive);
+        }
     }
 
     public void exitMethod(Thread currentThread, String methodName, boolean alwaysActive) {
         if (isInitialized()) {
-            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread);
+            ThreadMetrics threadMetrics = threadMetricsMap.get(currentThread.getId());
+            if (threadMetrics != null && threadMetrics.getThread() == currentThread) {
+                exitMethod(threadMetrics, getMethodId(methodName), alwaysActive, false);
+            }
+        }
+    }
+
+    private void enterMethod(ThreadMetrics threadMetrics, int methodId, boolean alwaysActive) {
+        threadMetrics.enter(methodId, alwaysActive);
+        AtomicReferenceArray<AggregateMethodMetrics> array = methodMetrics;
+        if (methodId >= array.length() || array.get(methodId) == null) {
+            createMethodMetrics(methodId);
+        }
+    }
+
+    private void exitMethod(ThreadMetrics threadMetrics, int methodId, boolean alwaysActive, boolean error) {
+        //the global metrics are aggregated from the thread metrics by the housekeeping
+        threadMetrics.exit(methodId, alwaysActive, error);
+    }
+
+    private ThreadMetrics getThreadMetrics(Thread thread) {
+        ThreadMetrics threadMetrics = threadMetricsMap.get(thread.getId());
+        if (threadMetrics == null || threadMetrics.getThread() != thread || threadMetrics.isDestroyed()) {
+            threadMetrics = createThreadMetrics(thread);
+        }
+        return threadMetrics;
+    }
+
+    private ThreadMetrics createThreadMetrics(Thread thread) {
+        ThreadMetrics threadMetrics = new ThreadMetrics(this, thread);
+        ThreadMetrics previous = threadMetricsMap.put(thread.getId(), threadMetrics);
+        if (previous != null && previous.getThread() != thread) {
+            retire(previous);
+        }
+        return threadMetrics;
+    }
+
+    private AggregateMethodMetrics getMethodMetrics(int methodId) {
+        AtomicReferenceArray<AggregateMethodMetrics> array = methodMetrics;
+        return methodId >= 0 && methodId < array.length() ? array.get(methodId) : null;
+    }
 
-            long elapsed = -1;
-            if (threadMetrics != null) {
-                elapsed = threadMetrics.exit(methodName, alwaysActive);
+    private synchronized void createMethodMetrics(int methodId) {
+        AtomicReferenceArray<AggregateMethodMetrics> array = methodMetrics;
+        if (methodId >= array.length()) {
+            AtomicReferenceArray<AggregateMethodMetrics> newArray = new AtomicReferenceArray<>(Math.max(methodId + 1, array.length() * 2));
+            for (int i = 0; i < array.length(); i++) {
+                newArray.set(i, array.get(i));
             }
+            array = newArray;
+            methodMetrics = array;
+        }
+        if (array.get(methodId) == null) {
+            AggregateMethodMetrics metrics = new AggregateMethodMetrics(methodRegistry.getName(methodId), methodId, threadMetricsMap.values());
+            metrics.setActive(isMonitorByDefault());
+            array.set(methodId, metrics);
+        }
+    }
 
-            if (elapsed >= 0) {
-                MethodMetrics methodMetrics = methodMetricsMap.get(methodName);
-                if (methodMetrics != null) {
-                    methodMetrics.update(elapsed);
-                }
+    /**
+     * @param concurrency the expected number of threads recording into the recorder
+     */
+    LatencyRecorder createLatencyRecorder(int concurrency) {
+        switch (configuration.getLatencyRecorderImpl()) {
+            case RESERVOIR:
+                return new ReservoirLatencyRecorder();
+            default:
+                return new LogLinearHistogram(concurrency);
+        }
+    }
+
+    private List<AggregateMethodMetrics> getAllMethodMetrics() {
+        AtomicReferenceArray<AggregateMethodMetrics> array = methodMetrics;
+        List<AggregateMethodMetrics> result = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            AggregateMethodMetrics metrics = array.get(i);
+            if (metrics != null) {
+                result.add(metrics);
             }
-            doHouseKeeping();
         }
+        return result;
     }
 
     public void initialize() {
@@ -130,7 +236,9 @@ public class ApmAgentContext {
                         while (started.get()) {
                             try {
                                 Thread.sleep(HOUSE_KEEPING_TIME);
-                                doHouseKeeping.set(true);
+                                if (started.get()) {
+                                    doHouseKeeping();
+                                }
                             } catch (Throwable e) {
                             }
                         }
@@ -143,23 +251,75 @@ public class ApmAgentContext {
     }
 
     void doHouseKeeping() {
-        //the time is going to be the elapsed time from the latest method call
-        //its not going to be terribly accurate - but then it doesn't really need to be
-        if (doHouseKeeping.compareAndSet(true, false)) {
-            try {
-                List<ThreadMetrics> threadMetricsList = getThreadMetrics();
-                for (ThreadMetrics tm : threadMetricsList) {
-                    if (tm.isDead()) {
-                        tm.destroy();
-                        threadMetricsMap.remove(tm.getThread());
+        //runs on the background thread - so application threads never pay for ranking the metrics
+        try {
+            List<ThreadMetrics> threadMetricsList = new ArrayList<>(threadMetricsMap.values());
+            for (ThreadMetrics tm : threadMetricsList) {
+                if (tm.isDead() && threadMetricsMap.remove(tm.getThreadId(), tm)) {
+                    retire(tm);
+                }
+            }
+            //sum up the thread metrics once, so the reads until the next round don't have to
+            List<AggregateMethodMetrics> allMethodMetrics = getAllMethodMetrics();
+            for (AggregateMethodMetrics metrics : allMethodMetrics) {
+                metrics.aggregate();
+            }
+            if (configuration.isMethodMetricsMBeans()) {
+                monitoredMethodMetrics.calculateMethodMetrics(AbstractMethodMetrics.topMetrics(allMethodMetrics, monitoredMethodMetrics.getMonitorSize()));
+                for (ThreadMetrics threadMetrics : threadMetricsList) {
+                    if (!threadMetrics.isDestroyed()) {
+                        threadMetrics.calculateMethodMetrics();
                     }
                 }
-                monitoredMethodMetrics.calculateMethodMetrics(getMethodMetrics());
+            } else {
+                //turned off at runtime - the MBeans would no longer be updated, and are registered again once turned back on
+                monitoredMethodMetrics.destroy();
                 for (ThreadMetrics threadMetrics : threadMetricsList) {
-                    threadMetrics.calculateMethodMetrics();
+                    threadMetrics.unregisterMethodMetricsMBeans();
                 }
-            } catch (Throwable e) {
-                LOG.warn("Error during housekeeping due " + e.getMessage() + ". This exception is ignored.", e);
+            }
+            exportMetrics();
+        } catch (Throwable e) {
+            LOG.warn("Error during housekeeping due " + e.getMessage() + ". This exception is ignored.", e);
+        }
+    }
+
+    /**
+     * Writes the metrics export file, if one is configured and the export interval has passed
+     */
+    private void exportMetrics() {
+        String fileName = configuration.getMetricsExportFile();
+        long now = System.currentTimeMillis();
+        if (fileName.isEmpty() || now - lastMetricsExport < TimeUnit.SECONDS.toMillis(configuration.getMetricsExportInterval())) {
+            return;
+        }
+        lastMetricsExport = now;
+        File file = new File(fileName).getAbsoluteFile();
+        try {
+            //write to a temporary file first, so a reader never sees a partial export
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                getMetricsExporter().write(MetricsExporter.FORMAT.getFormat(configuration.getMetricsExportFormat()), writer);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Failed to export metrics to " + file + " due " + e.getMessage() + ". This exception is ignored.");
+        }
+    }
+
+    public MetricsExporter getMetricsExporter() {
+        return new MetricsExporter(getAllMethodMetrics(), new ArrayList<>(threadMetricsMap.values()));
+    }
+
+    /**
+     * Folds the metrics of a thread that has died into the global metrics
+     */
+    private void retire(ThreadMetrics threadMetrics) {
+        threadMetrics.destroy();
+        for (ThreadContextMethodMetrics metrics : threadMetrics.getMethodMetrics()) {
+            AggregateMethodMetrics aggregate = getMethodMetrics(metrics.getMethodId());
+            if (aggregate != null) {
+                aggregate.retire(metrics);
             }
         }
     }
@@ -170,7 +330,10 @@ public class ApmAgentContext {
                 unregisterMBean(objectName);
             }
             objectNameMap.clear();
-            methodMetricsMap.clear();
+            clearMethodMetrics();
+            for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+                threadMetrics.destroy();
+            }
             threadMetricsMap.clear();
         }
     }
@@ -204,6 +367,11 @@ public class ApmAgentContext {
         return result;
     }
 
+    public boolean isTransformed(String className) {
+        ClassInfo classInfo = allMethods.get(className.replace('/', '.'));
+        return classInfo != null && classInfo.isTransformed();
+    }
+
     public List<String> getTransformedMethods() {
         List<String> result = new ArrayList<>();
         for (ClassInfo classInfo : allMethods.values()) {
@@ -236,8 +404,8 @@ public class ApmAgentContext {
         return result;
     }
 
-    public List<? extends MethodMetrics> getMethodMetrics() {
-        return MethodMetrics.sortedMetrics(methodMetricsMap.values());
+    public List<? extends AbstractMethodMetrics> getMethodMetrics() {
+        return AbstractMethodMetrics.sortedMetrics(getAllMethodMetrics());
     }
 
     public boolean isInitialized() {
@@ -258,13 +426,14 @@ public class ApmAgentContext {
 
     public void setActive(String fullMethodName, boolean flag) {
         if (isInitialized()) {
+            int methodId = methodRegistry.findId(fullMethodName);
             for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
-                threadMetrics.setActive(fullMethodName, flag);
+                threadMetrics.setActive(methodId, flag);
             }
 
-            MethodMetrics methodMetrics = methodMetricsMap.get(fullMethodName);
-            if (methodMetrics != null) {
-                methodMetrics.setActive(flag);
+            AbstractMethodMetrics metrics = getMethodMetrics(methodId);
+            if (metrics != null) {
+                metrics.setActive(flag);
             }
         }
     }
@@ -340,12 +509,29 @@ public class ApmAgentContext {
     }
 
     private void remove(MethodDescription methodDescription) {
-        methodMetricsMap.remove(methodDescription.getFullMethodName());
-        for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
-            threadMetrics.remove(methodDescription.getFullMethodName());
+        int methodId = methodRegistry.findId(methodDescription.getFullMethodName());
+        if (methodId >= 0) {
+            removeMethodMetrics(methodId);
+            for (ThreadMetrics threadMetrics : threadMetricsMap.values()) {
+                threadMetrics.remove(methodId);
+            }
+        }
+    }
+
+    /**
+     * Holds the lock createMethodMetrics grows the array with, so the removal is not lost in a copy
+     */
+    private synchronized void removeMethodMetrics(int methodId) {
+        AtomicReferenceArray<AggregateMethodMetrics> array = methodMetrics;
+        if (methodId < array.length()) {
+            array.set(methodId, null);
         }
     }
 
+    private synchronized void clearMethodMetrics() {
+        methodMetrics = new AtomicReferenceArray<>(methodMetrics.length());
+    }
+
     protected ObjectInstance registerMBean(ObjectName objectName, Object object) throws InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException {
         MBeanServer server = getMBeanServer();
         if (server != null && !server.isRegistered(objectName)) {
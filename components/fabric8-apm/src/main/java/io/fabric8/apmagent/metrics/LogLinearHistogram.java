@@ -0,0 +1,278 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free, bounded memory latency histogram.
+ * <p/>
+ * Values are bucketed by their power of two and then linearly into {@link #SUB_BUCKETS} sub buckets,
+ * so any recorded value is reported within 1/{@link #SUB_BUCKETS} of its real value - without the
+ * sampling bias of a reservoir. Buckets are striped by thread to avoid contended writes when many
+ * threads record into the same histogram.
+ * <p/>
+ * There is one histogram per method and thread, so the sub buckets of a power of two are only
+ * allocated once a value has been recorded in it - the latencies of a method usually span a few.
+ */
+public class LogLinearHistogram implements LatencyRecorder {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //values above 2^44 nanos (~4.8 hours) are recorded in the last bucket
+    static final int MAX_BIT = 43;
+    static final int ROWS = MAX_BIT - SUB_BUCKET_BITS + 2;
+    static final int BUCKETS = ROWS * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_BIT + 1)) - 1;
+
+    //indexed by stripe * ROWS + row, each row holds the SUB_BUCKETS buckets of a power of two
+    private final AtomicReferenceArray<AtomicLongArray> rows;
+    private final int stripeMask;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public LogLinearHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency the expected number of concurrently recording threads
+     */
+    public LogLinearHistogram(int concurrency) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 8)));
+        this.rows = new AtomicReferenceArray<>(stripeCount * ROWS);
+        this.stripeMask = stripeCount - 1;
+    }
+
+    @Override
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        int stripe = stripeMask == 0 ? 0 : (int) (Thread.currentThread().getId() & stripeMask);
+        int index = bucketIndex(nanos);
+        getOrCreateRow(stripe * ROWS + index / SUB_BUCKETS).incrementAndGet(index & (SUB_BUCKETS - 1));
+        count.increment();
+        sum.add(nanos);
+        long current;
+        while (nanos < (current = min.get()) && !min.compareAndSet(current, nanos)) {
+        }
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+        }
+    }
+
+    private AtomicLongArray getOrCreateRow(int rowIndex) {
+        AtomicLongArray row = rows.get(rowIndex);
+        if (row == null) {
+            row = new AtomicLongArray(SUB_BUCKETS);
+            if (!rows.compareAndSet(rowIndex, null, row)) {
+                row = rows.get(rowIndex);
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getTotalTime() {
+        return sum.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getSnapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < rows.length(); i++) {
+            AtomicLongArray row = rows.get(i);
+            if (row != null) {
+                int offset = (i % ROWS) * SUB_BUCKETS;
+                for (int j = 0; j < SUB_BUCKETS; j++) {
+                    long c = row.get(j);
+                    counts[offset + j] += c;
+                    total += c;
+                }
+            }
+        }
+        long snapshotMin = min.get();
+        long snapshotMax = max.get();
+        return new HistogramSnapshot(counts, total, sum.sum(), total > 0 ? snapshotMin : 0, total > 0 ? snapshotMax : 0);
+    }
+
+    /**
+     * @return the number of rows of buckets that have been allocated
+     */
+    int getAllocatedRows() {
+        int result = 0;
+        for (int i = 0; i < rows.length(); i++) {
+            if (rows.get(i) != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return lowerBound(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the histogram buckets. Snapshots of histograms recorded
+     * on different threads can be combined with {@link #merge(HistogramSnapshot)}.
+     */
+    public static class HistogramSnapshot implements LatencySnapshot {
+        private static final int MAX_VALUES = 1024;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        HistogramSnapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public static HistogramSnapshot empty() {
+            return new HistogramSnapshot(new long[BUCKETS], 0, 0, 0, 0);
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (count <= 1) {
+                return 0;
+            }
+            double mean = getMean();
+            double variance = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    double diff = midPoint(i) - mean;
+                    variance += diff * diff * counts[i];
+                }
+            }
+            return Math.sqrt(variance / (count - 1));
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            if (quantile <= 0) {
+                return min;
+            }
+            if (quantile >= 1) {
+                return max;
+            }
+            double rank = quantile * count;
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank && counts[i] > 0) {
+                    return midPoint(i);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return up to {@value #MAX_VALUES} values, evenly spaced by rank, representing the distribution
+         */
+        @Override
+        public long[] getValues() {
+            int size = (int) Math.min(count, MAX_VALUES);
+            long[] result = new long[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = (long) getValue((i + 0.5) / size);
+            }
+            return result;
+        }
+
+        public HistogramSnapshot merge(HistogramSnapshot other) {
+            if (other.count == 0) {
+                return this;
+            }
+            if (count == 0) {
+                return other;
+            }
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new HistogramSnapshot(merged, count + other.count, sum + other.sum,
+                                            Math.min(min, other.min), Math.max(max, other.max));
+        }
+
+        private double midPoint(int index) {
+            double value = (lowerBound(index) + upperBound(index)) / 2.0;
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
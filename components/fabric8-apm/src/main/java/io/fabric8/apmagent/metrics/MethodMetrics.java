@@ -15,22 +15,19 @@
  */
 package io.fabric8.apmagent.metrics;
 
-import com.codahale.metrics.Timer;
+import com.codahale.metrics.Meter;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-public class MethodMetrics {
-    protected final Timer timer;
-    private final String name;
+/**
+ * The metrics of a method, recorded by {@link #update(long)} and {@link #updateError(long)}.
+ */
+public class MethodMetrics extends AbstractMethodMetrics {
+    protected final Meter meter;
+    protected final LatencyRecorder latencyRecorder;
     private final double rateFactor;
-    private final double durationFactor;
-    private int percentage;
-    private boolean active = true;
+    //only created for methods that have thrown an exception
+    private volatile LatencyRecorder errorLatencyRecorder;
 
     /**
      * Constructor.
@@ -38,135 +35,103 @@ public class MethodMetrics {
      * @param name - the fully qualified method name
      */
     public MethodMetrics(String name) {
-        this.name = name;
-        this.timer = new Timer();
-
-        this.rateFactor = TimeUnit.SECONDS.toSeconds(1);
-        this.durationFactor = 1.0 / TimeUnit.MILLISECONDS.toNanos(1);
-    }
-
-    public String getName() {
-        return name;
+        this(name, new LogLinearHistogram());
     }
 
-    public boolean isActive() {
-        return active;
-    }
+    /**
+     * Constructor.
+     *
+     * @param name            - the fully qualified method name
+     * @param latencyRecorder - records the elapsed time of each call
+     */
+    public MethodMetrics(String name, LatencyRecorder latencyRecorder) {
+        super(name);
+        this.meter = new Meter();
+        this.latencyRecorder = latencyRecorder;
 
-    public void setActive(boolean active) {
-        this.active = active;
+        this.rateFactor = TimeUnit.SECONDS.toSeconds(1);
     }
 
+    @Override
     public long getCount() {
-        return timer.getCount();
+        return meter.getCount();
     }
 
+    @Override
     public double getMeanRate() {
-        return timer.getMeanRate() * rateFactor;
+        return meter.getMeanRate() * rateFactor;
     }
 
+    @Override
     public double getOneMinuteRate() {
-        return timer.getOneMinuteRate() * rateFactor;
+        return meter.getOneMinuteRate() * rateFactor;
     }
 
+    @Override
     public double getFiveMinuteRate() {
-        return timer.getFiveMinuteRate() * rateFactor;
+        return meter.getFiveMinuteRate() * rateFactor;
     }
 
+    @Override
     public double getFifteenMinuteRate() {
-        return timer.getFifteenMinuteRate() * rateFactor;
+        return meter.getFifteenMinuteRate() * rateFactor;
     }
 
-    public double getMin() {
-        return timer.getSnapshot().getMin() * durationFactor;
+    @Override
+    protected long getTotalTime() {
+        return latencyRecorder.getTotalTime();
     }
 
-    public double getMax() {
-        return timer.getSnapshot().getMax() * durationFactor;
-    }
-
-    public double getMean() {
-        return timer.getSnapshot().getMean() * durationFactor;
-    }
-
-    public double getStdDev() {
-        return timer.getSnapshot().getStdDev() * durationFactor;
-    }
-
-    public double get50thPercentile() {
-        return timer.getSnapshot().getMedian() * durationFactor;
-    }
-
-    public double get75thPercentile() {
-        return timer.getSnapshot().get75thPercentile() * durationFactor;
-    }
-
-    public double get95thPercentile() {
-        return timer.getSnapshot().get95thPercentile() * durationFactor;
-    }
-
-    public double get98thPercentile() {
-        return timer.getSnapshot().get98thPercentile() * durationFactor;
-    }
-
-    public double get99thPercentile() {
-        return timer.getSnapshot().get99thPercentile() * durationFactor;
-    }
-
-    public double get999thPercentile() {
-        return timer.getSnapshot().get999thPercentile() * durationFactor;
+    public void update(long elapsed) {
+        if (elapsed >= 0) {
+            meter.mark();
+            latencyRecorder.record(elapsed);
+        }
     }
 
     /**
-     * average amount of time for a method multiplied by the number of times called
-     *
-     * @return estimated load
+     * Records a call that was left by an exception - in addition to {@link #update(long)}, which records every call
      */
-    public double getLoad() {
-        return timer.getSnapshot().size() * getMean();
+    public void updateError(long elapsed) {
+        if (elapsed >= 0) {
+            LatencyRecorder recorder = errorLatencyRecorder;
+            if (recorder == null) {
+                synchronized (this) {
+                    recorder = errorLatencyRecorder;
+                    if (recorder == null) {
+                        recorder = new LogLinearHistogram(1);
+                        errorLatencyRecorder = recorder;
+                    }
+                }
+            }
+            recorder.record(elapsed);
+        }
     }
 
-    public int getPercentage() {
-        return percentage;
+    @Override
+    public long getErrorCount() {
+        LatencyRecorder recorder = errorLatencyRecorder;
+        return recorder != null ? recorder.getCount() : 0;
     }
 
-    public void setPercentage(int percentage) {
-        this.percentage = percentage;
+    @Override
+    protected long getErrorTotalTime() {
+        LatencyRecorder recorder = errorLatencyRecorder;
+        return recorder != null ? recorder.getTotalTime() : 0;
     }
 
-    public long[] values() {
-        return timer.getSnapshot().getValues();
+    @Override
+    protected LatencySnapshot createErrorSnapshot() {
+        LatencyRecorder recorder = errorLatencyRecorder;
+        return recorder != null ? recorder.getSnapshot() : null;
     }
 
-    public void update(long elapsed) {
-        if (elapsed >= 0) {
-            timer.update(elapsed, TimeUnit.NANOSECONDS);
-        }
+    @Override
+    protected LatencySnapshot createSnapshot() {
+        return latencyRecorder.getSnapshot();
     }
 
     public String toString() {
         return "MethodMetrics:" + getName();
     }
-
-    public static List<? extends MethodMetrics> sortedMetrics(Collection<? extends MethodMetrics> collection) {
-        ArrayList<? extends MethodMetrics> list = new ArrayList<>(collection);
-
-        Collections.sort(list, new Comparator<MethodMetrics>() {
-            @Override
-            public int compare(MethodMetrics methodMetrics1, MethodMetrics methodMetrics2) {
-                return (int) ((int) methodMetrics2.getLoad() - (int) methodMetrics1.getLoad());
-            }
-        });
-        //calculate the percentage
-        int totalLoad = 0;
-        for (MethodMetrics m : list) {
-            totalLoad += m.getLoad();
-        }
-        for (MethodMetrics m : list) {
-            int percentage = (int) ((m.getLoad() * 100) / totalLoad);
-            m.setPercentage(percentage);
-        }
-        return list;
-    }
 }
-
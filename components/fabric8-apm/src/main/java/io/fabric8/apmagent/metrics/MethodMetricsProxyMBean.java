@@ -53,6 +53,14 @@ public interface MethodMetricsProxyMBean {
 
     double get999thPercentile();
 
+    long getErrorCount();
+
+    double getErrorMean();
+
+    double getErrorMax();
+
+    double getError99thPercentile();
+
     long[] values();
 
 }
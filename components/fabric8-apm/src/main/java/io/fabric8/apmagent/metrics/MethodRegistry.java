@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns a compact integer id to every full method name. Ids are handed out when a
+ * class is transformed, so the instrumented code only ever passes an int to the agent
+ * and the enter/exit path can index arrays instead of hashing method names.
+ */
+class MethodRegistry {
+    private static final int INITIAL_CAPACITY = 256;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private int size;
+
+    int getId(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        if (id == null) {
+            id = register(fullMethodName);
+        }
+        return id;
+    }
+
+    /**
+     * @return the id for the method or -1 if the method has never been registered
+     */
+    int findId(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        return id != null ? id : -1;
+    }
+
+    String getName(int id) {
+        String[] array = names;
+        return id >= 0 && id < array.length ? array[id] : null;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    private synchronized int register(String fullMethodName) {
+        Integer id = ids.get(fullMethodName);
+        if (id == null) {
+            id = size++;
+            String[] array = names;
+            if (id >= array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[id] = fullMethodName;
+            names = array;
+            ids.put(fullMethodName, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Writes the metrics of every method, and of every method on every thread, in one go - as an
+ * alternative to reading the per rank MBeans attribute by attribute.
+ * <p/>
+ * Two formats are supported: the Prometheus text exposition format, and a compact JSON document.
+ */
+public class MetricsExporter {
+    public enum FORMAT {
+        PROMETHEUS, JSON;
+
+        public static FORMAT getFormat(String name) {
+            for (FORMAT v : values()) {
+                if (v.name().equalsIgnoreCase(name)) {
+                    return v;
+                }
+            }
+            return PROMETHEUS;
+        }
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Collection<? extends AbstractMethodMetrics> methodMetrics;
+    private final Collection<ThreadMetrics> threadMetrics;
+
+    MetricsExporter(Collection<? extends AbstractMethodMetrics> methodMetrics, Collection<ThreadMetrics> threadMetrics) {
+        this.methodMetrics = methodMetrics;
+        this.threadMetrics = threadMetrics;
+    }
+
+    public String export(FORMAT format) {
+        StringWriter writer = new StringWriter();
+        try {
+            write(format, writer);
+        } catch (IOException e) {
+            //can't happen with a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    public void write(FORMAT format, Writer writer) throws IOException {
+        if (format == FORMAT.JSON) {
+            writeJson(writer);
+        } else {
+            writePrometheus(writer);
+        }
+    }
+
+    public void writePrometheus(Writer writer) throws IOException {
+        writer.write("# TYPE apm_method_latency_seconds summary\n");
+        for (AbstractMethodMetrics metrics : methodMetrics) {
+            LatencySnapshot snapshot = metrics.getSnapshot();
+            String labels = "method=\"" + escapeLabel(metrics.getName()) + "\"";
+            for (double quantile : QUANTILES) {
+                writeSample(writer, "apm_method_latency_seconds", labels + ",quantile=\"" + quantile + "\"",
+                               snapshot.getValue(quantile) / NANOS_PER_SECOND);
+            }
+            writeSample(writer, "apm_method_latency_seconds_sum", labels, metrics.getTotalTime() / NANOS_PER_SECOND);
+            writeSample(writer, "apm_method_latency_seconds_count", labels, metrics.getCount());
+        }
+        writer.write("# TYPE apm_method_errors_total counter\n");
+        for (AbstractMethodMetrics metrics : methodMetrics) {
+            writeSample(writer, "apm_method_errors_total", "method=\"" + escapeLabel(metrics.getName()) + "\"", metrics.getErrorCount());
+        }
+        writer.write("# TYPE apm_method_error_latency_seconds_total counter\n");
+        for (AbstractMethodMetrics metrics : methodMetrics) {
+            writeSample(writer, "apm_method_error_latency_seconds_total", "method=\"" + escapeLabel(metrics.getName()) + "\"",
+                           metrics.getErrorTotalTime() / NANOS_PER_SECOND);
+        }
+        writer.write("# TYPE apm_thread_method_calls_total counter\n");
+        for (ThreadMetrics tm : threadMetrics) {
+            String threadLabel = "thread=\"" + escapeLabel(tm.getName()) + "\",method=\"";
+            for (ThreadContextMethodMetrics metrics : tm.getMethodMetrics()) {
+                writeSample(writer, "apm_thread_method_calls_total", threadLabel + escapeLabel(metrics.getName()) + "\"", metrics.getCount());
+            }
+        }
+        writer.write("# TYPE apm_thread_method_latency_seconds_total counter\n");
+        for (ThreadMetrics tm : threadMetrics) {
+            String threadLabel = "thread=\"" + escapeLabel(tm.getName()) + "\",method=\"";
+            for (ThreadContextMethodMetrics metrics : tm.getMethodMetrics()) {
+                writeSample(writer, "apm_thread_method_latency_seconds_total", threadLabel + escapeLabel(metrics.getName()) + "\"",
+                               metrics.getTotalTime() / NANOS_PER_SECOND);
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes <code>{"methods":[...],"threads":[{"name":...,"id":...,"methods":[...]}]}</code>, with times in milliseconds
+     */
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\"methods\":[");
+        writeJsonMethods(writer, methodMetrics, true);
+        writer.write("],\"threads\":[");
+        boolean first = true;
+        for (ThreadMetrics tm : threadMetrics) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("{\"name\":");
+            writeJsonString(writer, tm.getThreadName());
+            writer.write(",\"id\":" + tm.getThreadId() + ",\"methods\":[");
+            writeJsonMethods(writer, tm.getMethodMetrics(), false);
+            writer.write("]}");
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    private void writeJsonMethods(Writer writer, Collection<? extends AbstractMethodMetrics> list, boolean percentiles) throws IOException {
+        boolean first = true;
+        for (AbstractMethodMetrics metrics : list) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("{\"name\":");
+            writeJsonString(writer, metrics.getName());
+            writer.write(",\"count\":" + metrics.getCount());
+            writer.write(",\"errors\":" + metrics.getErrorCount());
+            writer.write(",\"load\":" + format(metrics.getLoad()));
+            writer.write(",\"mean\":" + format(metrics.getMean()));
+            if (percentiles) {
+                writer.write(",\"max\":" + format(metrics.getMax()));
+                writer.write(",\"p50\":" + format(metrics.get50thPercentile()));
+                writer.write(",\"p95\":" + format(metrics.get95thPercentile()));
+                writer.write(",\"p99\":" + format(metrics.get99thPercentile()));
+                writer.write(",\"errorMean\":" + format(metrics.getErrorMean()));
+            }
+            writer.write('}');
+        }
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+        writer.write(name);
+        writer.write('{');
+        writer.write(labels);
+        writer.write("} ");
+        writer.write(format(value));
+        writer.write('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%.6g", value);
+    }
+
+    private static String escapeLabel(String value) {
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '\n') {
+                if (builder == null) {
+                    builder = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                builder.append('\\').append(c == '\n' ? 'n' : c);
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder != null ? builder.toString() : value;
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
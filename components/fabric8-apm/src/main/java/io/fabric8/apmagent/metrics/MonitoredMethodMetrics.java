@@ -42,7 +42,7 @@ public class MonitoredMethodMetrics {
         }
     }
 
-    public void calculateMethodMetrics(List<? extends MethodMetrics> methodMetricsList) {
+    public void calculateMethodMetrics(List<? extends AbstractMethodMetrics> methodMetricsList) {
         if (methodMetricsList.size() < proxyList.size()) {
             setMonitorSize(methodMetricsList.size());
         }
@@ -16,18 +16,21 @@
 package io.fabric8.apmagent.metrics;
 
 public class MonitoredThreadMethodMetrics extends MonitoredMethodMetrics {
-    private Thread thread;
+    private final String threadName;
+    private final long threadId;
 
-    MonitoredThreadMethodMetrics(Thread thread, ApmAgentContext apmAgentContext) {
+    MonitoredThreadMethodMetrics(String threadName, long threadId, ApmAgentContext apmAgentContext) {
         super(apmAgentContext);
-        this.thread = thread;
+        this.threadName = threadName;
+        this.threadId = threadId;
     }
 
     @Override
     protected ThreadContextMethodMetricsProxy createProxy(int rank) {
         ThreadContextMethodMetricsProxy result = new ThreadContextMethodMetricsProxy();
-        result.setThread(thread);
-        apmAgentContext.registerMethodMetricsMBean(thread.getName(), thread.getId(), rank, result);
+        result.setThreadName(threadName);
+        result.setThreadId(threadId);
+        apmAgentContext.registerMethodMetricsMBean(threadName, threadId, rank, result);
         return result;
     }
 }
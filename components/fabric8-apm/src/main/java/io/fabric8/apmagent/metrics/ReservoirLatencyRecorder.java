@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link LatencyRecorder} backed by a codahale exponentially decaying reservoir, which biases
+ * the reported latencies towards the last five minutes of calls.
+ */
+public class ReservoirLatencyRecorder implements LatencyRecorder {
+    private final Histogram histogram = new Histogram(new ExponentiallyDecayingReservoir());
+
+    @Override
+    public void record(long nanos) {
+        if (nanos >= 0) {
+            histogram.update(nanos);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getTotalTime() {
+        Snapshot snapshot = histogram.getSnapshot();
+        return (long) (snapshot.size() * snapshot.getMean());
+    }
+
+    @Override
+    public LatencySnapshot getSnapshot() {
+        return toLatencySnapshot(histogram.getSnapshot());
+    }
+
+    static LatencySnapshot toLatencySnapshot(final Snapshot snapshot) {
+        return new LatencySnapshot() {
+            @Override
+            public long getCount() {
+                return snapshot.size();
+            }
+
+            @Override
+            public long getMin() {
+                return snapshot.getMin();
+            }
+
+            @Override
+            public long getMax() {
+                return snapshot.getMax();
+            }
+
+            @Override
+            public double getMean() {
+                return snapshot.getMean();
+            }
+
+            @Override
+            public double getStdDev() {
+                return snapshot.getStdDev();
+            }
+
+            @Override
+            public double getValue(double quantile) {
+                return snapshot.getValue(quantile);
+            }
+
+            @Override
+            public long[] getValues() {
+                return snapshot.getValues();
+            }
+        };
+    }
+}
@@ -15,49 +15,58 @@
  */
 package io.fabric8.apmagent.metrics;
 
-import com.codahale.metrics.Timer;
-
 import java.util.concurrent.atomic.AtomicReference;
 
 public class ThreadContextMethodMetrics extends MethodMetrics {
-    private final Thread thread;
+    private final ThreadMetrics threadMetrics;
     private final AtomicReference<ThreadContextMethodMetricsStack> stackRef;
-    private Timer.Context timerContext;
+    private final int methodId;
 
-    public ThreadContextMethodMetrics(Thread thread, AtomicReference<ThreadContextMethodMetricsStack> stackRef, String name) {
-        super(name);
-        this.thread = thread;
+    public ThreadContextMethodMetrics(ThreadMetrics threadMetrics, AtomicReference<ThreadContextMethodMetricsStack> stackRef, int methodId, String name, LatencyRecorder latencyRecorder) {
+        super(name, latencyRecorder);
+        this.threadMetrics = threadMetrics;
         this.stackRef = stackRef;
+        this.methodId = methodId;
+    }
+
+    public int getMethodId() {
+        return methodId;
     }
 
     public String getThreadName() {
-        return thread.getName();
+        return threadMetrics.getThreadName();
     }
 
     public long getThreadId() {
-        return thread.getId();
+        return threadMetrics.getThreadId();
     }
 
     public void onEnter() {
-        timerContext = timer.time();
-        stackRef.get().push(this);
+        stackRef.get().push(this, System.nanoTime());
     }
 
-    public long onExit() {
-        long result = -1;
-        ThreadContextMethodMetrics last = stackRef.get().pop();
-        if (last == this) {
-            result = timerContext.stop();
-        } else {
-            //the exit could have jumped a few methods if its
-            //caused by an exception
-            while (last != null && last != this) {
-                result = last.timerContext.stop();
-                last = stackRef.get().pop();
-            }
-            if (last == this) {
-                result = timerContext.stop();
-            }
+    /**
+     * @param error true if the method was left by an exception
+     * @return the elapsed time of the method, or -1 if it isn't on the stack
+     */
+    public long onExit(boolean error) {
+        long now = System.nanoTime();
+        ThreadContextMethodMetricsStack stack = stackRef.get();
+        if (!stack.contains(this)) {
+            //entered while it wasn't active
+            return -1;
+        }
+        long result;
+        ThreadContextMethodMetrics last;
+        //frames above this one are left over from methods that were activated, or
+        //had their metrics removed, while they were running
+        do {
+            result = now - stack.peekStartTime();
+            last = stack.pop();
+            last.update(result);
+        } while (last != this);
+        if (error) {
+            updateError(result);
         }
         return result;
     }
@@ -16,25 +16,24 @@
 package io.fabric8.apmagent.metrics;
 
 public class ThreadContextMethodMetricsProxy extends MethodMetricsProxy implements ThreadContextMethodMetricsProxyMBean {
-    private Thread thread;
+    private String threadName = " NOT SET";
+    private long threadId = -1;
 
-    public Thread getThread() {
-        return thread;
+    public void setThreadName(String threadName) {
+        this.threadName = threadName;
     }
 
-    public void setThread(Thread thread) {
-        this.thread = thread;
+    public void setThreadId(long threadId) {
+        this.threadId = threadId;
     }
 
     @Override
     public String getThreadName() {
-        Thread t = thread;
-        return t != null ? t.getName() : " NOT SET";
+        return threadName;
     }
 
     @Override
     public long getThreadId() {
-        Thread t = thread;
-        return t != null ? t.getId() : -1;
+        return threadId;
     }
 }
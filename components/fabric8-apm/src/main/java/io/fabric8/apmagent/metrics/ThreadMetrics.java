@@ -20,81 +20,101 @@ import io.fabric8.apmagent.ApmConfiguration;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * The metrics of the methods called by one thread - recorded into by that thread, or by the sampler on its behalf.
+ * <p/>
+ * Creating one is cheap: the thread is only weakly referenced (so a dead thread can be collected
+ * before housekeeping notices it has died), and nothing is asked of the {@link ThreadMXBean} until it's read.
+ */
 public class ThreadMetrics {
     private final AtomicReference<ThreadContextMethodMetricsStack> methodStackRef;
     private final ApmAgentContext apmAgentContext;
-    private final ThreadInfo threadInfo;
-    private final Thread thread;
-    private final ThreadMXBean threadMXBean;
-    private final ConcurrentMap<String, ThreadContextMethodMetrics> methods = new ConcurrentHashMap<>();
+    private final WeakReference<Thread> threadRef;
+    private final String threadName;
+    private final long threadId;
     private final MonitoredThreadMethodMetrics monitoredThreadMethodMetrics;
+    //indexed by method id - copied on write, as the owning thread and the sampler add entries while housekeeping removes them
+    private final AtomicReference<ThreadContextMethodMetrics[]> methodsRef = new AtomicReference<>(new ThreadContextMethodMetrics[16]);
+    private volatile boolean destroyed;
 
     public ThreadMetrics(ApmAgentContext apmAgentContext, Thread thread) {
         this.methodStackRef = new AtomicReference<>(new ThreadContextMethodMetricsStack());
         this.apmAgentContext = apmAgentContext;
-        this.threadMXBean = ManagementFactory.getThreadMXBean();
-        this.threadInfo = threadMXBean.getThreadInfo(thread.getId());
-        this.thread = thread;
+        this.threadRef = new WeakReference<>(thread);
+        this.threadName = thread.getName();
+        this.threadId = thread.getId();
         ApmConfiguration configuration = apmAgentContext.getConfiguration();
-        this.monitoredThreadMethodMetrics = new MonitoredThreadMethodMetrics(thread, apmAgentContext);
+        this.monitoredThreadMethodMetrics = new MonitoredThreadMethodMetrics(threadName, threadId, apmAgentContext);
         this.monitoredThreadMethodMetrics.setMonitorSize(configuration.getThreadMetricDepth());
     }
 
     public String getName() {
-        return thread.getName() + "[" + thread.getId() + "]";
+        return getThreadName() + "[" + threadId + "]";
+    }
+
+    public String getThreadName() {
+        Thread thread = threadRef.get();
+        return thread != null ? thread.getName() : threadName;
     }
 
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * @return the thread, or null if it has died and been garbage collected
+     */
     Thread getThread() {
-        return thread;
+        return threadRef.get();
     }
 
     public boolean isDead() {
-        return !thread.isAlive();
+        Thread thread = threadRef.get();
+        return thread == null || !thread.isAlive();
     }
 
     public long getCpuTime() {
-        return threadMXBean.getThreadCpuTime(thread.getId());
+        return ManagementFactory.getThreadMXBean().getThreadCpuTime(threadId);
     }
 
     public long getUserTime() {
-        return threadMXBean.getThreadUserTime(thread.getId());
+        return ManagementFactory.getThreadMXBean().getThreadUserTime(threadId);
     }
 
     public ThreadInfo getThreadInfo() {
-        return threadInfo;
+        return ManagementFactory.getThreadMXBean().getThreadInfo(threadId);
     }
 
     public void setMonitorSize(int monitorSize) {
         monitoredThreadMethodMetrics.setMonitorSize(monitorSize);
     }
 
-    public void enter(String methodName, boolean alwaysActive) {
-        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
-        if (threadContextMethodMetrics == null) {
-            threadContextMethodMetrics = new ThreadContextMethodMetrics(thread, this.methodStackRef, methodName);
-            threadContextMethodMetrics.setActive(apmAgentContext.isMonitorByDefault());
-            methods.putIfAbsent(methodName, threadContextMethodMetrics);
-        }
+    public void enter(int methodId, boolean alwaysActive) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = getOrCreate(methodId);
         if (alwaysActive || threadContextMethodMetrics.isActive()) {
             threadContextMethodMetrics.onEnter();
         }
     }
 
-    public long exit(String methodName, boolean alwaysActive) {
+    /**
+     * @param error true if the method was left by an exception
+     * @return the elapsed time of the method, or -1 if it wasn't timed
+     */
+    public long exit(int methodId, boolean alwaysActive, boolean error) {
         long result = -1;
-        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+        ThreadContextMethodMetrics threadContextMethodMetrics = get(methodId);
+        //no metrics means they were removed while the method was running - its frame
+        //is left on the stack and popped when its caller exits
         if (threadContextMethodMetrics != null) {
             if (alwaysActive || threadContextMethodMetrics.isActive()) {
-                result = threadContextMethodMetrics.onExit();
+                result = threadContextMethodMetrics.onExit(error);
             }
-        } else {
-            //something weird happended reset the stack
-            methodStackRef.set(new ThreadContextMethodMetricsStack());
         }
         return result;
     }
@@ -104,28 +124,89 @@ public class ThreadMetrics {
     }
 
     public void destroy() {
+        destroyed = true;
         monitoredThreadMethodMetrics.destroy();
     }
 
-    public ThreadContextMethodMetrics remove(String fullMethodName) {
-        ThreadContextMethodMetrics result = methods.remove(fullMethodName);
-        return result;
+    void unregisterMethodMetricsMBeans() {
+        monitoredThreadMethodMetrics.destroy();
+    }
+
+    boolean isDestroyed() {
+        return destroyed;
+    }
+
+    public ThreadContextMethodMetrics remove(int methodId) {
+        while (true) {
+            ThreadContextMethodMetrics[] array = methodsRef.get();
+            ThreadContextMethodMetrics result = methodId >= 0 && methodId < array.length ? array[methodId] : null;
+            if (result == null) {
+                return null;
+            }
+            ThreadContextMethodMetrics[] newArray = array.clone();
+            newArray[methodId] = null;
+            if (methodsRef.compareAndSet(array, newArray)) {
+                return result;
+            }
+        }
     }
 
     public void calculateMethodMetrics() {
-        List<ThreadContextMethodMetrics> list = (List<ThreadContextMethodMetrics>) MethodMetrics.sortedMetrics(this.methods.values());
+        List<ThreadContextMethodMetrics> list = MethodMetrics.topMetrics(getMethodMetrics(), monitoredThreadMethodMetrics.getMonitorSize());
         monitoredThreadMethodMetrics.calculateMethodMetrics(list);
     }
 
-    public void setActive(String methodName, boolean flag) {
-        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+    public void setActive(int methodId, boolean flag) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = get(methodId);
         if (threadContextMethodMetrics != null) {
             threadContextMethodMetrics.setActive(flag);
         }
     }
 
-    public boolean isActive(String methodName) {
-        ThreadContextMethodMetrics threadContextMethodMetrics = methods.get(methodName);
+    public boolean isActive(int methodId) {
+        ThreadContextMethodMetrics threadContextMethodMetrics = get(methodId);
         return threadContextMethodMetrics != null ? threadContextMethodMetrics.isActive() : false;
     }
+
+    List<ThreadContextMethodMetrics> getMethodMetrics() {
+        ThreadContextMethodMetrics[] array = methodsRef.get();
+        List<ThreadContextMethodMetrics> result = new ArrayList<>();
+        for (ThreadContextMethodMetrics threadContextMethodMetrics : array) {
+            if (threadContextMethodMetrics != null) {
+                result.add(threadContextMethodMetrics);
+            }
+        }
+        return result;
+    }
+
+    ThreadContextMethodMetrics get(int methodId) {
+        ThreadContextMethodMetrics[] array = methodsRef.get();
+        return methodId >= 0 && methodId < array.length ? array[methodId] : null;
+    }
+
+    private ThreadContextMethodMetrics getOrCreate(int methodId) {
+        ThreadContextMethodMetrics result = get(methodId);
+        if (result != null) {
+            return result;
+        }
+        ThreadContextMethodMetrics created = null;
+        while (true) {
+            ThreadContextMethodMetrics[] array = methodsRef.get();
+            result = methodId < array.length ? array[methodId] : null;
+            if (result != null) {
+                return result;
+            }
+            if (created == null) {
+                created = new ThreadContextMethodMetrics(this, methodStackRef, methodId, apmAgentContext.getMethodName(methodId),
+                                                         apmAgentContext.createLatencyRecorder(1));
+                created.setActive(apmAgentContext.isMonitorByDefault());
+            }
+            //never write into a published array - a concurrent remove() would be lost
+            ThreadContextMethodMetrics[] newArray = Arrays.copyOf(array, methodId < array.length ? array.length : Math.max(methodId + 1, array.length * 2));
+            newArray[methodId] = created;
+            if (methodsRef.compareAndSet(array, newArray)) {
+                return created;
+            }
+        }
+    }
 }
@@ -18,6 +18,8 @@ package io.fabric8.apmagent.strategy.sampling;
 import io.fabric8.apmagent.ApmConfiguration;
 import io.fabric8.apmagent.Strategy;
 import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
@@ -27,8 +29,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+/**
+ * Samples the stacks of application threads with batched {@link ThreadMXBean#getThreadInfo(long[], int)} calls.
+ * The top frame of each stack drives the method metrics, and the whole stack is aggregated into a
+ * {@link StackProfile} that can be exported as collapsed stacks for flame graphs.
+ */
 public class SamplingStrategy implements Strategy, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SamplingStrategy.class);
     private static final long CLEANUP_INTERVAL = 1000;
     private ApmAgentContext context;
     private ApmConfiguration configuration;
@@ -36,6 +46,14 @@ public class SamplingStrategy implements Strategy, Runnable {
     private AtomicBoolean started = new AtomicBoolean();
     private Thread samplingThread;
     private final Map<Long, String> currentMethods = new HashMap<>();
+    private final StackProfile stackProfile = new StackProfile();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private Map<Long, Thread> sampledThreads = new HashMap<>();
+    private long[] sampledThreadIds = new long[0];
+    private long[] batch = new long[0];
+    private int nextThread;
+    private String threadFilter;
+    private Pattern threadFilterPattern;
 
     public SamplingStrategy(ApmAgentContext context) {
         this.context = context;
@@ -80,61 +98,150 @@ public class SamplingStrategy implements Strategy, Runnable {
 
     }
 
+    public StackProfile getStackProfile() {
+        return stackProfile;
+    }
+
     @Override
     public void run() {
         long lastTime = 0;
         while (started.get()) {
             try {
-                for (Map.Entry<Thread, StackTraceElement[]> threadEntry : Thread.getAllStackTraces().entrySet()) {
-                    if (threadEntry.getKey() != Thread.currentThread()) {
-                        addMeasurement(threadEntry.getKey(), threadEntry.getValue());
-                    }
-                }
                 long currentTime = System.currentTimeMillis();
 
                 if ((currentTime - lastTime) > CLEANUP_INTERVAL) {
-                    cleanup();
+                    refreshThreads();
                     lastTime = currentTime;
                 }
+                sample();
                 Thread.sleep(configuration.getSamplingInterval());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                LOG.warn("Failed to sample threads due " + e.getMessage() + ". This exception is ignored.", e);
             }
         }
     }
 
-    private void cleanup() {
-        List<ThreadInfo> removeList = null;
-        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    /**
+     * Refreshes the set of threads to sample, so new threads are picked up and dead threads are
+     * forgotten without having to look at every thread on every sample.
+     */
+    void refreshThreads() {
+        Pattern filter = getThreadFilterPattern();
+        Map<Long, Thread> threads = new HashMap<>();
+        for (Thread thread : getAllThreads()) {
+            if (thread != null && thread != Thread.currentThread() && thread.isAlive()) {
+                if (filter == null || filter.matcher(thread.getName()).matches()) {
+                    threads.put(thread.getId(), thread);
+                }
+            }
+        }
+        long[] ids = new long[threads.size()];
+        int i = 0;
+        for (Long id : threads.keySet()) {
+            ids[i++] = id;
+        }
+        List<Long> removeList = null;
         for (Long id : currentMethods.keySet()) {
-            ThreadInfo threadInfo = threadMXBean.getThreadInfo(id);
-            if (threadInfo != null) {
-                if (threadInfo.getThreadState() == Thread.State.TERMINATED) {
-                    if (removeList == null) {
-                        removeList = new ArrayList<>();
-                    }
-                    removeList.add(threadInfo);
+            if (!threads.containsKey(id)) {
+                if (removeList == null) {
+                    removeList = new ArrayList<>();
                 }
+                removeList.add(id);
             }
         }
         if (removeList != null) {
-            for (ThreadInfo threadInfo : removeList) {
-                currentMethods.remove(threadInfo.getThreadId());
+            for (Long id : removeList) {
+                currentMethods.remove(id);
+            }
+        }
+        sampledThreads = threads;
+        sampledThreadIds = ids;
+    }
+
+    long[] getSampledThreadIds() {
+        return sampledThreadIds;
+    }
+
+    private void sample() {
+        long[] ids = nextThreadIds();
+        if (ids.length == 0) {
+            return;
+        }
+        ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(ids, configuration.getSamplingMaxDepth());
+        for (ThreadInfo threadInfo : threadInfos) {
+            if (threadInfo != null) {
+                StackTraceElement[] stackTraceElements = threadInfo.getStackTrace();
+                stackProfile.addSample(stackTraceElements);
+                addMeasurement(sampledThreads.get(threadInfo.getThreadId()), stackTraceElements);
             }
         }
     }
 
+    /**
+     * @return the ids of the threads to sample next, taking at most samplingMaxThreads of them in turn
+     */
+    long[] nextThreadIds() {
+        long[] ids = sampledThreadIds;
+        int maxThreads = configuration.getSamplingMaxThreads();
+        if (maxThreads > 0 && ids.length > maxThreads) {
+            if (batch.length != maxThreads) {
+                batch = new long[maxThreads];
+            }
+            for (int i = 0; i < maxThreads; i++) {
+                batch[i] = ids[(nextThread + i) % ids.length];
+            }
+            nextThread = (nextThread + maxThreads) % ids.length;
+            ids = batch;
+        }
+        return ids;
+    }
+
+    private Pattern getThreadFilterPattern() {
+        String filter = configuration.getSamplingThreadFilter();
+        if (!filter.equals(threadFilter)) {
+            threadFilter = filter;
+            threadFilterPattern = null;
+            if (!filter.isEmpty()) {
+                try {
+                    threadFilterPattern = Pattern.compile(filter);
+                } catch (PatternSyntaxException e) {
+                    LOG.warn("Invalid samplingThreadFilter " + filter + " - sampling all threads");
+                }
+            }
+        }
+        return threadFilterPattern;
+    }
+
+    private static Thread[] getAllThreads() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count;
+        while ((count = group.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+        Thread[] result = new Thread[count];
+        System.arraycopy(threads, 0, result, 0, count);
+        return result;
+    }
+
     private void addMeasurement(Thread thread, StackTraceElement[] stackTraceElements) {
         if (thread != null && thread.isAlive() &&
                 stackTraceElements != null && stackTraceElements.length > 0) {
             StackTraceElement topOfStack = stackTraceElements[0];
-            String currentMethod = getCurrentMethod(topOfStack);
             if (configuration.isAudit(topOfStack.getClassName(), topOfStack.getMethodName())) {
+                String currentMethod = getCurrentMethod(topOfStack);
                 String lastMethod = currentMethods.put(thread.getId(), currentMethod);
                 if (lastMethod == null) {
                     context.enterMethod(thread, currentMethod, true);
                 } else if (!lastMethod.equals(currentMethod)) {
                     context.exitMethod(thread, lastMethod, true);
+                    context.enterMethod(thread, currentMethod, true);
                 } else {
                     //we are still in the currentMethod
                 }
@@ -148,4 +255,3 @@ public class SamplingStrategy implements Strategy, Runnable {
         return stringBuilder.toString();
     }
 }
-
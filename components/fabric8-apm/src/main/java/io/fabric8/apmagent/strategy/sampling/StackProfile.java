@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates sampled stacks into a prefix tree (root frame first) of interned frame ids,
+ * and exports them in the collapsed stack format used by flame graph tools:
+ * <pre>
+ *     frame1;frame2;frame3 count
+ * </pre>
+ */
+public class StackProfile {
+    private static final int MAX_NODES = 200000;
+    private final int maxNodes;
+    private final Map<String, Map<String, Integer>> frameIds = new HashMap<>();
+    private final List<String> frames = new ArrayList<>();
+    private Node root = new Node(-1);
+    private int nodeCount;
+    private long sampleCount;
+
+    public StackProfile() {
+        this(MAX_NODES);
+    }
+
+    StackProfile(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @param stack the stack of a thread with the currently executing frame first, as returned by the JVM
+     */
+    public synchronized void addSample(StackTraceElement[] stack) {
+        if (stack == null || stack.length == 0) {
+            return;
+        }
+        Node node = root;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            int frameId = findFrameId(stack[i]);
+            Node child = frameId >= 0 ? node.getChild(frameId) : null;
+            if (child == null) {
+                if (nodeCount >= maxNodes) {
+                    //the tree is full - attribute the sample to the deepest frame we know about
+                    break;
+                }
+                if (frameId < 0) {
+                    frameId = addFrame(stack[i]);
+                }
+                child = node.addChild(frameId);
+                nodeCount++;
+            }
+            node = child;
+        }
+        if (node == root) {
+            //the tree is full and not even the root frame is known, so there is nowhere to count the sample
+            return;
+        }
+        node.selfCount++;
+        sampleCount++;
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    public synchronized int getFrameCount() {
+        return frames.size();
+    }
+
+    public synchronized void reset() {
+        root = new Node(-1);
+        nodeCount = 0;
+        sampleCount = 0;
+        frameIds.clear();
+        frames.clear();
+    }
+
+    /**
+     * @return one line per distinct stack: the frames from the root, separated by ';', then the number of samples
+     */
+    public synchronized String toCollapsedStacks() {
+        StringBuilder builder = new StringBuilder();
+        int[] path = new int[16];
+        for (int i = 0; i < root.childCount; i++) {
+            path = appendCollapsed(builder, root.children[i], path, 0);
+        }
+        return builder.toString();
+    }
+
+    private int[] appendCollapsed(StringBuilder builder, Node node, int[] path, int depth) {
+        if (depth >= path.length) {
+            path = Arrays.copyOf(path, path.length * 2);
+        }
+        path[depth] = node.frameId;
+        if (node.selfCount > 0) {
+            for (int i = 0; i <= depth; i++) {
+                if (i > 0) {
+                    builder.append(';');
+                }
+                builder.append(frames.get(path[i]));
+            }
+            builder.append(' ').append(node.selfCount).append('\n');
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            path = appendCollapsed(builder, node.children[i], path, depth + 1);
+        }
+        return path;
+    }
+
+    /**
+     * @return the id of the frame, or -1 if it is in no sampled stack yet
+     */
+    private int findFrameId(StackTraceElement element) {
+        Map<String, Integer> methods = frameIds.get(element.getClassName());
+        Integer id = methods != null ? methods.get(element.getMethodName()) : null;
+        return id != null ? id : -1;
+    }
+
+    private int addFrame(StackTraceElement element) {
+        Map<String, Integer> methods = frameIds.get(element.getClassName());
+        if (methods == null) {
+            methods = new HashMap<>();
+            frameIds.put(element.getClassName(), methods);
+        }
+        int id = frames.size();
+        frames.add(element.getClassName() + "." + element.getMethodName());
+        methods.put(element.getMethodName(), id);
+        return id;
+    }
+
+    private static class Node {
+        private final int frameId;
+        private Node[] children;
+        private int childCount;
+        private long selfCount;
+
+        Node(int frameId) {
+            this.frameId = frameId;
+        }
+
+        Node getChild(int frameId) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].frameId == frameId) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(int frameId) {
+            if (children == null) {
+                children = new Node[2];
+            } else if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            Node child = new Node(frameId);
+            children[childCount++] = child;
+            return child;
+        }
+    }
+}
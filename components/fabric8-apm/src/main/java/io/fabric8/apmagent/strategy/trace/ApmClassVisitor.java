@@ -58,7 +58,8 @@ public class ApmClassVisitor extends ClassVisitor {
             if (canProfileMethod(name, desc) && traceStrategy.isAudit(classInfo.getClassName(), name)) {
                 MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
 
-                ApmMethodVisitor methodVisitor = new ApmMethodVisitor(mv, classInfo.getClassName(), name + methodDescription);
+                int methodId = traceStrategy.getContext().getMethodId(classInfo.getClassName() + "@" + name + methodDescription);
+                ApmMethodVisitor methodVisitor = new ApmMethodVisitor(mv, methodId);
                 classInfo.addTransformedMethod(name, methodDescription);
                 return methodVisitor;
             }
@@ -71,7 +72,7 @@ public class ApmClassVisitor extends ClassVisitor {
         return super.visitMethod(access, name, desc, signature, exceptions);
     }
 
-    private boolean canProfileMethod(String methodName, String methodDescriptor) {
+    static boolean canProfileMethod(String methodName, String methodDescriptor) {
         if (methodDescriptor != null) {
 
             Type[] parameterTypes = Type.getArgumentTypes(methodDescriptor);
@@ -87,7 +88,7 @@ public class ApmClassVisitor extends ClassVisitor {
         return false;
     }
 
-    private String getDescription(String desc) {
+    static String getDescription(String desc) {
         Type[] parameterTypes = Type.getArgumentTypes(desc);
         String result;
         if (parameterTypes == null || parameterTypes.length == 0) {
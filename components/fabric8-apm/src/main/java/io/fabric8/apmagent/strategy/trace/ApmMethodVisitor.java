@@ -15,33 +15,74 @@
  */
 package io.fabric8.apmagent.strategy.trace;
 
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
 import static org.objectweb.asm.Opcodes.*;
 
+/**
+ * Calls {@link io.fabric8.apmagent.ApmAgent#enterMethod(int)} on entry and {@link io.fabric8.apmagent.ApmAgent#exitMethod(int)}
+ * before every return. The whole body is wrapped in a catch all handler that calls
+ * {@link io.fabric8.apmagent.ApmAgent#exitMethodWithException(int)} and rethrows - so an exception thrown by the
+ * method, or by anything it calls, still exits the method.
+ */
 public class ApmMethodVisitor extends MethodVisitor {
-    private final String fullMethodName;
+    static final String AGENT_CLASS = "io/fabric8/apmagent/ApmAgent";
+    static final String METHOD_ID_DESCRIPTOR = "(I)V";
+    private final int methodId;
+    private Label start;
 
-    public ApmMethodVisitor(MethodVisitor mv, String className, String methodName) {
+    public ApmMethodVisitor(MethodVisitor mv, int methodId) {
         super(ASM5, mv);
-        this.fullMethodName = className + "@" + methodName;
+        this.methodId = methodId;
     }
 
     @Override
     public void visitCode() {
         super.visitCode();
-        super.visitLdcInsn(fullMethodName);
-        super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent",
-                                 "enterMethod", "(Ljava/lang/String;)V", false);
+        pushInt(mv, methodId);
+        super.visitMethodInsn(INVOKESTATIC, AGENT_CLASS,
+                                 "enterMethod", METHOD_ID_DESCRIPTOR, false);
+        start = new Label();
+        super.visitLabel(start);
     }
 
     @Override
     public void visitInsn(int opcode) {
-        if ((opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW) {
-            super.visitLdcInsn(fullMethodName);
-            super.visitMethodInsn(INVOKESTATIC, "io/fabric8/apmagent/ApmAgent",
-                                     "exitMethod", "(Ljava/lang/String;)V", false);
+        if (opcode >= IRETURN && opcode <= RETURN) {
+            pushInt(mv, methodId);
+            super.visitMethodInsn(INVOKESTATIC, AGENT_CLASS,
+                                     "exitMethod", METHOD_ID_DESCRIPTOR, false);
         }
         super.visitInsn(opcode);
     }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (start != null) {
+            //visited last, so the handler comes after (and never shadows) the method's own handlers
+            Label end = new Label();
+            Label handler = new Label();
+            super.visitLabel(end);
+            super.visitTryCatchBlock(start, end, handler, null);
+            super.visitLabel(handler);
+            pushInt(mv, methodId);
+            super.visitMethodInsn(INVOKESTATIC, AGENT_CLASS,
+                                     "exitMethodWithException", METHOD_ID_DESCRIPTOR, false);
+            super.visitInsn(ATHROW);
+        }
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import io.fabric8.apmagent.ClassInfo;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+import static org.objectweb.asm.Opcodes.ASM5;
+
+/**
+ * Makes the same per method decisions as {@link ApmClassVisitor} without touching any bytecode,
+ * so the set of methods that would be instrumented is known before the (expensive) transformation.
+ */
+public class InstrumentedMethodCollector extends ClassVisitor {
+    private final TraceStrategy traceStrategy;
+    private final ClassInfo classInfo;
+    private final SortedSet<String> methodNames = new TreeSet<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> descriptions = new ArrayList<>();
+
+    public InstrumentedMethodCollector(TraceStrategy traceStrategy, ClassInfo classInfo) {
+        super(ASM5);
+        this.traceStrategy = traceStrategy;
+        this.classInfo = classInfo;
+    }
+
+    public MethodVisitor visitMethod(int access,
+                                     String name,
+                                     String desc,
+                                     String signature,
+                                     String[] exceptions) {
+        String methodDescription = ApmClassVisitor.getDescription(desc);
+        classInfo.addMethod(name, methodDescription);
+        if (ApmClassVisitor.canProfileMethod(name, desc) && traceStrategy.isAudit(classInfo.getClassName(), name)) {
+            methodNames.add(classInfo.getClassName() + "@" + name + methodDescription);
+            names.add(name);
+            descriptions.add(methodDescription);
+        }
+        return null;
+    }
+
+    /**
+     * @return the full names of the methods that will be instrumented
+     */
+    public SortedSet<String> getMethodNames() {
+        return methodNames;
+    }
+
+    /**
+     * Records the methods as transformed in the {@link ClassInfo}, as {@link ApmClassVisitor} does -
+     * for when a previous transformation is reused instead
+     */
+    public void addTransformedMethods() {
+        for (int i = 0; i < names.size(); i++) {
+            classInfo.addTransformedMethod(names.get(i), descriptions.get(i));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import java.util.Map;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Rewrites the method ids passed to {@link io.fabric8.apmagent.ApmAgent} by previously instrumented bytecode.
+ * Method ids are only stable for the life of a JVM, so bytecode instrumented by an earlier run has
+ * to be remapped before it can be reused. Stack map frames are kept as they are, so this is far
+ * cheaper than instrumenting the class again.
+ */
+public class MethodIdRemapper extends ClassVisitor {
+    private final Map<Integer, Integer> methodIds;
+
+    /**
+     * @param methodIds the old method id to the new method id
+     */
+    public MethodIdRemapper(ClassVisitor cv, Map<Integer, Integer> methodIds) {
+        super(ASM5, cv);
+        this.methodIds = methodIds;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        return mv != null ? new RemappingMethodVisitor(mv) : null;
+    }
+
+    /**
+     * Holds back every int constant until the next instruction shows whether it is a method id
+     */
+    private class RemappingMethodVisitor extends MethodVisitor {
+        private boolean pending;
+        private int pendingValue;
+
+        RemappingMethodVisitor(MethodVisitor mv) {
+            super(ASM5, mv);
+        }
+
+        private void flush() {
+            if (pending) {
+                pending = false;
+                ApmMethodVisitor.pushInt(mv, pendingValue);
+            }
+        }
+
+        private void hold(int value) {
+            flush();
+            pending = true;
+            pendingValue = value;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode >= ICONST_M1 && opcode <= ICONST_5) {
+                hold(opcode - ICONST_0);
+            } else {
+                flush();
+                super.visitInsn(opcode);
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            if (opcode == BIPUSH || opcode == SIPUSH) {
+                hold(operand);
+            } else {
+                flush();
+                super.visitIntInsn(opcode, operand);
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst) {
+            if (cst instanceof Integer) {
+                hold((Integer) cst);
+            } else {
+                flush();
+                super.visitLdcInsn(cst);
+            }
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            if (pending && opcode == INVOKESTATIC && ApmMethodVisitor.AGENT_CLASS.equals(owner)
+                    && ApmMethodVisitor.METHOD_ID_DESCRIPTOR.equals(desc)) {
+                Integer methodId = methodIds.get(pendingValue);
+                if (methodId != null) {
+                    pendingValue = methodId;
+                }
+            }
+            flush();
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            flush();
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            flush();
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+            flush();
+            super.visitFieldInsn(opcode, owner, name, desc);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            flush();
+            super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            flush();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            flush();
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            flush();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            flush();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            flush();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims) {
+            flush();
+            super.visitMultiANewArrayInsn(desc, dims);
+        }
+
+        @Override
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+            flush();
+            super.visitFrame(type, nLocal, local, nStack, stack);
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            flush();
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            flush();
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        @Override
+        public void visitEnd() {
+            flush();
+            super.visitEnd();
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.util.CheckClassAdapter;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -32,10 +33,18 @@ import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TraceStrategy implements Strategy, ClassFileTransformer {
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(TraceStrategy.class);
@@ -43,11 +52,15 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
     private ApmAgentContext context;
     private ApmConfiguration configuration;
     private Instrumentation instrumentation;
-    private BlockingQueue<Class<?>> blockingQueue = new LinkedBlockingDeque<>();
     private AtomicBoolean initialized = new AtomicBoolean();
     private AtomicBoolean started = new AtomicBoolean();
     private AtomicBoolean cleanUp = new AtomicBoolean();
-    private Thread transformThread;
+    private ExecutorService transformExecutor;
+    private volatile TransformCache transformCache;
+    private final AtomicLong retransformPending = new AtomicLong();
+    private final AtomicLong retransformCompleted = new AtomicLong();
+    private final AtomicLong retransformFailed = new AtomicLong();
+    private final AtomicLong retransformTime = new AtomicLong();
 
     public TraceStrategy(ApmAgentContext context, Instrumentation instrumentation) {
         this.context = context;
@@ -58,6 +71,10 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
     @Override
     public void initialize() throws Exception {
         if (initialized.compareAndSet(false, true)) {
+            String directory = configuration.getTransformCacheDirectory();
+            if (configuration.getTransformCacheSize() > 0 || !directory.isEmpty()) {
+                transformCache = new TransformCache(context, configuration.getTransformCacheSize(), directory.isEmpty() ? null : new File(directory));
+            }
             configuration.addChangeListener(this);
         }
     }
@@ -82,19 +99,20 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
         if (initialized.compareAndSet(true, false)) {
             stop();
             configuration.removeChangeListener(this);
-            instrumentation.removeTransformer(this);
-            Thread t = transformThread;
-            transformThread = null;
-            if (t != null && !t.isInterrupted()) {
-                t.interrupt();
-            }
             cleanUp.set(true);
             try {
-                //clean up
+                //clean up - wait for the original classes to be restored before removing ourselves
                 instrumentApplication();
             } catch (Throwable e) {
                 LOG.warn("Failed to shutdown due " + e.getMessage() + ". This exception is ignored.", e);
             }
+            instrumentation.removeTransformer(this);
+            transformCache = null;
+            ExecutorService executor = transformExecutor;
+            transformExecutor = null;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
     }
 
@@ -124,15 +142,30 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
                     context.resetMethods(classInfo);
                 }
                 ClassReader cr = new ClassReader(classBufferToRedefine);
+                TransformCache cache = transformCache;
+                SortedSet<String> methodNames = null;
+                if (cache != null) {
+                    //cheap pass to find what would be instrumented - so a previous transformation can be reused
+                    InstrumentedMethodCollector collector = new InstrumentedMethodCollector(this, classInfo);
+                    cr.accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                    methodNames = collector.getMethodNames();
+                    buffer = cache.get(classBufferToRedefine, methodNames);
+                    if (buffer != null) {
+                        collector.addTransformedMethods();
+                    }
+                }
+                if (buffer == null) {
+                    ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
 
-                ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-
-                ApmClassVisitor visitor = new ApmClassVisitor(this, cw, classInfo);
-                cr.accept(visitor, ClassReader.SKIP_FRAMES);
-                buffer = cw.toByteArray();
-                if (!verifyClass(className, buffer)) {
-                    classInfo.setCanTransform(false);
-                    buffer = null;
+                    ApmClassVisitor visitor = new ApmClassVisitor(this, cw, classInfo);
+                    cr.accept(visitor, ClassReader.SKIP_FRAMES);
+                    buffer = cw.toByteArray();
+                    if (!verifyClass(className, buffer)) {
+                        classInfo.setCanTransform(false);
+                        buffer = null;
+                    } else if (cache != null) {
+                        cache.put(classBufferToRedefine, methodNames, buffer);
+                    }
                 }
                 classInfo.setTransformed(buffer);
             }
@@ -151,30 +184,42 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
             if (configuration.isFilterChanged()) {
                 List<ClassInfo> deltas = context.buildDeltaList();
                 if (deltas != null && !deltas.isEmpty()) {
+                    List<Class<?>> classes = new ArrayList<>(deltas.size());
                     for (ClassInfo classInfo : deltas) {
-                        if (configuration.isAsyncTransformation()) {
-                            try {
-                                blockingQueue.put(classInfo.getOriginalClass());
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                                break;
-                            }
-                        } else {
-                            try {
-                                instrumentation.retransformClasses(new Class[]{classInfo.getOriginalClass()});
-                            } catch (Throwable e) {
-                                LOG.warn("Could not transform " + classInfo.getClassName() + " due " + e.getMessage(), e);
-                            }
+                        if (classInfo.getOriginalClass() != null) {
+                            classes.add(classInfo.getOriginalClass());
                         }
                     }
-                    if (configuration.isAsyncTransformation() && !blockingQueue.isEmpty()) {
-                        startTransformThread();
-                    }
+                    retransform(classes, !configuration.isAsyncTransformation());
                 }
             }
         }
     }
 
+    /**
+     * @return the number of classes waiting to be retransformed
+     */
+    public long getRetransformPending() {
+        return retransformPending.get();
+    }
+
+    public long getRetransformCompleted() {
+        return retransformCompleted.get();
+    }
+
+    public long getRetransformFailed() {
+        return retransformFailed.get();
+    }
+
+    /**
+     * @return the number of classes retransformed per second of retransformation time, summed over all transform threads
+     */
+    public double getRetransformRate() {
+        long nanos = retransformTime.get();
+        long classes = retransformCompleted.get() + retransformFailed.get();
+        return nanos > 0 ? classes * (double) TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+
     public Instrumentation getInstrumentation() {
         return instrumentation;
     }
@@ -199,27 +244,14 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
 
         instrumentation.addTransformer(this, true);
 
+        List<Class<?>> classes = new ArrayList<>();
         for (Class<?> c : instrumentation.getAllLoadedClasses()) {
-            if (isInstrumentClass(c)) {
-                if (configuration.isAsyncTransformation()) {
-                    try {
-                        blockingQueue.put(c);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                } else {
-                    try {
-                        instrumentation.retransformClasses(new Class[]{c});
-                    } catch (Throwable e) {
-                        LOG.error("Could not transform " + c.getName(), e);
-                    }
-                }
+            if (cleanUp.get() ? instrumentation.isModifiableClass(c) && context.isTransformed(c.getName()) : isInstrumentClass(c)) {
+                classes.add(c);
             }
         }
-        if (configuration.isAsyncTransformation() && !blockingQueue.isEmpty()) {
-            startTransformThread();
-        }
+        //always restore the original classes synchronously
+        retransform(classes, cleanUp.get() || !configuration.isAsyncTransformation());
     }
 
     private boolean isInstrumentClass(Class c) {
@@ -239,32 +271,83 @@ public class TraceStrategy implements Strategy, ClassFileTransformer {
         return true;
     }
 
-    private synchronized void startTransformThread() {
-        if (configuration.isAsyncTransformation() && transformThread == null) {
-            transformThread = new Thread(new Runnable() {
+    /**
+     * Retransforms the classes in batches of {@link ApmConfiguration#getTransformBatchSize()} spread
+     * over the transform threads, so the bytecode rewriting in {@link #transform} runs in parallel.
+     *
+     * @param wait if true, blocks until all the classes have been retransformed
+     */
+    private void retransform(List<Class<?>> classes, boolean wait) {
+        if (classes.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = getTransformExecutor();
+        int batchSize = configuration.getTransformBatchSize();
+        List<Future<?>> futures = new ArrayList<>();
+        retransformPending.addAndGet(classes.size());
+        for (int i = 0; i < classes.size(); i += batchSize) {
+            final List<Class<?>> batch = classes.subList(i, Math.min(i + batchSize, classes.size()));
+            futures.add(executor.submit(new Runnable() {
                 @Override
                 public void run() {
-                    while (initialized.get() && !blockingQueue.isEmpty()) {
-                        try {
-                            Class<?> aClass = blockingQueue.take();
-                            if (aClass != null) {
-                                if (isInstrumentClass(aClass)) {
-                                    try {
-                                        instrumentation.retransformClasses(new Class[]{aClass});
-                                    } catch (Throwable e) {
-                                        LOG.error("Could not transform " + aClass.getName(), e);
-                                    }
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            shutDown();
-                        }
+                    retransformBatch(batch);
+                }
+            }));
+        }
+        if (wait) {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to retransform classes due " + e.getMessage() + ". This exception is ignored.", e);
+                }
+            }
+        }
+    }
+
+    private void retransformBatch(List<Class<?>> batch) {
+        long start = System.nanoTime();
+        try {
+            Class<?>[] classes = batch.toArray(new Class<?>[batch.size()]);
+            try {
+                instrumentation.retransformClasses(classes);
+                retransformCompleted.addAndGet(classes.length);
+            } catch (Throwable e) {
+                //one bad class fails the whole batch - so find it by going one at a time
+                LOG.debug("Could not transform batch of " + classes.length + " classes due " + e.getMessage() + ". Retrying individually.");
+                for (Class<?> c : classes) {
+                    try {
+                        instrumentation.retransformClasses(c);
+                        retransformCompleted.incrementAndGet();
+                    } catch (Throwable ex) {
+                        retransformFailed.incrementAndGet();
+                        LOG.warn("Could not transform " + c.getName() + " due " + ex.getMessage(), ex);
                     }
                 }
+            }
+        } finally {
+            retransformPending.addAndGet(-batch.size());
+            retransformTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private synchronized ExecutorService getTransformExecutor() {
+        if (transformExecutor == null) {
+            transformExecutor = Executors.newFixedThreadPool(configuration.getTransformThreads(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Fabric8-ApmAgent-Transform-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
             });
-            transformThread.setDaemon(true);
-            transformThread.start();
         }
+        return transformExecutor;
     }
 
     private boolean verifyClass(String className, byte[] transformed) {
@@ -0,0 +1,263 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A least recently used cache of instrumented classes, keyed by a hash of the original class bytes and
+ * the names of the instrumented methods - so turning tracing of a class off and on again does not
+ * have to instrument it (and compute its stack map frames) again.
+ * <p/>
+ * The method ids compiled into the instrumented bytecode are stored with each entry, and if they
+ * no longer match the ids of the running agent - e.g. the entry was read from the cache directory
+ * after a restart - the bytecode is remapped by {@link MethodIdRemapper} rather than instrumented again.
+ */
+public class TransformCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TransformCache.class);
+    private static final int FILE_MAGIC = 0xA9A70001;
+    private static final String FILE_SUFFIX = ".apm";
+
+    private final ApmAgentContext context;
+    private final long maxSize;
+    private final File directory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param maxSize   the maximum number of bytes of instrumented classes kept in memory
+     * @param directory if not null, where instrumented classes are also persisted
+     */
+    public TransformCache(ApmAgentContext context, long maxSize, File directory) {
+        this.context = context;
+        this.maxSize = maxSize;
+        this.directory = directory;
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            LOG.warn("Could not create transform cache directory " + directory + ". Instrumented classes will not be persisted.");
+        }
+    }
+
+    /**
+     * @return the instrumented class, or null if it isn't in the cache
+     */
+    public byte[] get(byte[] original, Collection<String> methodNames) {
+        String key = createKey(original, methodNames);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        boolean store = false;
+        if (entry == null) {
+            entry = read(key);
+            if (entry == null) {
+                return null;
+            }
+            store = true;
+        }
+        Entry current = remap(entry);
+        if (current == null) {
+            return null;
+        }
+        if (store || current != entry) {
+            store(key, current, current != entry);
+        }
+        return current.bytes;
+    }
+
+    public void put(byte[] original, Collection<String> methodNames, byte[] transformed) {
+        String[] names = methodNames.toArray(new String[methodNames.size()]);
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = context.getMethodId(names[i]);
+        }
+        store(createKey(original, methodNames), new Entry(transformed, names, ids), true);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    private void store(String key, Entry entry, boolean persist) {
+        if (entry.bytes.length <= maxSize) {
+            synchronized (entries) {
+                Entry previous = entries.put(key, entry);
+                size += entry.bytes.length - (previous != null ? previous.bytes.length : 0);
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (size > maxSize && iterator.hasNext()) {
+                    size -= iterator.next().bytes.length;
+                    iterator.remove();
+                }
+            }
+        }
+        if (persist) {
+            write(key, entry);
+        }
+    }
+
+    /**
+     * @return the entry with its method ids matching the running agent, or null if it could not be remapped
+     */
+    private Entry remap(Entry entry) {
+        Map<Integer, Integer> methodIds = null;
+        int[] ids = new int[entry.names.length];
+        for (int i = 0; i < entry.names.length; i++) {
+            ids[i] = context.getMethodId(entry.names[i]);
+            if (ids[i] != entry.ids[i]) {
+                if (methodIds == null) {
+                    methodIds = new HashMap<>();
+                }
+                methodIds.put(entry.ids[i], ids[i]);
+            }
+        }
+        if (methodIds == null) {
+            return entry;
+        }
+        try {
+            ClassReader cr = new ClassReader(entry.bytes);
+            ClassWriter cw = new ClassWriter(0);
+            cr.accept(new MethodIdRemapper(cw, methodIds), 0);
+            return new Entry(cw.toByteArray(), entry.names, ids);
+        } catch (Throwable e) {
+            LOG.warn("Failed to remap cached class due " + e.getMessage() + ". This exception is ignored.", e);
+            return null;
+        }
+    }
+
+    private Entry read(String key) {
+        File file = getFile(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("unknown file format");
+            }
+            // each method takes at least a 2 byte name length and a 4 byte id
+            String[] names = new String[readCount(in, length / 6)];
+            int[] ids = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+                ids[i] = in.readInt();
+            }
+            byte[] bytes = new byte[readCount(in, length)];
+            in.readFully(bytes);
+            return new Entry(bytes, names, ids);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to read " + file + " due " + e.getMessage() + ". The file is deleted.");
+            if (!file.delete()) {
+                LOG.warn("Could not delete " + file);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads a count, which can not be larger than the file it is read from
+     */
+    private static int readCount(DataInputStream in, long max) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("invalid count " + count);
+        }
+        return count;
+    }
+
+    private void write(String key, Entry entry) {
+        File file = getFile(key);
+        if (file == null) {
+            return;
+        }
+        try {
+            //write to a temporary file first, so a concurrent reader never sees a partial entry
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(entry.names.length);
+                for (int i = 0; i < entry.names.length; i++) {
+                    out.writeUTF(entry.names[i]);
+                    out.writeInt(entry.ids[i]);
+                }
+                out.writeInt(entry.bytes.length);
+                out.write(entry.bytes);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warn("Failed to write " + file + " due " + e.getMessage() + ". This exception is ignored.");
+        }
+    }
+
+    private File getFile(String key) {
+        return directory != null && directory.isDirectory() ? new File(directory, key + FILE_SUFFIX) : null;
+    }
+
+    private static String createKey(byte[] original, Collection<String> methodNames) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(original);
+        for (String name : methodNames) {
+            digest.update((byte) '\n');
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static class Entry {
+        private final byte[] bytes;
+        private final String[] names;
+        private final int[] ids;
+
+        Entry(byte[] bytes, String[] names, int[] ids) {
+            this.bytes = bytes;
+            this.names = names;
+            this.ids = ids;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link FilterMatcher} gives the same answers as the loops over {@link FilterItem}s that
+ * {@link ApmConfiguration} used before.
+ */
+public class FilterMatcherTest {
+    private static final String[] FILTERS = {
+        // a prefix whose dots are also regex wildcards
+        "com.acme.",
+        // a plain class name
+        "org.example.Foo",
+        // a regex
+        "io.fabric8.*Service",
+        // the slash form of a class name
+        "org/sample/Util",
+        // method level filters, plain and regex
+        "net.demo.Bar@doWork",
+        "net.demo.Baz@get.*",
+        // invalid regular expressions, for a class and for a method
+        "[broken",
+        "org.broken.Qux@(bad"
+    };
+
+    private static final String[] CLASS_NAMES = {
+        "com.acme.Thing", "comXacmeY", "com.acme", "org.example.Foo", "org/example/Foo", "orgXexampleXFoo",
+        "org.example.FooBar", "io.fabric8.MyService", "io.fabric8.MyServiceImpl", "io.fabric8.Service",
+        "org.sample.Util", "org/sample/Util$Inner", "net.demo.Bar", "net.demo.Baz", "net.demo.BazImpl",
+        "[broken.Thing", "org.broken.Qux", "java.lang.String", ""
+    };
+
+    private static final String[] METHOD_NAMES = {
+        null, "", "doWork", "doWorkLater", "get", "getName", "(bad", "other"
+    };
+
+    @Test
+    public void testMatchesLikeFilterItems() {
+        List<List<FilterItem>> lists = new ArrayList<>();
+        lists.add(Collections.<FilterItem>emptyList());
+        List<FilterItem> all = new ArrayList<>();
+        for (String filter : FILTERS) {
+            FilterItem item = filterItem(filter);
+            lists.add(Collections.singletonList(item));
+            all.add(item);
+        }
+        lists.add(all);
+
+        for (List<FilterItem> items : lists) {
+            FilterMatcher matcher = new FilterMatcher(items);
+            for (String className : CLASS_NAMES) {
+                String context = items + " " + className;
+                assertEquals("black list " + context, isBlackListed(items, className), matcher.matchesClass(className));
+                assertEquals("white list " + context, isWhiteListed(items, className), !matcher.isEmpty() && matcher.matchesClassExactly(className));
+                for (String methodName : METHOD_NAMES) {
+                    String methodContext = context + "@" + methodName;
+                    assertEquals("black list " + methodContext, isListed(items, className, methodName, true), matcher.matches(className, methodName, true));
+                    assertEquals("white list " + methodContext, isListed(items, className, methodName, false), matcher.matches(className, methodName, false));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSampleAnswers() {
+        FilterMatcher matcher = new FilterMatcher(Arrays.asList(filterItem("io.fabric8.*Service"), filterItem("net.demo.Baz@get.*"), filterItem("[broken")));
+        assertTrue(matcher.matchesClass("io/fabric8/MyService"));
+        assertFalse(matcher.matchesClass("io.fabric8.MyServiceImpl"));
+        assertTrue(matcher.matches("net.demo.Baz", "getName", false));
+        assertFalse(matcher.matches("net.demo.Baz", "setName", true));
+        // an invalid regex is only matched as a prefix
+        assertTrue(matcher.matchesClass("[broken.Thing"));
+        assertFalse(matcher.matchesClassExactly("[broken"));
+    }
+
+    private static FilterItem filterItem(String filter) {
+        String[] classAndMethod = filter.split("@");
+        FilterItem item = new FilterItem();
+        item.setClassName(classAndMethod[0]);
+        if (classAndMethod.length > 1) {
+            item.setMethodName(classAndMethod[1]);
+        }
+        return item;
+    }
+
+    /**
+     * The loops ApmConfiguration used to run - where one threw for an invalid regex, only the literal
+     * part of the filter is matched
+     */
+    private static boolean isBlackListed(List<FilterItem> items, String className) {
+        for (FilterItem item : items) {
+            if (classMatches(item, className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhiteListed(List<FilterItem> items, String className) {
+        for (FilterItem item : items) {
+            try {
+                if (className.matches(item.getClassName())) {
+                    return true;
+                }
+            } catch (PatternSyntaxException e) {
+                // not a match
+            }
+        }
+        return false;
+    }
+
+    private static boolean isListed(List<FilterItem> items, String className, String methodName, boolean matchIfNoFilterMethod) {
+        for (FilterItem item : items) {
+            boolean result;
+            try {
+                result = item.matches(className, methodName, matchIfNoFilterMethod);
+            } catch (PatternSyntaxException e) {
+                result = classMatches(item, className) && methodName != null && methodName.equals(item.getMethodName());
+            }
+            if (result) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean classMatches(FilterItem item, String className) {
+        try {
+            return item.matches(className);
+        } catch (PatternSyntaxException e) {
+            return className.replace('/', '.').startsWith(item.getClassName());
+        }
+    }
+}
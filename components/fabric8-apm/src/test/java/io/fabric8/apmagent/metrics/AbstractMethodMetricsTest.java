@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractMethodMetricsTest {
+
+    @Test
+    public void testTopMetricsMatchesAFullSort() {
+        Random random = new Random(42);
+        List<MethodMetrics> metrics = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            MethodMetrics m = new MethodMetrics("io.fabric8.testApp.TestLoad@method" + i + "() void");
+            // distinct loads, so both rankings have a single answer
+            m.update(i * 1000L + random.nextInt(1000));
+            metrics.add(m);
+        }
+        Collections.shuffle(metrics, random);
+
+        for (int size : new int[]{1, 10, 100, 500, 600}) {
+            List<? extends AbstractMethodMetrics> sorted = AbstractMethodMetrics.sortedMetrics(metrics);
+            List<Integer> percentages = new ArrayList<>();
+            for (AbstractMethodMetrics m : sorted) {
+                percentages.add(m.getPercentage());
+            }
+
+            List<MethodMetrics> top = AbstractMethodMetrics.topMetrics(metrics, size);
+            assertEquals(Math.min(size, metrics.size()), top.size());
+            for (int i = 0; i < top.size(); i++) {
+                assertSame("rank " + i + " of " + size, sorted.get(i), top.get(i));
+                assertEquals((int) percentages.get(i), top.get(i).getPercentage());
+            }
+        }
+        assertTrue(AbstractMethodMetrics.topMetrics(metrics, 0).isEmpty());
+    }
+
+    @Test
+    public void testTopMetricsWithEqualLoads() {
+        List<MethodMetrics> metrics = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            MethodMetrics m = new MethodMetrics("io.fabric8.testApp.TestLoad@method" + i + "() void");
+            m.update((i % 5) * 1000L);
+            metrics.add(m);
+        }
+        List<? extends AbstractMethodMetrics> sorted = AbstractMethodMetrics.sortedMetrics(metrics);
+        List<MethodMetrics> top = AbstractMethodMetrics.topMetrics(metrics, 12);
+        assertEquals(12, top.size());
+        // ties may be ranked either way, but the loads must be the same
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(sorted.get(i).getLoad(), top.get(i).getLoad(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmAgent;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class AggregateMethodMetricsTest {
+    private static final String METHOD_NAME = "io.fabric8.testApp.TestLoad@doSomething() void";
+
+    @Test
+    public void testAggregatesOncePerRound() {
+        ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+        int methodId = context.getMethodId(METHOD_NAME);
+        ThreadMetrics first = new ThreadMetrics(context, Thread.currentThread());
+        ThreadMetrics second = new ThreadMetrics(context, Thread.currentThread());
+        List<ThreadMetrics> threadMetrics = new CopyOnWriteArrayList<>(Arrays.asList(first, second));
+        AggregateMethodMetrics metrics = new AggregateMethodMetrics(METHOD_NAME, methodId, threadMetrics);
+
+        call(first, methodId, false);
+        call(first, methodId, false);
+        call(second, methodId, true);
+        metrics.aggregate();
+        assertEquals(3, metrics.getCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(3, metrics.getSnapshot().getCount());
+        assertEquals(first.get(methodId).getTotalTime() + second.get(methodId).getTotalTime(), metrics.getTotalTime());
+
+        // later calls are only read after the next round
+        call(first, methodId, false);
+        assertEquals(3, metrics.getCount());
+        metrics.aggregate();
+        assertEquals(4, metrics.getCount());
+
+        // a thread that has died is still counted
+        threadMetrics.remove(second);
+        metrics.retire(second.get(methodId));
+        metrics.aggregate();
+        assertEquals(4, metrics.getCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(4, metrics.createSnapshot().getCount());
+    }
+
+    private static void call(ThreadMetrics threadMetrics, int methodId, boolean error) {
+        threadMetrics.enter(methodId, true);
+        threadMetrics.exit(methodId, true, error);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.fabric8.apmagent.ApmAgent;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per call overhead of the enter/exit bookkeeping done for every instrumented method.
+ * <p/>
+ * {@link #enterExitByName()} is the name keyed path the instrumented code used to take,
+ * {@link #enterExitById()} is the id based path emitted by the {@link io.fabric8.apmagent.strategy.trace.ApmMethodVisitor},
+ * and {@link #enterExitByIdContended()} is the same path called by several threads at once.
+ * {@link #dispatchByName(NotRecorded)} and {@link #dispatchById(NotRecorded)} take the same paths for a method
+ * that is not monitored, so they measure finding the thread and method metrics without recording the latency.
+ * <p/>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.apmagent.metrics.ApmAgentContextBenchmark
+ * and add <code>-Dexec.args="-prof gc"</code> for the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApmAgentContextBenchmark {
+    private static final String METHOD_NAME = "io.fabric8.testApp.TestLoad@doSomething() void";
+
+    private ApmAgentContext context;
+    private int methodId;
+
+    @Setup
+    public void setUp() {
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+        methodId = context.getMethodId(METHOD_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.shutDown();
+    }
+
+    @Benchmark
+    public void enterExitByName() {
+        Thread thread = Thread.currentThread();
+        context.enterMethod(thread, METHOD_NAME, false);
+        context.exitMethod(thread, METHOD_NAME, false);
+    }
+
+    @Benchmark
+    public void enterExitById() {
+        context.enterMethod(methodId, false);
+        context.exitMethod(methodId, false);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void enterExitByIdContended() {
+        context.enterMethod(methodId, false);
+        context.exitMethod(methodId, false);
+    }
+
+    @Benchmark
+    public void dispatchByName(NotRecorded state) {
+        Thread thread = Thread.currentThread();
+        state.context.enterMethod(thread, METHOD_NAME, false);
+        state.context.exitMethod(thread, METHOD_NAME, false);
+    }
+
+    @Benchmark
+    public void dispatchById(NotRecorded state) {
+        state.context.enterMethod(state.methodId, false);
+        state.context.exitMethod(state.methodId, false);
+    }
+
+    /**
+     * A context that does not monitor its methods, so exits are not recorded
+     */
+    @State(Scope.Benchmark)
+    public static class NotRecorded {
+        private ApmAgentContext context;
+        private int methodId;
+
+        @Setup
+        public void setUp() {
+            context = new ApmAgentContext(ApmAgent.INSTANCE);
+            context.setMonitorByDefault(false);
+            context.initialize();
+            methodId = context.getMethodId(METHOD_NAME);
+        }
+
+        @TearDown
+        public void tearDown() {
+            context.shutDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Main.main(args.length > 0 ? args : new String[]{ApmAgentContextBenchmark.class.getSimpleName()});
+    }
+}
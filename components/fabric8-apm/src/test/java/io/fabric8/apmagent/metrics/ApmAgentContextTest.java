@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApmAgentContextTest {
+    private static final String METHOD_NAME = "io.fabric8.testApp.TestLoad@doSomething() void";
+
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private ApmAgentContext context;
+
+    @Before
+    public void setUp() {
+        configuration.setUsePlatformMBeanServer(true);
+        context = new ApmAgentContext(ApmAgent.INSTANCE);
+        context.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setMethodMetricsMBeans(true);
+        context.shutDown();
+    }
+
+    @Test
+    public void testMethodMetricsMBeansFollowTheConfiguration() throws Exception {
+        int methodId = context.getMethodId(METHOD_NAME);
+        context.enterMethod(methodId, true);
+        context.exitMethod(methodId, true);
+        context.doHouseKeeping();
+        int methodMBeans = countMBeans("MethodMetrics");
+        int threadMBeans = countMBeans("ThreadContextMetrics");
+        assertTrue(methodMBeans > 0);
+        assertTrue(threadMBeans > 0);
+
+        configuration.setMethodMetricsMBeans(false);
+        context.doHouseKeeping();
+        assertEquals(0, countMBeans("MethodMetrics"));
+        assertEquals(0, countMBeans("ThreadContextMetrics"));
+
+        configuration.setMethodMetricsMBeans(true);
+        context.doHouseKeeping();
+        assertEquals(methodMBeans, countMBeans("MethodMetrics"));
+        assertEquals(threadMBeans, countMBeans("ThreadContextMetrics"));
+    }
+
+    private int countMBeans(String type) throws Exception {
+        return mBeanServer.queryNames(new ObjectName("io.fabric8.apmagent:type=" + type + ",*"), null).size();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import org.junit.Test;
+
+import static io.fabric8.apmagent.metrics.LogLinearHistogram.BUCKETS;
+import static io.fabric8.apmagent.metrics.LogLinearHistogram.SUB_BUCKETS;
+import static io.fabric8.apmagent.metrics.LogLinearHistogram.bucketIndex;
+import static io.fabric8.apmagent.metrics.LogLinearHistogram.lowerBound;
+import static io.fabric8.apmagent.metrics.LogLinearHistogram.upperBound;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void testBucketIndex() {
+        for (int i = 0; i < SUB_BUCKETS; i++) {
+            assertEquals(i, bucketIndex(i));
+        }
+        assertEquals(16, bucketIndex(16));
+        assertEquals(31, bucketIndex(31));
+        assertEquals(32, bucketIndex(32));
+        assertEquals(32, bucketIndex(33));
+        assertEquals(33, bucketIndex(34));
+        assertEquals(BUCKETS - 1, bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBoundsCoverEveryValueOnce() {
+        assertEquals(0, lowerBound(0));
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            assertTrue("bucket " + i, lowerBound(i) <= upperBound(i));
+            assertEquals("bucket " + i, upperBound(i) + 1, lowerBound(i + 1));
+        }
+        for (long value = 0; value < 100000; value += 7) {
+            int index = bucketIndex(value);
+            assertTrue(value + " in bucket " + index, lowerBound(index) <= value && value <= upperBound(index));
+            // the width of a bucket is at most 1/SUB_BUCKETS of its values
+            assertTrue(value + " in bucket " + index, (upperBound(index) - lowerBound(index)) * SUB_BUCKETS <= value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+
+        LatencySnapshot snapshot = histogram.getSnapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getTotalTime());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+        assertEquals(1, snapshot.getValue(0), 0);
+        assertEquals(1000, snapshot.getValue(1), 0);
+        assertWithin(500, snapshot.getValue(0.5));
+        assertWithin(750, snapshot.getValue(0.75));
+        assertWithin(990, snapshot.getValue(0.99));
+        assertWithin(288.8, snapshot.getStdDev());
+        assertEquals(1000, snapshot.getValues().length);
+    }
+
+    @Test
+    public void testMerge() {
+        LogLinearHistogram all = new LogLinearHistogram(1);
+        LogLinearHistogram low = new LogLinearHistogram(1);
+        LogLinearHistogram high = new LogLinearHistogram(1);
+        for (int i = 1; i <= 1000; i++) {
+            all.record(i * 1000);
+            (i <= 500 ? low : high).record(i * 1000);
+        }
+        LatencySnapshot expected = all.getSnapshot();
+        LatencySnapshot merged = ((LogLinearHistogram.HistogramSnapshot) low.getSnapshot()).merge((LogLinearHistogram.HistogramSnapshot) high.getSnapshot());
+        assertEquals(expected.getCount(), merged.getCount());
+        assertEquals(expected.getMin(), merged.getMin());
+        assertEquals(expected.getMax(), merged.getMax());
+        assertEquals(expected.getMean(), merged.getMean(), 0.001);
+        assertEquals(expected.getValue(0.5), merged.getValue(0.5), 0);
+        assertEquals(expected.getValue(0.99), merged.getValue(0.99), 0);
+    }
+
+    @Test
+    public void testRowsAreAllocatedWhenUsed() {
+        LogLinearHistogram histogram = new LogLinearHistogram(4);
+        assertEquals(0, histogram.getAllocatedRows());
+        assertEquals(0, histogram.getSnapshot().getCount());
+
+        histogram.record(1000);
+        histogram.record(1010);
+        assertEquals(1, histogram.getAllocatedRows());
+        histogram.record(5000);
+        assertEquals(2, histogram.getAllocatedRows());
+    }
+
+    private static void assertWithin(double expected, double actual) {
+        assertEquals(expected, actual, expected / SUB_BUCKETS);
+    }
+}
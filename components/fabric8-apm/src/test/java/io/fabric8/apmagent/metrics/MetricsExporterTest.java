@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.metrics;
+
+import io.fabric8.apmagent.ApmAgent;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsExporterTest {
+    private static final String METHOD_NAME = "io.fabric8.testApp.TestLoad@say \"hi\"\\there\nnext";
+    private static final String METHOD_LABEL = "method=\"io.fabric8.testApp.TestLoad@say \\\"hi\\\"\\\\there\\nnext\"";
+
+    private final ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+    private final int methodId = context.getMethodId(METHOD_NAME);
+    private final ThreadMetrics threadMetrics = new ThreadMetrics(context, new Thread("worker \"1\""));
+    private final AggregateMethodMetrics methodMetrics =
+        new AggregateMethodMetrics(METHOD_NAME, methodId, Collections.singletonList(threadMetrics));
+
+    @Test
+    public void testPrometheusFormat() {
+        call(false);
+        call(false);
+        call(true);
+        String text = export(MetricsExporter.FORMAT.PROMETHEUS);
+
+        for (String quantile : new String[]{"0.5", "0.75", "0.95", "0.99", "0.999"}) {
+            assertSample(text, "apm_method_latency_seconds{" + METHOD_LABEL + ",quantile=\"" + quantile + "\"}");
+        }
+        double sum = assertSample(text, "apm_method_latency_seconds_sum{" + METHOD_LABEL + "}");
+        assertEquals(methodMetrics.getTotalTime() / 1e9, sum, sum * 1e-5);
+        assertEquals(3, assertSample(text, "apm_method_latency_seconds_count{" + METHOD_LABEL + "}"), 0);
+        assertEquals(1, assertSample(text, "apm_method_errors_total{" + METHOD_LABEL + "}"), 0);
+        assertEquals(3, assertSample(text, "apm_thread_method_calls_total{thread=\"worker \\\"1\\\"[" + threadMetrics.getThreadId() + "]\"," + METHOD_LABEL + "}"), 0);
+        assertTrue(text.contains("# TYPE apm_method_latency_seconds summary\n"));
+        // every line is a comment or a sample
+        for (String line : text.split("\n")) {
+            assertTrue(line, line.startsWith("# TYPE ") || line.matches("[a-z_]+\\{.*\\} [0-9.e+-]+"));
+        }
+    }
+
+    @Test
+    public void testJsonFormat() {
+        call(true);
+        String json = export(MetricsExporter.FORMAT.JSON);
+
+        assertTrue(json, json.startsWith("{\"methods\":[{\"name\":\"io.fabric8.testApp.TestLoad@say \\\"hi\\\"\\\\there\\u000anext\",\"count\":1,\"errors\":1,"));
+        assertTrue(json, json.contains("\"threads\":[{\"name\":\"worker \\\"1\\\"\",\"id\":" + threadMetrics.getThreadId() + ",\"methods\":[{\"name\":"));
+        assertTrue(json, json.endsWith("}]}]}"));
+        // the control character is escaped, so the document is a single line
+        assertEquals(-1, json.indexOf('\n'));
+    }
+
+    private void call(boolean error) {
+        threadMetrics.enter(methodId, true);
+        threadMetrics.exit(methodId, true, error);
+    }
+
+    private String export(MetricsExporter.FORMAT format) {
+        methodMetrics.aggregate();
+        return new MetricsExporter(Collections.singletonList(methodMetrics), Collections.singletonList(threadMetrics)).export(format);
+    }
+
+    /**
+     * @return the value of the sample
+     */
+    private static double assertSample(String text, String sample) {
+        Matcher matcher = Pattern.compile("^" + Pattern.quote(sample) + " (\\S+)$", Pattern.MULTILINE).matcher(text);
+        assertTrue(sample + " in " + text, matcher.find());
+        return Double.parseDouble(matcher.group(1));
+    }
+}
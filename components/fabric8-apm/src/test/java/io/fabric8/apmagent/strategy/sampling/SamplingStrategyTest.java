@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingStrategyTest {
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Thread> workers = new ArrayList<>();
+    private SamplingStrategy strategy;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 3; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "apm-test-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        strategy = new SamplingStrategy(new ApmAgentContext(ApmAgent.INSTANCE));
+    }
+
+    @After
+    public void tearDown() {
+        done.countDown();
+        configuration.setSamplingThreadFilter("");
+        configuration.setSamplingMaxThreads(0);
+    }
+
+    @Test
+    public void testThreadFilter() {
+        configuration.setSamplingThreadFilter("apm-test-worker-.*");
+        strategy.refreshThreads();
+        assertEquals(getWorkerIds(), toSet(strategy.getSampledThreadIds()));
+
+        configuration.setSamplingThreadFilter("");
+        strategy.refreshThreads();
+        Set<Long> all = toSet(strategy.getSampledThreadIds());
+        assertTrue(all.containsAll(getWorkerIds()));
+        // e.g. the finalizer, but not the thread sampling them
+        assertTrue(all.size() > getWorkerIds().size());
+        assertFalse(all.contains(Thread.currentThread().getId()));
+
+        // an invalid expression samples every thread
+        configuration.setSamplingThreadFilter("apm-test-worker-[");
+        strategy.refreshThreads();
+        assertTrue(toSet(strategy.getSampledThreadIds()).containsAll(all));
+    }
+
+    @Test
+    public void testThreadsAreSampledInTurn() {
+        configuration.setSamplingThreadFilter("apm-test-worker-.*");
+        strategy.refreshThreads();
+        long[] ids = strategy.getSampledThreadIds();
+        assertEquals(3, ids.length);
+
+        configuration.setSamplingMaxThreads(2);
+        assertArrayEquals(new long[]{ids[0], ids[1]}, strategy.nextThreadIds().clone());
+        assertArrayEquals(new long[]{ids[2], ids[0]}, strategy.nextThreadIds().clone());
+        assertArrayEquals(new long[]{ids[1], ids[2]}, strategy.nextThreadIds().clone());
+
+        // every thread when there are no more than the maximum
+        configuration.setSamplingMaxThreads(3);
+        assertArrayEquals(ids, strategy.nextThreadIds());
+        configuration.setSamplingMaxThreads(0);
+        assertArrayEquals(ids, strategy.nextThreadIds());
+    }
+
+    private Set<Long> getWorkerIds() {
+        Set<Long> ids = new HashSet<>();
+        for (Thread worker : workers) {
+            ids.add(worker.getId());
+        }
+        return ids;
+    }
+
+    private static Set<Long> toSet(long[] ids) {
+        Set<Long> set = new HashSet<>();
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
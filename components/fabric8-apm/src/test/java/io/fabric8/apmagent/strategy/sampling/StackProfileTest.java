@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.sampling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StackProfileTest {
+
+    @Test
+    public void testCollapsedStacks() {
+        StackProfile profile = new StackProfile();
+        profile.addSample(stack("app.Main.main", "app.Service.handle", "app.Dao.query"));
+        profile.addSample(stack("app.Main.main", "app.Service.handle", "app.Dao.query"));
+        profile.addSample(stack("app.Main.main", "app.Service.handle"));
+        profile.addSample(stack("app.Main.main", "app.Service.render"));
+        profile.addSample(new StackTraceElement[0]);
+
+        assertEquals(4, profile.getSampleCount());
+        assertEquals(4, profile.getFrameCount());
+        assertEquals("app.Main.main;app.Service.handle 1\n"
+                         + "app.Main.main;app.Service.handle;app.Dao.query 2\n"
+                         + "app.Main.main;app.Service.render 1\n", profile.toCollapsedStacks());
+
+        profile.reset();
+        assertEquals(0, profile.getSampleCount());
+        assertEquals("", profile.toCollapsedStacks());
+    }
+
+    @Test
+    public void testSamplesOfAFullTreeGoToTheDeepestKnownFrame() {
+        StackProfile profile = new StackProfile(3);
+        profile.addSample(stack("app.Main.main", "app.Service.handle", "app.Dao.query"));
+        profile.addSample(stack("app.Main.main", "app.Service.handle", "app.Dao.update"));
+        profile.addSample(stack("app.Main.main", "app.Service.render", "app.View.write"));
+        profile.addSample(stack("app.Other.run"));
+
+        // the stacks that no longer fit are cut off at the deepest known frame, or dropped if there is none
+        assertEquals(3, profile.getSampleCount());
+        assertEquals(3, profile.getFrameCount());
+        assertEquals("app.Main.main 1\n"
+                         + "app.Main.main;app.Service.handle 1\n"
+                         + "app.Main.main;app.Service.handle;app.Dao.query 1\n", profile.toCollapsedStacks());
+    }
+
+    /**
+     * @return the stack with the root frame given first, and so last in the stack the JVM returns
+     */
+    private static StackTraceElement[] stack(String... frames) {
+        StackTraceElement[] stack = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            String frame = frames[i];
+            int dot = frame.lastIndexOf('.');
+            stack[frames.length - 1 - i] = new StackTraceElement(frame.substring(0, dot), frame.substring(dot + 1), null, -1);
+        }
+        return stack;
+    }
+}
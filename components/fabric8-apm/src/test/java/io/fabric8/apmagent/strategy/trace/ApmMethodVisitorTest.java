@@ -0,0 +1,220 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+
+public class ApmMethodVisitorTest {
+    private static final String RECORDER = Recorder.class.getName().replace('.', '/');
+    private static final List<String> EVENTS = Collections.synchronizedList(new ArrayList<String>());
+    // small, byte and short ids are pushed with different instructions
+    private static final Map<String, Integer> METHOD_IDS = new HashMap<>();
+
+    static {
+        METHOD_IDS.put("compute", 1);
+        METHOD_IDS.put("handled", 200);
+        METHOD_IDS.put("rethrow", 40000);
+    }
+
+    private Object fixture;
+
+    @Before
+    public void setUp() throws Exception {
+        EVENTS.clear();
+        byte[] transformed = instrument(Fixture.class);
+
+        // the frames are computed as TraceStrategy computes them, so they must verify
+        StringWriter sw = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(transformed), false, new PrintWriter(sw));
+        assertEquals("", sw.toString());
+
+        Class<?> fixtureClass = new FixtureClassLoader(Fixture.class.getName(), transformed).loadClass(Fixture.class.getName());
+        assertNotSame(Fixture.class, fixtureClass);
+        fixture = fixtureClass.newInstance();
+    }
+
+    @Test
+    public void testReturnExitsTheMethod() throws Exception {
+        assertEquals(3, invoke("compute", 2));
+        assertEquals(Arrays.asList("enter 1", "exit 1"), EVENTS);
+    }
+
+    @Test
+    public void testThrowExitsTheMethodWithTheException() throws Exception {
+        try {
+            invoke("compute", -1);
+            fail("Expected an exception");
+        } catch (InvocationTargetException e) {
+            assertEquals(IllegalArgumentException.class, e.getCause().getClass());
+            assertEquals("negative -1", e.getCause().getMessage());
+        }
+        assertEquals(Arrays.asList("enter 1", "exception 1"), EVENTS);
+    }
+
+    @Test
+    public void testExceptionIsRethrownUnchanged() throws Exception {
+        Exception exception = new IOException("boom");
+        try {
+            invoke("rethrow", exception);
+            fail("Expected an exception");
+        } catch (InvocationTargetException e) {
+            assertSame(exception, e.getCause());
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        assertEquals(Arrays.asList("enter 40000", "exception 40000"), EVENTS);
+    }
+
+    @Test
+    public void testHandlerOfTheMethodIsNotShadowed() throws Exception {
+        assertEquals(-1, invoke("handled", -1));
+        // the exception of compute is caught by handled, which then returns normally
+        assertEquals(Arrays.asList("enter 200", "enter 1", "exception 1", "exit 200"), EVENTS);
+    }
+
+    private Object invoke(String name, Object arg) throws Exception {
+        for (Method method : fixture.getClass().getMethods()) {
+            if (method.getName().equals(name)) {
+                return method.invoke(fixture, arg);
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    /**
+     * Instruments the methods in {@link #METHOD_IDS}, calling the {@link Recorder} instead of the agent
+     */
+    private static byte[] instrument(Class<?> clazz) throws IOException {
+        ClassReader cr;
+        try (InputStream in = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            cr = new ClassReader(in);
+        }
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cr.accept(new ClassVisitor(ASM5, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+                Integer methodId = METHOD_IDS.get(name);
+                if (methodId == null) {
+                    return mv;
+                }
+                return new ApmMethodVisitor(new MethodVisitor(ASM5, mv) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        if (opcode == INVOKESTATIC && owner.equals(ApmMethodVisitor.AGENT_CLASS)) {
+                            owner = RECORDER;
+                        }
+                        super.visitMethodInsn(opcode, owner, name, desc, itf);
+                    }
+                }, methodId);
+            }
+        }, ClassReader.SKIP_FRAMES);
+        return cw.toByteArray();
+    }
+
+    public static class Fixture {
+
+        public int compute(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("negative " + value);
+            }
+            return value + 1;
+        }
+
+        public int handled(int value) {
+            try {
+                return compute(value);
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+        }
+
+        public void rethrow(Exception exception) throws Exception {
+            throw exception;
+        }
+    }
+
+    /**
+     * Stands in for {@link io.fabric8.apmagent.ApmAgent} in the instrumented fixture
+     */
+    public static class Recorder {
+
+        public static void enterMethod(int methodId) {
+            EVENTS.add("enter " + methodId);
+        }
+
+        public static void exitMethod(int methodId) {
+            EVENTS.add("exit " + methodId);
+        }
+
+        public static void exitMethodWithException(int methodId) {
+            EVENTS.add("exception " + methodId);
+        }
+    }
+
+    /**
+     * Defines the instrumented class itself, everything else comes from the test class loader
+     */
+    private static class FixtureClassLoader extends ClassLoader {
+        private final String name;
+        private final byte[] bytes;
+
+        FixtureClassLoader(String name, byte[] bytes) {
+            super(ApmMethodVisitorTest.class.getClassLoader());
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+            if (className.equals(name)) {
+                synchronized (getClassLoadingLock(className)) {
+                    Class<?> answer = findLoadedClass(className);
+                    if (answer == null) {
+                        answer = defineClass(className, bytes, 0, bytes.length);
+                    }
+                    return answer;
+                }
+            }
+            return super.loadClass(className, resolve);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import io.fabric8.testApp.TestApp;
+import io.fabric8.testApp.TestLoad;
+import io.fabric8.testApp.TestThreadFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceStrategyTest {
+    private static final Class<?>[] CLASSES = {
+        TestApp.class, TestLoad.class, TestThreadFactory.class, Assert.class, JUnitCore.class, TemporaryFolder.class, Result.class
+    };
+
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private final List<List<Class<?>>> retransformed = Collections.synchronizedList(new ArrayList<List<Class<?>>>());
+    private int batchSize;
+    private int threads;
+    private long cacheSize;
+
+    @Before
+    public void setUp() {
+        batchSize = configuration.getTransformBatchSize();
+        threads = configuration.getTransformThreads();
+        cacheSize = configuration.getTransformCacheSize();
+        configuration.setTransformBatchSize(3);
+        configuration.setTransformThreads(2);
+        configuration.setTransformCacheSize(0);
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setTransformBatchSize(batchSize);
+        configuration.setTransformThreads(threads);
+        configuration.setTransformCacheSize(cacheSize);
+    }
+
+    @Test
+    public void testFailedBatchIsRetransformedOneClassAtATime() throws Exception {
+        TraceStrategy strategy = new TraceStrategy(new ApmAgentContext(ApmAgent.INSTANCE), instrumentation(JUnitCore.class));
+        strategy.start();
+        try {
+            assertEquals(6, strategy.getRetransformCompleted());
+            assertEquals(1, strategy.getRetransformFailed());
+            assertEquals(0, strategy.getRetransformPending());
+
+            // the three batches, then the classes of the failed batch one at a time
+            assertEquals(6, retransformed.size());
+            assertEquals(new HashSet<>(Arrays.asList(
+                Arrays.<Class<?>>asList(TestApp.class, TestLoad.class, TestThreadFactory.class),
+                Arrays.<Class<?>>asList(Assert.class, JUnitCore.class, TemporaryFolder.class),
+                Arrays.<Class<?>>asList(Result.class),
+                Arrays.<Class<?>>asList(Assert.class),
+                Arrays.<Class<?>>asList(JUnitCore.class),
+                Arrays.<Class<?>>asList(TemporaryFolder.class))), new HashSet<>(retransformed));
+            int failedBatch = retransformed.indexOf(Arrays.<Class<?>>asList(Assert.class, JUnitCore.class, TemporaryFolder.class));
+            assertEquals(Arrays.<Class<?>>asList(Assert.class), retransformed.get(failedBatch + 1));
+        } finally {
+            strategy.shutDown();
+        }
+    }
+
+    /**
+     * Loads the {@link #CLASSES} and fails to retransform the given class
+     */
+    private Instrumentation instrumentation(final Class<?> unmodifiable) {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "isRetransformClassesSupported":
+                    case "isModifiableClass":
+                        return true;
+                    case "getAllLoadedClasses":
+                        return CLASSES.clone();
+                    case "retransformClasses":
+                        List<Class<?>> classes = Arrays.asList((Class<?>[]) args[0]);
+                        retransformed.add(classes);
+                        if (classes.contains(unmodifiable)) {
+                            throw new UnmodifiableClassException(unmodifiable.getName());
+                        }
+                        return null;
+                    default:
+                        return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.apmagent.strategy.trace;
+
+import io.fabric8.apmagent.ApmAgent;
+import io.fabric8.apmagent.ApmConfiguration;
+import io.fabric8.apmagent.ClassInfo;
+import io.fabric8.apmagent.metrics.ApmAgentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.ICONST_5;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+
+public class TransformCacheTest {
+    private static final String SAMPLE = Sample.class.getName().replace('.', '/');
+    // sorted, as collected by InstrumentedMethodCollector
+    private static final SortedSet<String> SAMPLE_METHODS = new TreeSet<>(Arrays.asList(
+        Sample.class.getName() + "@doWork() void", Sample.class.getName() + "@compute(int) int"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ApmConfiguration configuration = ApmAgent.INSTANCE.getConfiguration();
+    private long cacheSize;
+    private String cacheDirectory;
+    private String whiteList;
+    private byte[] original;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheSize = configuration.getTransformCacheSize();
+        cacheDirectory = configuration.getTransformCacheDirectory();
+        whiteList = configuration.getWhiteList();
+        // the agent's own classes are black listed by default
+        String sample = Sample.class.getName().replace('$', '.');
+        configuration.setWhiteList(sample + "@doWork," + sample + "@compute");
+        configuration.setTransformCacheSize(1024 * 1024);
+        configuration.setTransformCacheDirectory(folder.getRoot().getAbsolutePath());
+        original = readClass(SAMPLE);
+    }
+
+    @After
+    public void tearDown() {
+        configuration.setTransformCacheSize(cacheSize);
+        configuration.setTransformCacheDirectory(cacheDirectory);
+        configuration.setWhiteList(whiteList);
+    }
+
+    @Test
+    public void testCachedTransformationAfterRestart() throws Exception {
+        ApmAgentContext firstContext = new ApmAgentContext(ApmAgent.INSTANCE);
+        byte[] first = transform(firstContext);
+        assertNotNull(first);
+        assertEquals(new HashSet<>(Arrays.asList("doWork", "compute")), firstContext.getClassInfo(SAMPLE).getAllTransformedMethodNames());
+        assertEquals(getMethodIds(firstContext), getEnterMethodIds(first));
+
+        // a restarted agent hands out different method ids, so the persisted class has to be remapped
+        ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+        for (int i = 0; i < 200; i++) {
+            context.getMethodId("io.fabric8.Other@method" + i + "() void");
+        }
+        assertNotEquals(getMethodIds(firstContext), getMethodIds(context));
+        byte[] cached = new TransformCache(context, 1024 * 1024, folder.getRoot()).get(original, SAMPLE_METHODS);
+        assertNotNull(cached);
+        assertEquals(getMethodIds(context), getEnterMethodIds(cached));
+
+        // served from the cache, which must still record the transformed methods
+        byte[] second = transform(context);
+        ClassInfo classInfo = context.getClassInfo(SAMPLE);
+        assertEquals(new HashSet<>(Arrays.asList("doWork", "compute")), classInfo.getAllTransformedMethodNames());
+        assertEquals(getMethodIds(context), getEnterMethodIds(second));
+
+        // and so must a retransformation, e.g. after the filters changed
+        byte[] third = transform(context);
+        assertEquals(new HashSet<>(Arrays.asList("doWork", "compute")), classInfo.getAllTransformedMethodNames());
+        assertEquals(getMethodIds(context), getEnterMethodIds(third));
+
+        context.resetAll(classInfo);
+        assertFalse(classInfo.isTransformed());
+        assertEquals(0, classInfo.getAllTransformedMethodNames().size());
+    }
+
+    @Test
+    public void testCorruptFileIsACacheMiss() throws Exception {
+        ApmAgentContext context = new ApmAgentContext(ApmAgent.INSTANCE);
+        assertNotNull(transform(context));
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        File file = files[0];
+
+        // a method count far larger than the file
+        corrupt(file, 4, Integer.MAX_VALUE);
+        assertNull(new TransformCache(context, 1024 * 1024, folder.getRoot()).get(original, SAMPLE_METHODS));
+        assertFalse(file.exists());
+
+        // a negative length of the class bytes
+        assertNotNull(transform(context));
+        byte[] content = Files.readAllBytes(file.toPath());
+        corrupt(file, content.length - readClassLength(content) - 4, -1);
+        assertNull(new TransformCache(context, 1024 * 1024, folder.getRoot()).get(original, SAMPLE_METHODS));
+        assertFalse(file.exists());
+
+        // a truncated file
+        assertNotNull(transform(context));
+        content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(content, content.length / 2));
+        assertNull(new TransformCache(context, 1024 * 1024, folder.getRoot()).get(original, SAMPLE_METHODS));
+        assertFalse(file.exists());
+
+        // and the class is instrumented again
+        assertEquals(getMethodIds(context), getEnterMethodIds(transform(context)));
+        assertTrue(file.exists());
+    }
+
+    private static void corrupt(File file, int offset, int value) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(content).putInt(offset, value);
+        Files.write(file.toPath(), content);
+    }
+
+    /**
+     * @return the length of the class bytes, which end the file
+     */
+    private static int readClassLength(byte[] content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        in.readInt();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            in.readUTF();
+            in.readInt();
+        }
+        return in.readInt();
+    }
+
+    private byte[] transform(ApmAgentContext context) throws Exception {
+        TraceStrategy strategy = new TraceStrategy(context, null);
+        strategy.initialize();
+        try {
+            return strategy.transform(getClass().getClassLoader(), SAMPLE, null, null, original);
+        } finally {
+            configuration.removeChangeListener(strategy);
+        }
+    }
+
+    private static Set<Integer> getMethodIds(ApmAgentContext context) {
+        Set<Integer> ids = new HashSet<>();
+        for (String name : SAMPLE_METHODS) {
+            ids.add(context.getMethodId(name));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the method ids the instrumented class passes to {@link ApmAgent#enterMethod(int)}
+     */
+    private static Set<Integer> getEnterMethodIds(byte[] bytes) {
+        final Set<Integer> ids = new HashSet<>();
+        new ClassReader(bytes).accept(new ClassVisitor(ASM5) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(ASM5) {
+                    private Integer value;
+
+                    @Override
+                    public void visitInsn(int opcode) {
+                        value = opcode >= ICONST_0 && opcode <= ICONST_5 ? opcode - ICONST_0 : null;
+                    }
+
+                    @Override
+                    public void visitIntInsn(int opcode, int operand) {
+                        value = opcode == BIPUSH || opcode == SIPUSH ? operand : null;
+                    }
+
+                    @Override
+                    public void visitLdcInsn(Object cst) {
+                        value = cst instanceof Integer ? (Integer) cst : null;
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        if (opcode == INVOKESTATIC && ApmMethodVisitor.AGENT_CLASS.equals(owner) && "enterMethod".equals(name) && value != null) {
+                            ids.add(value);
+                        }
+                        value = null;
+                    }
+                };
+            }
+        }, 0);
+        return ids;
+    }
+
+    private static byte[] readClass(String className) throws IOException {
+        try (InputStream in = TransformCacheTest.class.getClassLoader().getResourceAsStream(className + ".class")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static class Sample {
+        private int total;
+
+        public void doWork() {
+            total++;
+        }
+
+        public int compute(int value) {
+            return total + value;
+        }
+    }
+}
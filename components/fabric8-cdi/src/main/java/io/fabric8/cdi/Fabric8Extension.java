@@ -45,6 +45,7 @@ import javax.enterprise.inject.spi.AnnotatedMethod;
 import javax.enterprise.inject.spi.AnnotatedParameter;
 import javax.enterprise.inject.spi.AnnotatedType;
 import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.enterprise.inject.spi.ProcessAnnotatedType;
@@ -121,6 +122,10 @@ public class Fabric8Extension implements Extension {
         }
     }
 
+    public void beforeShutdown(@Observes BeforeShutdown event) {
+        KubernetesHolder.closeServiceCache();
+    }
+
     public <R> void processAnnotatedType(@Observes ProcessAnnotatedType<R> pat,
                                          BeanManager beanManager) {
         AnnotatedType type = pat.getAnnotatedType();
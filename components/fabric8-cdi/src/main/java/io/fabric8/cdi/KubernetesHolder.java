@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicReference;
 public class KubernetesHolder {
 
     private static KubernetesClient client;
+    private static ServiceCache serviceCache;
     private static final AtomicReference<BeanManager> BEAN_MANAGER = new AtomicReference<>();
 
     public synchronized static KubernetesClient getClient() {
@@ -49,6 +50,30 @@ public class KubernetesHolder {
         return client;
     }
 
+    /**
+     * Returns the cache of the services and endpoints looked up with the client
+     */
+    public synchronized static ServiceCache getServiceCache() {
+        KubernetesClient current = getClient();
+        if (serviceCache == null || serviceCache.getClient() != current) {
+            if (serviceCache != null) {
+                serviceCache.close();
+            }
+            serviceCache = new ServiceCache(current);
+        }
+        return serviceCache;
+    }
+
+    /**
+     * Closes the watches of the service cache
+     */
+    public synchronized static void closeServiceCache() {
+        if (serviceCache != null) {
+            serviceCache.close();
+            serviceCache = null;
+        }
+    }
+
     private static BeanManager getBeanManager() {
         try {
             return CDI.current().getBeanManager();
@@ -61,4 +86,11 @@ public class KubernetesHolder {
         BEAN_MANAGER.set(beanManager);
     }
 
+    /**
+     * Uses the client instead of the one of the bean manager, or looks it up again if null
+     */
+    public synchronized static void useClient(KubernetesClient kubernetesClient) {
+        client = kubernetesClient;
+    }
+
 }
@@ -0,0 +1,89 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cdi;
+
+import io.fabric8.kubernetes.api.model.Endpoints;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * A read only list of the endpoint urls of a service, which follows the changes to the endpoints watched by the
+ * {@link ServiceCache} of the {@link KubernetesHolder}. The urls are read again by {@link #size()} and when the
+ * list is iterated, and {@link #get(int)} returns those the last size() was based on - so an index loop works
+ * on the urls as they were when its size was read, and iterating works on them as they were when it started.
+ * <p/>
+ * It needs the cache, as otherwise every read would look the endpoints up from the API server.
+ */
+public class LiveEndpointUrls extends AbstractList<String> {
+
+    private final String serviceId;
+    private final String serviceProtocol;
+    private final String servicePort;
+    private volatile Snapshot snapshot;
+
+    public LiveEndpointUrls(String serviceId, String serviceProtocol, String servicePort) {
+        this.serviceId = serviceId;
+        this.serviceProtocol = serviceProtocol;
+        this.servicePort = servicePort;
+    }
+
+    @Override
+    public String get(int index) {
+        Snapshot s = snapshot;
+        return (s != null ? s.urls : current()).get(index);
+    }
+
+    @Override
+    public int size() {
+        return current().size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return current().iterator();
+    }
+
+    @Override
+    public ListIterator<String> listIterator(int index) {
+        return current().listIterator(index);
+    }
+
+    private List<String> current() {
+        // the holder replaces its cache when the client changes
+        ServiceCache cache = KubernetesHolder.getServiceCache();
+        Endpoints endpoints = cache.getEndpoints(cache.getClient().getNamespace(), serviceId);
+        Snapshot s = snapshot;
+        if (s == null || s.endpoints != endpoints) {
+            // only convert the endpoints again when the watch has replaced them
+            s = new Snapshot(endpoints, Collections.unmodifiableList(Services.toEndpointUrls(endpoints, serviceProtocol, servicePort)));
+            snapshot = s;
+        }
+        return s.urls;
+    }
+    private static final class Snapshot {
+        private final Endpoints endpoints;
+        private final List<String> urls;
+
+        Snapshot(Endpoints endpoints, List<String> urls) {
+            this.endpoints = endpoints;
+            this.urls = urls;
+        }
+    }
+}
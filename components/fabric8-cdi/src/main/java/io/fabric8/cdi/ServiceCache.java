@@ -0,0 +1,199 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cdi;
+
+import io.fabric8.kubernetes.api.KubernetesHelper;
+import io.fabric8.kubernetes.api.WatchedResourceCache;
+import io.fabric8.kubernetes.api.model.Endpoints;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.utils.Strings;
+import io.fabric8.utils.Systems;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the {@link Endpoints} and {@link Service}s that the producers resolve in memory, so that injecting a
+ * service does not call the API server every time.
+ * <p/>
+ * A resource is only cached while it is watched: if the watch cannot be opened, or is lost, the resource is
+ * looked up on every request as before, and watching it is retried after fabric8.cdi.cache.retry milliseconds.
+ * A resource that is not requested for fabric8.cdi.cache.idle.ttl milliseconds is dropped and no longer watched.
+ * Service URLs also depend on routes and ingresses, which are not watched, so they are kept for at most
+ * fabric8.cdi.cache.url.ttl milliseconds. The cache can be turned off with fabric8.cdi.cache=false.
+ */
+public class ServiceCache {
+    public static final String CACHE_ENABLED = "fabric8.cdi.cache";
+    public static final String CACHE_RETRY = "fabric8.cdi.cache.retry";
+    public static final String CACHE_IDLE_TTL = "fabric8.cdi.cache.idle.ttl";
+    public static final String CACHE_URL_TTL = "fabric8.cdi.cache.url.ttl";
+
+    private final KubernetesClient client;
+    private final boolean enabled;
+    private final long urlTtl;
+    private final WatchedResourceCache<Endpoints> endpoints;
+    private final WatchedResourceCache<Service> services;
+    private final ConcurrentMap<String, CachedUrl> urls = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong urlHits = new AtomicLong();
+    private volatile boolean closed;
+
+    public ServiceCache(final KubernetesClient client) {
+        this.client = client;
+        this.enabled = Systems.getEnvVarOrSystemProperty(CACHE_ENABLED, Boolean.TRUE);
+        this.urlTtl = Systems.getEnvVarOrSystemProperty(CACHE_URL_TTL, 60000).longValue();
+        long retry = Systems.getEnvVarOrSystemProperty(CACHE_RETRY, 60000).longValue();
+        long idleTtl = Systems.getEnvVarOrSystemProperty(CACHE_IDLE_TTL, 10 * 60 * 1000).longValue();
+        this.endpoints = new WatchedResourceCache<Endpoints>("endpoints", true, 0, retry, idleTtl) {
+            @Override
+            protected Endpoints lookup(String namespace, String name) {
+                return lookupEndpoints(namespace, name);
+            }
+
+            @Override
+            protected Watch watch(String namespace, String name, String resourceVersion, Watcher<Endpoints> watcher) {
+                if (resourceVersion != null) {
+                    return client.endpoints().inNamespace(namespace).withName(name).watch(resourceVersion, watcher);
+                }
+                return client.endpoints().inNamespace(namespace).withName(name).watch(watcher);
+            }
+        };
+        this.services = new WatchedResourceCache<Service>("services", true, 0, retry, idleTtl) {
+            @Override
+            protected Service lookup(String namespace, String name) {
+                return lookupService(namespace, name);
+            }
+
+            @Override
+            protected Watch watch(String namespace, String name, String resourceVersion, Watcher<Service> watcher) {
+                if (resourceVersion != null) {
+                    return client.services().inNamespace(namespace).withName(name).watch(resourceVersion, watcher);
+                }
+                return client.services().inNamespace(namespace).withName(name).watch(watcher);
+            }
+        };
+    }
+
+    public KubernetesClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns false if the cache is turned off, and every lookup goes to the API server
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the endpoints of the service or null if there are none
+     */
+    public Endpoints getEndpoints(String namespace, String name) {
+        if (!isCaching(namespace)) {
+            return lookupEndpoints(namespace, name);
+        }
+        return endpoints.get(namespace, name);
+    }
+
+    /**
+     * Returns the URL of the service as {@link KubernetesHelper#getServiceURL(KubernetesClient, String, String, String, String, boolean)} does
+     */
+    public String getServiceURL(String name, String namespace, String protocol, String portName, boolean external) {
+        WatchedResourceCache.Entry<Service> service = isCaching(namespace) ? services.getEntry(namespace, name) : null;
+        if (service == null || !service.isWatching()) {
+            return KubernetesHelper.getServiceURL(client, name, namespace, protocol, portName, external);
+        }
+
+        String key = namespace + "/" + name + "/" + protocol + "/" + portName + "/" + external;
+        CachedUrl cached = urls.get(key);
+        if (cached != null && cached.isValid(service)) {
+            urlHits.incrementAndGet();
+            return cached.url;
+        }
+        // read the version first, so a change made while the URL is worked out invalidates it
+        long version = service.getVersion();
+        String url = KubernetesHelper.getServiceURL(client, name, namespace, protocol, portName, external);
+        urls.put(key, new CachedUrl(url, service, version, System.currentTimeMillis() + urlTtl));
+        return url;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return endpoints.getHits() + urlHits.get();
+    }
+
+    /**
+     * Returns the number of lookups that went to the API server
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Closes the watches and empties the cache
+     */
+    public void close() {
+        closed = true;
+        endpoints.close();
+        services.close();
+        urls.clear();
+    }
+
+    private boolean isCaching(String namespace) {
+        return enabled && !closed && Strings.isNotBlank(namespace);
+    }
+
+    private Endpoints lookupEndpoints(String namespace, String name) {
+        lookups.incrementAndGet();
+        return client.endpoints().inNamespace(namespace).withName(name).get();
+    }
+
+    private Service lookupService(String namespace, String name) {
+        lookups.incrementAndGet();
+        try {
+            return client.services().inNamespace(namespace).withName(name).get();
+        } catch (KubernetesClientException e) {
+            // KubernetesHelper.getServiceURL() reports it, when it looks the service up itself
+            return null;
+        }
+    }
+
+    private static final class CachedUrl {
+        private final String url;
+        private final WatchedResourceCache.Entry<Service> service;
+        private final long version;
+        private final long expires;
+
+        CachedUrl(String url, WatchedResourceCache.Entry<Service> service, long version, long expires) {
+            this.url = url;
+            this.service = service;
+            this.version = version;
+            this.expires = expires;
+        }
+
+        boolean isValid(WatchedResourceCache.Entry<Service> current) {
+            return service == current && version == current.getVersion() && current.isWatching()
+                && System.currentTimeMillis() < expires;
+        }
+    }
+}
@@ -15,12 +15,10 @@
  */
 package io.fabric8.cdi;
 
-import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.EndpointAddress;
 import io.fabric8.kubernetes.api.model.EndpointPort;
 import io.fabric8.kubernetes.api.model.EndpointSubset;
 import io.fabric8.kubernetes.api.model.Endpoints;
-import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.utils.Strings;
 import io.fabric8.utils.URLUtils;
 
@@ -32,20 +30,34 @@ public class Services {
     public static final String DEFAULT_PROTO = "tcp";
 
     public static String toServiceUrl(String serviceName, String serviceProtocol, String servicePortName, String servicePath, boolean serviceExternal) {
-        KubernetesClient client = KubernetesHolder.getClient();
-        String serviceNamespace = client.getNamespace();
+        ServiceCache cache = KubernetesHolder.getServiceCache();
+        String serviceNamespace = cache.getClient().getNamespace();
         String actualProtocol = Strings.isNullOrBlank(serviceProtocol) ? DEFAULT_PROTO : serviceProtocol;
-        return URLUtils.pathJoin(KubernetesHelper.getServiceURL(client, serviceName, serviceNamespace, actualProtocol, servicePortName, serviceExternal), servicePath);
+        return URLUtils.pathJoin(cache.getServiceURL(serviceName, serviceNamespace, actualProtocol, servicePortName, serviceExternal), servicePath);
     }
 
     public static List<String> toServiceEndpointUrl(String serviceId, String serviceProtocol, String servicePort) {
+        ServiceCache cache = KubernetesHolder.getServiceCache();
+        String namespace = cache.getClient().getNamespace();
+        return toEndpointUrls(cache.getEndpoints(namespace, serviceId), serviceProtocol, servicePort);
+    }
+
+    /**
+     * Returns a view of the endpoint urls of the service that follows the changes to its endpoints
+     *
+     * @throws IllegalStateException if the service cache is turned off
+     */
+    public static List<String> toLiveServiceEndpointUrls(String serviceId, String serviceProtocol, String servicePort) {
+        if (!KubernetesHolder.getServiceCache().isEnabled()) {
+            throw new IllegalStateException("Live endpoint urls need the service cache, which is turned off by " + ServiceCache.CACHE_ENABLED);
+        }
+        return new LiveEndpointUrls(serviceId, serviceProtocol, servicePort);
+    }
+
+    static List<String> toEndpointUrls(Endpoints item, String serviceProtocol, String servicePort) {
         List<String> endpoints = new ArrayList<>();
-        KubernetesClient client = KubernetesHolder.getClient();
-        String namespace = client.getNamespace();
         String actualProtocol = serviceProtocol != null ? serviceProtocol : DEFAULT_PROTO;
-
-        Endpoints item = KubernetesHolder.getClient().endpoints().inNamespace(namespace).withName(serviceId).get();
-        if (item != null) {
+        if (item != null && item.getSubsets() != null) {
             for (EndpointSubset subset : item.getSubsets()) {
                 for (EndpointAddress address : subset.getAddresses()) {
                     for (EndpointPort endpointPort : subset.getPorts()) {
@@ -15,7 +15,9 @@
  */
 package io.fabric8.cdi.producers;
 
+import io.fabric8.cdi.ServiceCache;
 import io.fabric8.cdi.Services;
+import io.fabric8.utils.Systems;
 
 import javax.enterprise.context.spi.CreationalContext;
 import javax.enterprise.inject.spi.InjectionPoint;
@@ -26,9 +28,16 @@ import java.util.Set;
 
 public class ServiceEndpointsProducer implements Producer<List<String>> {
 
+    /**
+     * When true, the produced lists follow the changes to the endpoints instead of being a copy. They need the
+     * service cache, so they are copies when it is turned off.
+     */
+    public static final String LIVE_ENDPOINTS = "fabric8.cdi.endpoints.live";
+
     private final String serviceId;
     private final String serviceProtocol;
     private final String servicePort;
+    private final boolean live;
 
     public ServiceEndpointsProducer(String serviceId) {
         this(serviceId,  Services.DEFAULT_PROTO, null);
@@ -38,6 +47,8 @@ public class ServiceEndpointsProducer implements Producer<List<String>> {
         this.serviceId = serviceId;
         this.serviceProtocol = serviceProtocol;
         this.servicePort = servicePort;
+        this.live = Systems.getEnvVarOrSystemProperty(LIVE_ENDPOINTS, Boolean.FALSE)
+                && Systems.getEnvVarOrSystemProperty(ServiceCache.CACHE_ENABLED, Boolean.TRUE);
     }
 
     @Override
@@ -45,6 +56,9 @@ public class ServiceEndpointsProducer implements Producer<List<String>> {
         if (serviceId == null) {
             throw new IllegalArgumentException("No service id has been specified.");
         }
+        if (live) {
+            return Services.toLiveServiceEndpointUrls(serviceId, serviceProtocol, servicePort);
+        }
         return Services.toServiceEndpointUrl(serviceId, serviceProtocol, servicePort);
     }
 
@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.cdi;
+
+import io.fabric8.kubernetes.api.model.Endpoints;
+import io.fabric8.kubernetes.api.model.EndpointsBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServiceCacheTest {
+
+    private KubernetesMockServer server;
+    private KubernetesClient client;
+    private ServiceCache cache;
+
+    @Before
+    public void setUp() {
+        server = new KubernetesMockServer(false);
+        server.init();
+        client = server.createClient();
+        KubernetesHolder.useClient(client);
+        cache = KubernetesHolder.getServiceCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(ServiceCache.CACHE_ENABLED);
+        KubernetesHolder.closeServiceCache();
+        KubernetesHolder.useClient(null);
+        client.close();
+        server.destroy();
+    }
+
+    @Test
+    public void testEndpointsFollowTheWatch() throws Exception {
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints/service1").andReturn(200, endpoints("1", "10.0.0.1", "10.0.0.2")).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints?fieldSelector=metadata.name%3Dservice1&resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(500).andEmit(new WatchEvent(endpoints("2", "10.0.0.1"), "MODIFIED"))
+                .done().once();
+
+        List<String> live = Services.toLiveServiceEndpointUrls("service1", "http", null);
+        assertEquals(2, live.size());
+        assertEquals(2, Services.toEndpointUrls(cache.getEndpoints("test", "service1"), "http", null).size());
+
+        for (int i = 0; i < 50 && live.size() != 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("http://10.0.0.1:8080", live.get(0));
+        assertEquals(1, live.size());
+        assertEquals(1, cache.getLookups());
+    }
+
+    @Test
+    public void testLiveIndexLoopKeepsTheUrlsOfItsSize() throws Exception {
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints/service1").andReturn(200, endpoints("1", "10.0.0.1", "10.0.0.2")).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints?fieldSelector=metadata.name%3Dservice1&resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(500).andEmit(new WatchEvent(endpoints("2", "10.0.0.1"), "MODIFIED"))
+                .done().once();
+
+        List<String> live = Services.toLiveServiceEndpointUrls("service1", "http", null);
+        int size = live.size();
+        assertEquals(2, size);
+        for (int i = 0; i < 50 && cache.getEndpoints("test", "service1").getSubsets().size() != 1; i++) {
+            Thread.sleep(100);
+        }
+        // the endpoints have shrunk since the size was read
+        assertEquals("http://10.0.0.2:8080", live.get(size - 1));
+        assertEquals(1, live.size());
+        assertEquals(Arrays.asList("http://10.0.0.1:8080"), new ArrayList<>(live));
+    }
+
+    @Test
+    public void testLiveUrlsFollowTheCacheOfTheHolder() throws Exception {
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints/service1").andReturn(200, endpoints("1", "10.0.0.1", "10.0.0.2")).times(2);
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints?fieldSelector=metadata.name%3Dservice1&resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .done().times(2);
+
+        List<String> live = Services.toLiveServiceEndpointUrls("service1", "http", null);
+        assertEquals(2, live.size());
+
+        // e.g. the client was replaced
+        KubernetesHolder.closeServiceCache();
+        ServiceCache replaced = KubernetesHolder.getServiceCache();
+        assertEquals(2, live.size());
+        assertEquals(2, live.size());
+        assertEquals(1, replaced.getLookups());
+        assertEquals(1, replaced.getHits());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLiveUrlsNeedTheCache() {
+        System.setProperty(ServiceCache.CACHE_ENABLED, "false");
+        KubernetesHolder.closeServiceCache();
+        Services.toLiveServiceEndpointUrls("service1", "http", null);
+    }
+
+    @Test
+    public void testEndpointsAreLookedUpWhenTheyCannotBeWatched() {
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints/service1").andReturn(200, endpoints("1", "10.0.0.1", "10.0.0.2")).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/endpoints/service1").andReturn(200, endpoints("2", "10.0.0.1")).once();
+
+        assertEquals(2, Services.toEndpointUrls(cache.getEndpoints("test", "service1"), null, null).size());
+        assertEquals(1, Services.toEndpointUrls(cache.getEndpoints("test", "service1"), null, null).size());
+        assertNull(cache.getEndpoints("test", "service1"));
+        assertEquals(3, cache.getLookups());
+        assertEquals(0, cache.getHits());
+    }
+
+    private static Endpoints endpoints(String resourceVersion, String... ips) {
+        EndpointsBuilder builder = new EndpointsBuilder()
+                .withNewMetadata().withName("service1").withNamespace("test").withResourceVersion(resourceVersion).endMetadata();
+        for (String ip : ips) {
+            builder.addNewSubset()
+                    .addNewPort().withName("port").withPort(8080).endPort()
+                    .addNewAddress().withIp(ip).endAddress()
+                    .endSubset();
+        }
+        return builder.build();
+    }
+}
@@ -20,9 +20,13 @@ import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.Container;
 import io.fabric8.kubernetes.api.model.ContainerPort;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.utils.Filter;
 import io.fabric8.utils.Strings;
 import org.jgroups.Address;
@@ -30,12 +34,15 @@ import org.jgroups.Event;
 import org.jgroups.Message;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.Property;
 import org.jgroups.protocols.Discovery;
 import org.jgroups.protocols.PingData;
 import org.jgroups.protocols.PingHeader;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.BoundedList;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.DefaultThreadFactory;
 import org.jgroups.util.Responses;
 import org.jgroups.util.Tuple;
 import org.slf4j.Logger;
@@ -43,6 +50,12 @@ import org.slf4j.LoggerFactory;
 
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @MBean(description = "Kubernetes discovery protocol")
 public class KubernetesDiscovery extends Discovery {
@@ -52,17 +65,87 @@ public class KubernetesDiscovery extends Discovery {
     @Property
     private String address;
 
+    @Property(description = "Watch the pods of the cluster to keep the members current, instead of listing them every discovery round")
+    protected boolean watch_pods = true;
+
+    @Property(description = "Interval (ms) at which the pods are listed again even though they are watched")
+    protected long resync_interval = 60000;
+
+    @Property(description = "Number of discovery requests sent by one thread, larger member sets are sent in parallel batches")
+    protected int discovery_batch_size = 32;
+
+    @Property(description = "Maximum number of threads sending batches of discovery requests in parallel")
+    protected int discovery_senders = 4;
+
     private KubernetesClient client;
-    private List<PhysicalAddress> kubernetesHosts = Collections.emptyList();
+    private final Object membersLock = new Object();
+    private final Map<String, List<PhysicalAddress>> podAddresses = new ConcurrentHashMap<>();
+    private volatile Set<PhysicalAddress> kubernetesHosts = Collections.emptySet();
+    private volatile Watch watch;
+    private volatile PodsWatcher podsWatcher;
+    private volatile long lastResync;
+    private volatile ThreadPoolExecutor senders;
     private BoundedList<PhysicalAddress> dynamic_hosts = new BoundedList<>(2000);
+    private final AtomicLong discoveryRounds = new AtomicLong();
+    private final AtomicLong discoveryRequests = new AtomicLong();
+    private final AtomicLong discoveryResponses = new AtomicLong();
+    private final AtomicLong timedResponses = new AtomicLong();
+    private final AtomicLong totalResponseTime = new AtomicLong();
+    private final AtomicLong maxResponseTime = new AtomicLong();
+    // the time each request of the current round was sent, by member
+    private volatile Map<PhysicalAddress, Long> roundRequests = new ConcurrentHashMap<>();
     
     @Override
     public void init() throws Exception {
         super.init();
-        if (!Strings.isNullOrBlank(address)) {
-            client = new DefaultKubernetesClient(new ConfigBuilder().withMasterUrl(address).build());
-        } else {
-            client = new DefaultKubernetesClient();
+        if (discovery_batch_size < 1) {
+            discovery_batch_size = 1;
+        }
+        if (discovery_senders < 1) {
+            discovery_senders = 1;
+        }
+        if (client == null) {
+            if (!Strings.isNullOrBlank(address)) {
+                client = new DefaultKubernetesClient(new ConfigBuilder().withMasterUrl(address).build());
+            } else {
+                client = new DefaultKubernetesClient();
+            }
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        // not the protocol timer, so sends blocked on connecting to members can not hold up the tasks of the stack
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(discovery_senders, discovery_senders, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(discovery_senders), new DefaultThreadFactory("KubernetesDiscovery", true),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // all senders are busy or stopped, so the discovery thread sends the batch itself
+                        r.run();
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        senders = executor;
+    }
+
+    @Override
+    public void stop() {
+        closeWatch();
+        ThreadPoolExecutor executor = senders;
+        senders = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        super.stop();
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (client != null) {
+            client.close();
         }
     }
 
@@ -97,13 +180,16 @@ public class KubernetesDiscovery extends Discovery {
 
     @Override
     public void findMembers(List<Address> members, boolean initial_discovery, Responses responses) {
-        kubernetesHosts = findKubernetesHosts();
-        
+        Set<PhysicalAddress> kubernetesHosts = getKubernetesHosts();
+
         PhysicalAddress physical_addr = (PhysicalAddress) down(new Event(Event.GET_PHYSICAL_ADDRESS, local_addr));
         // https://issues.jboss.org/browse/JGRP-1670
         PingData data = new PingData(local_addr, false, org.jgroups.util.UUID.get(local_addr), physical_addr);
         PingHeader hdr = new PingHeader(PingHeader.GET_MBRS_REQ).clusterName(cluster_name);
 
+        // marshalled once, the messages to all members share the buffer
+        Buffer buffer = marshal(data);
+
         Set<PhysicalAddress> cluster_members = new HashSet<>(kubernetesHosts);
         cluster_members.addAll(dynamic_hosts);
 
@@ -116,36 +202,267 @@ public class KubernetesDiscovery extends Discovery {
                         cluster_members.add(phys_addr);
         }
 
-        for (final PhysicalAddress addr : cluster_members) {
-            if (physical_addr != null && addr.equals(physical_addr)) // no need to send the request to myself
-                continue;
+        if (physical_addr != null) // no need to send the request to myself
+            cluster_members.remove(physical_addr);
+
+        discoveryRounds.incrementAndGet();
+        // the responses to an earlier round are no longer timed
+        final Map<PhysicalAddress, Long> requests = new ConcurrentHashMap<>();
+        roundRequests = requests;
+
+        // sending may block while connecting to a member, so large member sets are sent by several threads
+        List<PhysicalAddress> batch = new ArrayList<>(Math.min(cluster_members.size(), discovery_batch_size));
+        for (PhysicalAddress addr : cluster_members) {
+            batch.add(addr);
+            if (batch.size() >= discovery_batch_size && batch.size() < cluster_members.size()) {
+                sendDiscoveryRequestsAsync(batch, hdr, buffer, requests);
+                batch = new ArrayList<>(discovery_batch_size);
+            }
+        }
+        sendDiscoveryRequests(batch, hdr, buffer, requests);
+    }
+
+    private void sendDiscoveryRequestsAsync(final List<PhysicalAddress> batch, final PingHeader hdr, final Buffer buffer,
+                                            final Map<PhysicalAddress, Long> requests) {
+        ThreadPoolExecutor executor = senders;
+        if (executor == null) {
+            sendDiscoveryRequests(batch, hdr, buffer, requests);
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendDiscoveryRequests(batch, hdr, buffer, requests);
+            }
+        });
+    }
+
+    private void sendDiscoveryRequests(List<PhysicalAddress> batch, PingHeader hdr, Buffer buffer, Map<PhysicalAddress, Long> requests) {
+        for (PhysicalAddress addr : batch) {
+            requests.put(addr, System.nanoTime());
             // the message needs to be DONT_BUNDLE, see explanation above
             final Message msg = new Message(addr).setFlag(Message.Flag.INTERNAL, Message.Flag.DONT_BUNDLE, Message.Flag.OOB)
-                    .putHeader(this.id, hdr).setBuffer(marshal(data));
+                    .putHeader(this.id, hdr).setBuffer(buffer);
             log.trace("%s: sending discovery request to %s", local_addr, msg.getDest());
             down_prot.down(new Event(Event.MSG, msg));
+            discoveryRequests.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void handleDiscoveryResponse(PingData data, Address sender) {
+        // only the first response to a request of the current round is timed
+        PhysicalAddress physical_addr = data.getPhysicalAddr();
+        Long sent = physical_addr != null ? roundRequests.remove(physical_addr) : null;
+        if (sent != null) {
+            long time = System.nanoTime() - sent;
+            timedResponses.incrementAndGet();
+            totalResponseTime.addAndGet(time);
+            long max;
+            while (time > (max = maxResponseTime.get()) && !maxResponseTime.compareAndSet(max, time)) {
+            }
         }
+        discoveryResponses.incrementAndGet();
+        super.handleDiscoveryResponse(data, sender);
+    }
+
+    @ManagedAttribute(description = "Number of discovery rounds")
+    public long getNumDiscoveryRounds() {
+        return discoveryRounds.get();
+    }
+
+    @ManagedAttribute(description = "Number of discovery requests sent")
+    public long getNumDiscoveryRequestsSent() {
+        return discoveryRequests.get();
+    }
+
+    @ManagedAttribute(description = "Number of discovery responses received")
+    public long getNumDiscoveryResponses() {
+        return discoveryResponses.get();
+    }
+
+    @ManagedAttribute(description = "Mean time (ms) from a discovery request of the current round to its response")
+    public double getAvgDiscoveryResponseTime() {
+        long responses = timedResponses.get();
+        return responses > 0 ? totalResponseTime.get() / (responses * 1e6) : 0;
+    }
+
+    @ManagedAttribute(description = "Longest time (ms) from a discovery request of the current round to its response")
+    public double getMaxDiscoveryResponseTime() {
+        return maxResponseTime.get() / 1e6;
+    }
+
+    @ManagedAttribute(description = "Number of members known from the pods of the cluster")
+    public int getNumKubernetesHosts() {
+        return kubernetesHosts.size();
     }
 
 
     public List<PhysicalAddress> findKubernetesHosts() {
         List<PhysicalAddress> addresses = new ArrayList<>();
-        Map<String, String> labels = Collections.singletonMap(Constants.JGROUPS_CLUSTER_NAME, cluster_name);
-
-        for (Pod pod : client.pods().withLabels(labels).list().getItems()) {
-            List<Container> containers = KubernetesHelper.getContainers(pod);
-            for (Container container : containers) {
-
-                for (ContainerPort port : container.getPorts()) {
-                    if (Constants.JGROUPS_TCP_PORT.equals(port.getName())) {
-                        try {
-                            String ip = pod.getStatus().getPodIP();
-                            if (ip != null) {
-                                addresses.add(new IpAddress(ip, port.getContainerPort()));
-                            }
-                        } catch (Exception ex) {
-                            LOGGER.warn("Failed to create Address {}.", pod.getStatus().getPodIP());
+        for (Pod pod : client.pods().withLabels(getClusterLabels()).list().getItems()) {
+            addresses.addAll(getAddresses(pod));
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the members known from the pods of the cluster. They are kept current by a pod watch, and
+     * listed again when there is no watch or the last list is older than {@link #resync_interval}.
+     */
+    public Set<PhysicalAddress> getKubernetesHosts() {
+        if (watch == null || System.currentTimeMillis() - lastResync >= resync_interval) {
+            resync();
+        }
+        return kubernetesHosts;
+    }
+
+    /**
+     * Lists the pods and watches them from the version of the list. A watch that is already open is replaced
+     * along with the members, so none of its later events can overwrite the newer list.
+     */
+    private synchronized void resync() {
+        if (watch != null && System.currentTimeMillis() - lastResync < resync_interval) {
+            // another discovery round has just listed them
+            return;
+        }
+        Map<String, List<PhysicalAddress>> addresses = new HashMap<>();
+        PodList pods;
+        try {
+            pods = client.pods().withLabels(getClusterLabels()).list();
+        } catch (KubernetesClientException e) {
+            LOGGER.warn("Failed to list the pods of cluster {} due {}. Using the last known members.", cluster_name, e.getMessage());
+            return;
+        }
+        for (Pod pod : pods.getItems()) {
+            addresses.put(KubernetesHelper.getName(pod), getAddresses(pod));
+        }
+        Watch oldWatch;
+        synchronized (membersLock) {
+            podAddresses.clear();
+            podAddresses.putAll(addresses);
+            lastResync = System.currentTimeMillis();
+            updateKubernetesHosts();
+            // the new watch follows on from the list, so the events of the old one are no longer needed
+            podsWatcher = null;
+            oldWatch = watch;
+            watch = null;
+        }
+        if (oldWatch != null) {
+            oldWatch.close();
+        }
+        if (watch_pods) {
+            openWatch(pods.getMetadata() != null ? pods.getMetadata().getResourceVersion() : null);
+        }
+    }
+
+    private synchronized void openWatch(String resourceVersion) {
+        PodsWatcher watcher = new PodsWatcher();
+        podsWatcher = watcher;
+        try {
+            Watch w;
+            if (Strings.isNotBlank(resourceVersion)) {
+                // carry on from the list, so no change in between is missed
+                w = client.pods().withLabels(getClusterLabels()).watch(resourceVersion, watcher);
+            } else {
+                w = client.pods().withLabels(getClusterLabels()).watch(watcher);
+            }
+            synchronized (membersLock) {
+                if (podsWatcher == watcher) {
+                    watch = w;
+                    return;
+                }
+            }
+            // closed by the server before it was returned
+            w.close();
+        } catch (KubernetesClientException e) {
+            podsWatcher = null;
+            LOGGER.warn("Failed to watch the pods of cluster {} due {}. Listing them every discovery round.", cluster_name, e.getMessage());
+        }
+    }
+
+    private synchronized void closeWatch() {
+        Watch w = watch;
+        watch = null;
+        synchronized (membersLock) {
+            // the events the closed watch may still deliver are ignored
+            podsWatcher = null;
+        }
+        if (w != null) {
+            w.close();
+        }
+    }
+
+    /**
+     * Keeps the members current while it is the watcher of the open watch
+     */
+    private class PodsWatcher implements Watcher<Pod> {
+        @Override
+        public void eventReceived(Action action, Pod pod) {
+            String name = KubernetesHelper.getName(pod);
+            if (name == null) {
+                return;
+            }
+            synchronized (membersLock) {
+                if (podsWatcher != this) {
+                    return;
+                }
+                switch (action) {
+                    case ADDED:
+                    case MODIFIED:
+                        podAddresses.put(name, getAddresses(pod));
+                        break;
+                    case DELETED:
+                        podAddresses.remove(name);
+                        break;
+                    default:
+                        return;
+                }
+                updateKubernetesHosts();
+            }
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            synchronized (membersLock) {
+                if (podsWatcher != this) {
+                    return;
+                }
+                podsWatcher = null;
+                watch = null;
+            }
+            if (cause != null) {
+                LOGGER.warn("Watch of the pods of cluster {} closed due {}. Listing them until it is reopened.", cluster_name, cause.getMessage());
+            }
+        }
+    }
+
+    private void updateKubernetesHosts() {
+        Set<PhysicalAddress> hosts = new HashSet<>();
+        for (List<PhysicalAddress> addresses : podAddresses.values()) {
+            hosts.addAll(addresses);
+        }
+        kubernetesHosts = Collections.unmodifiableSet(hosts);
+    }
+
+    private Map<String, String> getClusterLabels() {
+        return Collections.singletonMap(Constants.JGROUPS_CLUSTER_NAME, cluster_name);
+    }
+
+    private static List<PhysicalAddress> getAddresses(Pod pod) {
+        List<PhysicalAddress> addresses = new ArrayList<>();
+        List<Container> containers = KubernetesHelper.getContainers(pod);
+        for (Container container : containers) {
+
+            for (ContainerPort port : container.getPorts()) {
+                if (Constants.JGROUPS_TCP_PORT.equals(port.getName())) {
+                    try {
+                        String ip = pod.getStatus() != null ? pod.getStatus().getPodIP() : null;
+                        if (ip != null) {
+                            addresses.add(new IpAddress(ip, port.getContainerPort()));
                         }
+                    } catch (Exception ex) {
+                        LOGGER.warn("Failed to create Address {}.", pod.getStatus().getPodIP());
                     }
                 }
             }
@@ -153,6 +470,13 @@ public class KubernetesDiscovery extends Discovery {
         return addresses;
     }
 
+    /**
+     * Sets the client to find the pods with instead of the one created by {@link #init()}
+     */
+    void setClient(KubernetesClient client) {
+        this.client = client;
+    }
+
     @Override
     public boolean isDynamic() {
         return true;
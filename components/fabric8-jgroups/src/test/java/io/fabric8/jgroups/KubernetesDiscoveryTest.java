@@ -0,0 +1,200 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.jgroups;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.Message;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.protocols.PingData;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KubernetesDiscoveryTest {
+    private static final String PODS = "/api/v1/namespaces/test/pods?labelSelector=cluster%3Dmycluster";
+
+    private KubernetesMockServer server;
+    private KubernetesClient client;
+    private KubernetesDiscovery discovery;
+
+    @Before
+    public void setUp() {
+        server = new KubernetesMockServer(false);
+        server.init();
+        client = server.createClient();
+        discovery = new KubernetesDiscovery() {
+            {
+                cluster_name = "mycluster";
+            }
+        };
+        discovery.setClient(client);
+    }
+
+    @After
+    public void tearDown() {
+        discovery.stop();
+        client.close();
+    }
+
+    @Test
+    public void testWatchFollowsTheList() throws Exception {
+        server.expect().get().withPath(PODS)
+            .andReturn(200, new PodListBuilder().withNewMetadata().withResourceVersion("5").endMetadata().withItems(pod("a", "10.0.0.1")).build()).once();
+        server.expect().get().withPath(PODS + "&resourceVersion=5&watch=true")
+            .andUpgradeToWebSocket()
+            .open()
+            .waitFor(100).andEmit(new WatchEvent(pod("b", "10.0.0.2"), "ADDED"))
+            .waitFor(100).andEmit(new WatchEvent(pod("a", "10.0.0.1"), "DELETED"))
+            .done().once();
+
+        assertEquals(addresses("10.0.0.1"), discovery.getKubernetesHosts());
+        awaitHosts(addresses("10.0.0.2"));
+        // the pods are watched, so they are not listed again
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testResyncWatchesFromTheNewList() throws Exception {
+        discovery.resync_interval = 300;
+        server.expect().get().withPath(PODS)
+            .andReturn(200, new PodListBuilder().withNewMetadata().withResourceVersion("5").endMetadata().withItems(pod("a", "10.0.0.1")).build()).once();
+        server.expect().get().withPath(PODS + "&resourceVersion=5&watch=true")
+            .andUpgradeToWebSocket()
+            .open()
+            .waitFor(500).andEmit(new WatchEvent(pod("c", "10.0.0.3"), "ADDED"))
+            .done().once();
+        server.expect().get().withPath(PODS)
+            .andReturn(200, new PodListBuilder().withNewMetadata().withResourceVersion("7").endMetadata().withItems(pod("b", "10.0.0.2")).build()).once();
+        server.expect().get().withPath(PODS + "&resourceVersion=7&watch=true")
+            .andUpgradeToWebSocket()
+            .open()
+            .waitFor(200).andEmit(new WatchEvent(pod("d", "10.0.0.4"), "ADDED"))
+            .done().once();
+
+        assertEquals(addresses("10.0.0.1"), discovery.getKubernetesHosts());
+        Thread.sleep(400);
+        assertEquals(addresses("10.0.0.2"), discovery.getKubernetesHosts());
+        discovery.resync_interval = 60000;
+        awaitHosts(addresses("10.0.0.2", "10.0.0.4"));
+        // the first watch was closed by the resync, so its event is not applied over the newer list
+        Thread.sleep(500);
+        assertEquals(addresses("10.0.0.2", "10.0.0.4"), discovery.getKubernetesHosts());
+    }
+
+    @Test
+    public void testDiscoveryRequestsAreSentInBatches() throws Exception {
+        discovery.watch_pods = false;
+        discovery.discovery_batch_size = 2;
+        server.expect().get().withPath(PODS)
+            .andReturn(200, new PodListBuilder().withItems(pod("self", "10.0.0.1"), pod("a", "10.0.0.2"), pod("b", "10.0.0.3"),
+                pod("c", "10.0.0.4"), pod("d", "10.0.0.5"), pod("e", "10.0.0.6")).build()).once();
+        final IpAddress self = new IpAddress("10.0.0.1", 7800);
+        final List<Message> sent = Collections.synchronizedList(new ArrayList<Message>());
+        final Set<Thread> senders = Collections.synchronizedSet(new HashSet<Thread>());
+        discovery.setDownProtocol(new Protocol() {
+            @Override
+            public Object down(Event evt) {
+                switch (evt.getType()) {
+                    case Event.GET_PHYSICAL_ADDRESS:
+                        return self;
+                    case Event.SET_PHYSICAL_ADDRESS:
+                        return true;
+                    case Event.MSG:
+                        sent.add((Message) evt.getArg());
+                        senders.add(Thread.currentThread());
+                        return null;
+                    default:
+                        return null;
+                }
+            }
+        });
+        discovery.start();
+        discovery.findMembers(null, true, null);
+
+        for (int i = 0; i < 50 && discovery.getNumDiscoveryRequestsSent() < 5; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, discovery.getNumDiscoveryRounds());
+        assertEquals(5, discovery.getNumDiscoveryRequestsSent());
+        // every member but this one, with the request marshalled once for all of them
+        Set<Address> destinations = new HashSet<>();
+        for (Message message : sent) {
+            destinations.add(message.getDest());
+            assertSame(sent.get(0).getRawBuffer(), message.getRawBuffer());
+        }
+        assertEquals(new HashSet<Address>(addresses("10.0.0.2", "10.0.0.3", "10.0.0.4", "10.0.0.5", "10.0.0.6")), destinations);
+        // the last batch is sent by the discovery thread, the others by the senders
+        assertTrue(senders.contains(Thread.currentThread()));
+        assertTrue(senders.size() > 1);
+
+        PhysicalAddress member = new IpAddress("10.0.0.2", 7800);
+        Address sender = org.jgroups.util.UUID.randomUUID();
+        discovery.handleDiscoveryResponse(new PingData(sender, true, "a", member), sender);
+        assertEquals(1, discovery.getNumDiscoveryResponses());
+        double max = discovery.getMaxDiscoveryResponseTime();
+        assertTrue(max > 0);
+        assertEquals(max, discovery.getAvgDiscoveryResponseTime(), 0.0);
+
+        // only the first response to a request is timed
+        Thread.sleep(10);
+        discovery.handleDiscoveryResponse(new PingData(sender, true, "a", member), sender);
+        assertEquals(2, discovery.getNumDiscoveryResponses());
+        assertEquals(max, discovery.getMaxDiscoveryResponseTime(), 0.0);
+        assertEquals(max, discovery.getAvgDiscoveryResponseTime(), 0.0);
+    }
+
+    private void awaitHosts(Set<PhysicalAddress> expected) throws InterruptedException {
+        for (int i = 0; i < 50 && !expected.equals(discovery.getKubernetesHosts()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(expected, discovery.getKubernetesHosts());
+    }
+
+    private static Set<PhysicalAddress> addresses(String... ips) throws Exception {
+        Set<PhysicalAddress> answer = new HashSet<>();
+        for (String ip : ips) {
+            answer.add(new IpAddress(ip, 7800));
+        }
+        return answer;
+    }
+
+    private static Pod pod(String name, String ip) {
+        return new PodBuilder()
+            .withNewMetadata().withName(name).withNamespace("test").withResourceVersion("5").addToLabels(Constants.JGROUPS_CLUSTER_NAME, "mycluster").endMetadata()
+            .withNewSpec().addNewContainer().withName("app").addNewPort().withName(Constants.JGROUPS_TCP_PORT).withContainerPort(7800).endPort().endContainer().endSpec()
+            .withNewStatus().withPodIP(ip).endStatus()
+            .build();
+    }
+}
@@ -18,25 +18,96 @@
 package io.fabric8.karaf.checks.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.fabric8.karaf.checks.Check;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.wiring.BundleRevision;
 
+/**
+ * Keeps the failing check of each bundle, updated as bundles change, so a check only costs
+ * as much as the number of failures. Subclasses call {@link #update(Bundle)} when something
+ * else a bundle's check depends on changes, or {@link #invalidate()} to check all bundles again.
+ */
 public abstract class AbstractBundleChecker extends AbstractChecker {
 
+    private final Map<Long, Check> failures = new ConcurrentHashMap<>();
+    private volatile boolean dirty = true;
+    // synchronous, so the failures are up to date before asynchronous listeners see the event
+    private final SynchronousBundleListener bundleListener = new SynchronousBundleListener() {
+        @Override
+        public void bundleChanged(BundleEvent event) {
+            update(event.getBundle());
+        }
+    };
+
+    public AbstractBundleChecker() {
+        this(null);
+    }
+
+    AbstractBundleChecker(Bundle bundle) {
+        super(bundle);
+        systemBundleContext.addBundleListener(bundleListener);
+    }
+
+    @Override
+    public void close() {
+        try {
+            systemBundleContext.removeBundleListener(bundleListener);
+        } catch (IllegalStateException e) {
+            // the framework is already stopping
+        }
+    }
+
     @Override
     protected List<Check> doCheck() {
-        List<Check> checks = new ArrayList<>();
-        for (Bundle b : systemBundleContext.getBundles()) {
-            Check check = checkBundle(b);
+        if (dirty) {
+            checkAll();
+        }
+        return failures.isEmpty() ? Collections.<Check>emptyList() : new ArrayList<>(failures.values());
+    }
+
+    /**
+     * Checks the bundle again
+     */
+    protected void update(Bundle bundle) {
+        if (dirty) {
+            return;
+        }
+        synchronized (failures) {
+            Check check = bundle.getState() != Bundle.UNINSTALLED ? checkBundle(bundle) : null;
             if (check != null) {
-                checks.add(check);
+                failures.put(bundle.getBundleId(), check);
+            } else {
+                failures.remove(bundle.getBundleId());
+            }
+        }
+    }
+
+    /**
+     * Checks all bundles again on the next check
+     */
+    protected void invalidate() {
+        dirty = true;
+    }
+
+    private void checkAll() {
+        synchronized (failures) {
+            dirty = false;
+            failures.clear();
+            for (Bundle b : systemBundleContext.getBundles()) {
+                Check check = checkBundle(b);
+                if (check != null) {
+                    failures.put(b.getBundleId(), check);
+                }
             }
         }
-        return checks;
     }
 
     protected abstract Check checkBundle(Bundle bundle);
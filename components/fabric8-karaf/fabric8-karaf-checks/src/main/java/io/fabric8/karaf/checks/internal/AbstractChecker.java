@@ -33,8 +33,15 @@ public abstract class AbstractChecker implements io.fabric8.karaf.checks.HealthC
     protected final BundleContext systemBundleContext;
 
     public AbstractChecker() {
-        bundle = FrameworkUtil.getBundle(getClass());
-        bundleContext = bundle.getBundleContext();
+        this(null);
+    }
+
+    /**
+     * @param bundle the bundle of the checker, or null for the bundle its class was loaded from
+     */
+    AbstractChecker(Bundle bundle) {
+        this.bundle = bundle != null ? bundle : FrameworkUtil.getBundle(getClass());
+        bundleContext = this.bundle.getBundleContext();
         systemBundle= bundleContext.getBundle(0);
         systemBundleContext = systemBundle.getBundleContext();
     }
@@ -51,5 +58,9 @@ public abstract class AbstractChecker implements io.fabric8.karaf.checks.HealthC
 
     protected abstract List<Check> doCheck();
 
-
+    /**
+     * Removes the listeners the checker registered, once it is no longer used
+     */
+    public void close() {
+    }
 }
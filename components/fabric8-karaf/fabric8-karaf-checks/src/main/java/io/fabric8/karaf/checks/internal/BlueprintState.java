@@ -22,21 +22,34 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import io.fabric8.karaf.checks.Check;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.blueprint.container.BlueprintEvent;
 import org.osgi.service.blueprint.container.BlueprintListener;
 
 public class BlueprintState extends AbstractBundleChecker
                             implements BlueprintListener {
 
+    private final ServiceRegistration<BlueprintListener> registration;
     private final Map<Long, BlueprintEvent> states = new ConcurrentHashMap<>();
 
     public BlueprintState() {
-        bundleContext.registerService(BlueprintListener.class, this, null);
+        registration = bundleContext.registerService(BlueprintListener.class, this, null);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            registration.unregister();
+        } catch (IllegalStateException e) {
+            // already unregistered with the bundle
+        }
     }
 
     @Override
     public void blueprintEvent(BlueprintEvent event) {
         states.put(event.getBundle().getBundleId(), event);
+        update(event.getBundle());
     }
 
     @Override
@@ -0,0 +1,309 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.karaf.checks.internal;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.fabric8.karaf.checks.Check;
+import io.fabric8.karaf.checks.HealthChecker;
+import io.fabric8.karaf.checks.ReadinessChecker;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+
+/**
+ * Runs the readiness and health checkers in the background, every fabric8.checks.interval milliseconds
+ * and shortly after any bundle, service or framework event, so that probes are answered from the last
+ * results instead of running every checker on every request.
+ * <p/>
+ * Results older than fabric8.checks.staleness milliseconds are not trusted and are re-evaluated by the
+ * caller.
+ */
+public class CheckEngine implements BundleListener, ServiceListener, FrameworkListener {
+    public static final String CHECK_INTERVAL = "fabric8.checks.interval";
+    public static final String CHECK_STALENESS = "fabric8.checks.staleness";
+    public static final String CHECK_EVENT_DELAY = "fabric8.checks.event.delay";
+
+    private final List<ReadinessChecker> readinessCheckers;
+    private final List<HealthChecker> healthCheckers;
+    private final long interval;
+    private final long staleness;
+    private final long eventDelay;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final Runnable evaluation = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+    private volatile Map<Object, CheckStatistics> statistics = Collections.emptyMap();
+    private volatile Results results;
+    private ScheduledExecutorService executor;
+    private BundleContext bundleContext;
+
+    public CheckEngine(List<ReadinessChecker> readinessCheckers, List<HealthChecker> healthCheckers) {
+        this.readinessCheckers = readinessCheckers;
+        this.healthCheckers = healthCheckers;
+        this.interval = Long.getLong(CHECK_INTERVAL, 10000);
+        this.staleness = Long.getLong(CHECK_STALENESS, Math.max(30000, interval * 3));
+        this.eventDelay = Long.getLong(CHECK_EVENT_DELAY, 250);
+    }
+
+    public synchronized void start(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric8-checks");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        evaluate();
+        executor.scheduleWithFixedDelay(evaluation, interval, interval, TimeUnit.MILLISECONDS);
+
+        bundleContext.addBundleListener(this);
+        bundleContext.addServiceListener(this);
+        bundleContext.addFrameworkListener(this);
+    }
+
+    public synchronized void stop() {
+        if (bundleContext != null) {
+            try {
+                bundleContext.removeBundleListener(this);
+                bundleContext.removeServiceListener(this);
+                bundleContext.removeFrameworkListener(this);
+            } catch (IllegalStateException e) {
+                // the bundle is already stopping
+            }
+            bundleContext = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Schedules an evaluation, events arriving before it runs are folded into it
+     */
+    public void refresh() {
+        ScheduledExecutorService ex = executor;
+        if (ex != null && pending.compareAndSet(false, true)) {
+            try {
+                ex.schedule(evaluation, eventDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                pending.set(false);
+            }
+        }
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        refresh();
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        refresh();
+    }
+
+    @Override
+    public void frameworkEvent(FrameworkEvent event) {
+        refresh();
+    }
+
+    public List<Check> getFailingReadinessChecks() {
+        return current().readiness;
+    }
+
+    public List<Check> getFailingHealthChecks() {
+        return current().health;
+    }
+
+    public Collection<CheckStatistics> getStatistics() {
+        return statistics.values();
+    }
+
+    /**
+     * Prints when the checks last ran and how long each checker took
+     */
+    public void printStatistics(PrintWriter writer) {
+        Results r = results;
+        if (r != null) {
+            writer.println("evaluated " + (System.currentTimeMillis() - r.timestamp) + "ms ago");
+        }
+        for (CheckStatistics stats : getStatistics()) {
+            writer.println(stats);
+        }
+    }
+
+    private Results current() {
+        Results r = results;
+        if (r == null || isStale(r)) {
+            synchronized (this) {
+                r = results;
+                if (r == null || isStale(r)) {
+                    r = evaluate();
+                }
+            }
+        }
+        return r;
+    }
+
+    private boolean isStale(Results r) {
+        return System.currentTimeMillis() - r.timestamp > staleness;
+    }
+
+    synchronized Results evaluate() {
+        pending.set(false);
+
+        Map<Object, List<Check>> evaluated = new IdentityHashMap<>();
+        Map<Object, CheckStatistics> previous = statistics;
+        Map<Object, CheckStatistics> current = new IdentityHashMap<>();
+
+        List<Check> readiness = new ArrayList<>();
+        for (ReadinessChecker checker : readinessCheckers) {
+            readiness.addAll(evaluate(checker, true, evaluated, previous, current));
+        }
+        List<Check> health = new ArrayList<>();
+        for (HealthChecker checker : healthCheckers) {
+            health.addAll(evaluate(checker, false, evaluated, previous, current));
+        }
+
+        statistics = current;
+        results = new Results(System.currentTimeMillis(), readiness, health);
+        return results;
+    }
+
+    private List<Check> evaluate(Object checker, boolean readiness, Map<Object, List<Check>> evaluated,
+                                 Map<Object, CheckStatistics> previous, Map<Object, CheckStatistics> current) {
+        // an AbstractChecker fails the same checks for readiness and health, so run it once
+        if (checker instanceof AbstractChecker && evaluated.containsKey(checker)) {
+            return evaluated.get(checker);
+        }
+
+        CheckStatistics stats = current.get(checker);
+        if (stats == null) {
+            stats = previous.get(checker);
+            if (stats == null) {
+                stats = new CheckStatistics(checker.getClass().getSimpleName());
+            }
+            current.put(checker, stats);
+        }
+
+        List<Check> checks;
+        long start = System.nanoTime();
+        try {
+            checks = readiness
+                ? ((ReadinessChecker) checker).getFailingReadinessChecks()
+                : ((HealthChecker) checker).getFailingHealthChecks();
+        } catch (RuntimeException e) {
+            checks = Collections.singletonList(new Check(stats.getName(), "Unable to run check: " + e.toString()));
+        }
+        if (checks == null) {
+            checks = Collections.emptyList();
+        }
+        stats.update(System.nanoTime() - start, checks.size());
+
+        evaluated.put(checker, checks);
+        return checks;
+    }
+
+    private static final class Results {
+        private final long timestamp;
+        private final List<Check> readiness;
+        private final List<Check> health;
+
+        Results(long timestamp, List<Check> readiness, List<Check> health) {
+            this.timestamp = timestamp;
+            this.readiness = Collections.unmodifiableList(readiness);
+            this.health = Collections.unmodifiableList(health);
+        }
+    }
+
+    /**
+     * Timings of a checker, only updated by the evaluating thread
+     */
+    public static final class CheckStatistics {
+        private final String name;
+        private volatile long evaluations;
+        private volatile long lastTime;
+        private volatile long maxTime;
+        private volatile long totalTime;
+        private volatile int failures;
+
+        CheckStatistics(String name) {
+            this.name = name;
+        }
+
+        void update(long nanos, int failures) {
+            this.evaluations++;
+            this.lastTime = nanos;
+            this.maxTime = Math.max(maxTime, nanos);
+            this.totalTime += nanos;
+            this.failures = failures;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        public double getMeanTime() {
+            long count = evaluations;
+            return count > 0 ? (double) totalTime / count : 0;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d evaluations, last %.3fms, mean %.3fms, max %.3fms, %d failing",
+                name, evaluations, lastTime / 1e6, getMeanTime() / 1e6, maxTime / 1e6, failures);
+        }
+    }
+}
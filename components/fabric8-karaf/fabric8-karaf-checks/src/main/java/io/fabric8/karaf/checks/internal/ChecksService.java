@@ -18,6 +18,7 @@
 package io.fabric8.karaf.checks.internal;
 
 import javax.servlet.ServletException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -30,6 +31,7 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 
@@ -56,6 +58,9 @@ public class ChecksService {
     String readinessCheckPath = "/readiness-check";
     String healthCheckPath = "/health-check";
 
+    private volatile CheckEngine engine;
+    private final List<AbstractChecker> checkers = new CopyOnWriteArrayList<>();
+
     public ChecksService() {
         bind(new FrameworkState());
         bind(new BundleState());
@@ -78,7 +83,8 @@ public class ChecksService {
         bind(new CamelState());
     }
 
-    private void bind(Object checker) {
+    private void bind(AbstractChecker checker) {
+        checkers.add(checker);
         if (checker instanceof ReadinessChecker) {
             bindReadinessCheckers((ReadinessChecker) checker);
         }
@@ -89,14 +95,35 @@ public class ChecksService {
 
     @Activate
     void activate(Map<String, ?> configuration) throws ServletException, NamespaceException {
-        httpService.registerServlet(readinessCheckPath, new ReadinessCheckServlet(readinessCheckers), null, null);
-        httpService.registerServlet(healthCheckPath, new HealthCheckServlet(healthCheckers), null, null);
+        engine = new CheckEngine(readinessCheckers, healthCheckers);
+        engine.start(FrameworkUtil.getBundle(getClass()).getBundleContext());
+
+        httpService.registerServlet(readinessCheckPath, new ReadinessCheckServlet(engine), null, null);
+        httpService.registerServlet(healthCheckPath, new HealthCheckServlet(engine), null, null);
     }
 
     @Deactivate
     void deactivate() {
         httpService.unregister(readinessCheckPath);
         httpService.unregister(healthCheckPath);
+
+        if (engine != null) {
+            engine.stop();
+            engine = null;
+        }
+
+        // the checkers listen to the framework, so they would be kept for as long as it runs
+        for (AbstractChecker checker : checkers) {
+            checker.close();
+        }
+        checkers.clear();
+    }
+
+    private void refresh() {
+        CheckEngine e = engine;
+        if (e != null) {
+            e.refresh();
+        }
     }
 
     void bindHttpService(HttpService httpService) {
@@ -108,15 +135,19 @@ public class ChecksService {
 
     void bindReadinessCheckers(ReadinessChecker value) {
         readinessCheckers.add(value);
+        refresh();
     }
     void unbindReadinessCheckers(ReadinessChecker value) {
         readinessCheckers.remove(value);
+        refresh();
     }
 
     void bindHealthCheckers(HealthChecker value) {
         healthCheckers.add(value);
+        refresh();
     }
     void unbindHealthCheckers(HealthChecker value) {
         healthCheckers.remove(value);
+        refresh();
     }
 }
@@ -36,27 +36,21 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.fabric8.karaf.checks.Check;
-import io.fabric8.karaf.checks.HealthChecker;
 
 public class HealthCheckServlet extends HttpServlet {
 
-    private final CopyOnWriteArrayList<HealthChecker> checkers;
+    private final CheckEngine engine;
 
-    public HealthCheckServlet(CopyOnWriteArrayList<HealthChecker> checkers) {
-        this.checkers = checkers;
+    public HealthCheckServlet(CheckEngine engine) {
+        this.engine = engine;
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        List<Check> checks = new ArrayList<>();
-        for (HealthChecker checker : checkers) {
-            checks.addAll(checker.getFailingHealthChecks());
-        }
+        List<Check> checks = engine.getFailingHealthChecks();
         if (checks.isEmpty()) {
             resp.getWriter().println("HEALTHY");
         } else {
@@ -66,6 +60,9 @@ public class HealthCheckServlet extends HttpServlet {
                 resp.getWriter().println(check.getName() + ": " + check.getLongDescription());
             }
         }
+        if (req.getParameter("verbose") != null) {
+            engine.printStatistics(resp.getWriter());
+        }
     }
 
 }
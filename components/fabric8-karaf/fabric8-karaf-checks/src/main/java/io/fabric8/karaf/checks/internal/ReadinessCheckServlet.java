@@ -36,27 +36,21 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import io.fabric8.karaf.checks.Check;
-import io.fabric8.karaf.checks.ReadinessChecker;
 
 public class ReadinessCheckServlet extends HttpServlet {
 
-    private final CopyOnWriteArrayList<ReadinessChecker> checkers;
+    private final CheckEngine engine;
 
-    public ReadinessCheckServlet(CopyOnWriteArrayList<ReadinessChecker> readinessCheckers) {
-        this.checkers = readinessCheckers;
+    public ReadinessCheckServlet(CheckEngine engine) {
+        this.engine = engine;
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        List<Check> checks = new ArrayList<>();
-        for (ReadinessChecker checker : checkers) {
-            checks.addAll(checker.getFailingReadinessChecks());
-        }
+        List<Check> checks = engine.getFailingReadinessChecks();
         if (checks.isEmpty()) {
             resp.getWriter().println("READY");
         } else {
@@ -66,6 +60,9 @@ public class ReadinessCheckServlet extends HttpServlet {
                 resp.getWriter().println(check.getName() + ": " + check.getLongDescription());
             }
         }
+        if (req.getParameter("verbose") != null) {
+            engine.printStatistics(resp.getWriter());
+        }
     }
 
 }
@@ -1,9 +1,15 @@
 package io.fabric8.karaf.checks.internal;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import io.fabric8.karaf.checks.Check;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.runtime.ServiceComponentRuntime;
 import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
 import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
@@ -12,35 +18,107 @@ import org.osgi.util.tracker.ServiceTracker;
 public class ScrState extends AbstractBundleChecker {
 
     private final ServiceTracker<ServiceComponentRuntime, ServiceComponentRuntime> tracker;
+    // the first failing component of each bundle, as of the last change of SCR
+    private volatile Map<Long, String> components = Collections.emptyMap();
 
     public ScrState() {
-        super();
-        tracker = new ServiceTracker<>(bundleContext, ServiceComponentRuntime.class, null);
+        this(null);
+    }
+
+    ScrState(Bundle bundle) {
+        super(bundle);
+        // SCR bumps its service.changecount property whenever a component changes state
+        tracker = new ServiceTracker<ServiceComponentRuntime, ServiceComponentRuntime>(bundleContext, ServiceComponentRuntime.class, null) {
+            @Override
+            public ServiceComponentRuntime addingService(ServiceReference<ServiceComponentRuntime> reference) {
+                ServiceComponentRuntime service = super.addingService(reference);
+                components = getComponents(service);
+                invalidate();
+                return service;
+            }
+
+            @Override
+            public void modifiedService(ServiceReference<ServiceComponentRuntime> reference, ServiceComponentRuntime service) {
+                componentsChanged(service);
+            }
+
+            @Override
+            public void removedService(ServiceReference<ServiceComponentRuntime> reference, ServiceComponentRuntime service) {
+                super.removedService(reference, service);
+                invalidate();
+            }
+        };
         tracker.open();
     }
 
+    @Override
+    public void close() {
+        super.close();
+        try {
+            tracker.close();
+        } catch (IllegalStateException e) {
+            // the bundle is already stopping
+        }
+    }
+
     @Override
     protected Check checkBundle(Bundle bundle) {
         if (bundle.getHeaders().get("Service-Component") == null) {
             return null;
         }
-        ServiceComponentRuntime svc = tracker.getService();
-        if (svc == null) {
+        if (tracker.getService() == null) {
             return new Check("scr-state", "No ScrService found");
         }
-        Collection<ComponentDescriptionDTO> components = svc.getComponentDescriptionDTOs(bundle);
-        if (components != null) {
-            for (ComponentDescriptionDTO component : components) {
-                Collection<ComponentConfigurationDTO> dtos = svc.getComponentConfigurationDTOs(component);
-                for (ComponentConfigurationDTO dto : dtos) {
+        String state = components.get(bundle.getBundleId());
+        return state != null ? new Check("scr-state", "SCR bundle " + bundle.getBundleId() + " is in state " + state) : null;
+    }
+
+    /**
+     * DS does not tell which component changed, so compare the components with the last change
+     * and only check again the bundles whose components did
+     */
+    private synchronized void componentsChanged(ServiceComponentRuntime svc) {
+        Map<Long, String> previous = components;
+        Map<Long, String> current = getComponents(svc);
+        components = current;
+
+        Set<Long> changed = new HashSet<>();
+        for (Map.Entry<Long, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (Long id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                changed.add(id);
+            }
+        }
+        for (Long id : changed) {
+            Bundle b = systemBundleContext.getBundle(id);
+            if (b != null) {
+                update(b);
+            }
+        }
+    }
+
+    private Map<Long, String> getComponents(ServiceComponentRuntime svc) {
+        Map<Long, String> answer = new HashMap<>();
+        Collection<ComponentDescriptionDTO> descriptions = svc != null ? svc.getComponentDescriptionDTOs() : null;
+        if (descriptions != null) {
+            for (ComponentDescriptionDTO component : descriptions) {
+                if (answer.containsKey(component.bundle.id)) {
+                    continue;
+                }
+                for (ComponentConfigurationDTO dto : svc.getComponentConfigurationDTOs(component)) {
                     int state = dto.state;
                     if (state != ComponentConfigurationDTO.ACTIVE && state != ComponentConfigurationDTO.SATISFIED) {
-                        return new Check("scr-state", "SCR bundle " + bundle.getBundleId() + " is in state " + getState(state));
+                        answer.put(component.bundle.id, getState(state));
+                        break;
                     }
                 }
             }
         }
-        return null;
+        return answer;
     }
 
     private String getState(int state) {
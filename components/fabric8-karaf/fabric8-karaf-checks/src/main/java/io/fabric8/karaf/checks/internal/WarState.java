@@ -24,19 +24,32 @@ import io.fabric8.karaf.checks.Check;
 import org.ops4j.pax.web.service.spi.WebEvent;
 import org.ops4j.pax.web.service.spi.WebListener;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceRegistration;
 
 public class WarState extends AbstractBundleChecker
                             implements WebListener {
 
+    private final ServiceRegistration<WebListener> registration;
     private final Map<Long, WebEvent> states = new ConcurrentHashMap<>();
 
     public WarState() {
-        bundleContext.registerService(WebListener.class, this, null);
+        registration = bundleContext.registerService(WebListener.class, this, null);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            registration.unregister();
+        } catch (IllegalStateException e) {
+            // already unregistered with the bundle
+        }
     }
 
     @Override
     public void webEvent(WebEvent event) {
         states.put(event.getBundle().getBundleId(), event);
+        update(event.getBundle());
     }
 
     @Override
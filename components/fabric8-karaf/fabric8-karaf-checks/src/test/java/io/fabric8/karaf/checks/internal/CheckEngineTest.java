@@ -0,0 +1,210 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.karaf.checks.internal;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.karaf.checks.Check;
+import io.fabric8.karaf.checks.HealthChecker;
+import io.fabric8.karaf.checks.ReadinessChecker;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CheckEngineTest {
+
+    private CheckEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.stop();
+        }
+        System.clearProperty(CheckEngine.CHECK_INTERVAL);
+        System.clearProperty(CheckEngine.CHECK_STALENESS);
+        System.clearProperty(CheckEngine.CHECK_EVENT_DELAY);
+    }
+
+    @Test
+    public void testChecksRunInTheBackground() throws Exception {
+        System.setProperty(CheckEngine.CHECK_INTERVAL, "100");
+        StubChecker checker = new StubChecker();
+        engine = engine(checker);
+        BundleContext context = mock(BundleContext.class);
+        engine.start(context);
+        verify(context).addBundleListener(engine);
+        verify(context).addServiceListener(engine);
+        verify(context).addFrameworkListener(engine);
+        assertEquals(1, checker.readiness.get());
+
+        checker.failing = true;
+        for (int i = 0; i < 50 && checker.readiness.get() < 3; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(checker.readiness.get() >= 3);
+        int evaluations = checker.readiness.get();
+        // the probes are answered from the last results
+        assertEquals(1, engine.getFailingReadinessChecks().size());
+        assertEquals(1, engine.getFailingHealthChecks().size());
+        assertTrue(checker.readiness.get() - evaluations <= 1);
+
+        engine.stop();
+        verify(context).removeBundleListener(engine);
+        verify(context).removeServiceListener(engine);
+        verify(context).removeFrameworkListener(engine);
+        evaluations = checker.readiness.get();
+        Thread.sleep(300);
+        assertEquals(evaluations, checker.readiness.get());
+    }
+
+    @Test
+    public void testEventsAreCoalesced() throws Exception {
+        System.setProperty(CheckEngine.CHECK_INTERVAL, "60000");
+        System.setProperty(CheckEngine.CHECK_EVENT_DELAY, "100");
+        StubChecker checker = new StubChecker();
+        engine = engine(checker);
+        engine.start(mock(BundleContext.class));
+        assertEquals(1, checker.readiness.get());
+
+        for (int i = 0; i < 20; i++) {
+            engine.bundleChanged(null);
+            engine.serviceChanged(null);
+            engine.frameworkEvent(null);
+        }
+        for (int i = 0; i < 50 && checker.readiness.get() < 2; i++) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(300);
+        assertEquals(2, checker.readiness.get());
+
+        // a later event schedules another evaluation
+        engine.refresh();
+        for (int i = 0; i < 50 && checker.readiness.get() < 3; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(3, checker.readiness.get());
+    }
+
+    @Test
+    public void testStaleResultsAreEvaluatedByTheCaller() throws Exception {
+        System.setProperty(CheckEngine.CHECK_STALENESS, "100");
+        StubChecker checker = new StubChecker();
+        // not started, so nothing evaluates the checks in the background
+        engine = engine(checker);
+
+        assertTrue(engine.getFailingReadinessChecks().isEmpty());
+        assertEquals(1, checker.readiness.get());
+        checker.failing = true;
+        assertTrue(engine.getFailingReadinessChecks().isEmpty());
+        assertEquals(1, checker.readiness.get());
+
+        Thread.sleep(200);
+        assertEquals(1, engine.getFailingReadinessChecks().size());
+        assertEquals(2, checker.readiness.get());
+    }
+
+    @Test
+    public void testThrowingCheckerFails() {
+        StubChecker checker = new StubChecker();
+        checker.exception = new IllegalStateException("boom");
+        engine = engine(checker);
+
+        List<Check> checks = engine.getFailingReadinessChecks();
+        assertEquals(1, checks.size());
+        assertEquals("StubChecker", checks.get(0).getName());
+        assertTrue(checks.get(0).getLongDescription().contains("boom"));
+        assertEquals(1, engine.getFailingHealthChecks().size());
+
+        CheckEngine.CheckStatistics stats = engine.getStatistics().iterator().next();
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void testVerboseOutput() throws Exception {
+        StubChecker checker = new StubChecker();
+        checker.failing = true;
+        engine = engine(checker);
+
+        StringWriter out = new StringWriter();
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getWriter()).thenReturn(new PrintWriter(out));
+        when(request.getParameter("verbose")).thenReturn("");
+        new HealthCheckServlet(engine).doGet(request, response);
+        verify(response).setStatus(503);
+
+        List<String> lines = Arrays.asList(out.toString().split("\\r?\\n"));
+        assertEquals("NOT HEALTHY", lines.get(0));
+        assertEquals("stub: failing", lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).matches("evaluated \\d+ms ago"));
+        // evaluated for readiness and health
+        assertTrue(lines.get(3), lines.get(3).startsWith("StubChecker: 2 evaluations, last "));
+        assertTrue(lines.get(3), lines.get(3).endsWith(", 1 failing"));
+        assertEquals(4, lines.size());
+
+        // without the parameter only the failing checks are listed
+        out.getBuffer().setLength(0);
+        when(request.getParameter("verbose")).thenReturn(null);
+        new HealthCheckServlet(engine).doGet(request, response);
+        assertEquals(2, out.toString().split("\\r?\\n").length);
+    }
+
+    private static CheckEngine engine(StubChecker checker) {
+        return new CheckEngine(Collections.<ReadinessChecker>singletonList(checker), Collections.<HealthChecker>singletonList(checker));
+    }
+
+    private static class StubChecker implements ReadinessChecker, HealthChecker {
+        private final AtomicInteger readiness = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile RuntimeException exception;
+
+        @Override
+        public List<Check> getFailingReadinessChecks() {
+            readiness.incrementAndGet();
+            return getFailingChecks();
+        }
+
+        @Override
+        public List<Check> getFailingHealthChecks() {
+            return getFailingChecks();
+        }
+
+        private List<Check> getFailingChecks() {
+            if (exception != null) {
+                throw exception;
+            }
+            List<Check> answer = new ArrayList<>();
+            if (failing) {
+                answer.add(new Check("stub", "failing"));
+            }
+            return answer;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.karaf.checks.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import io.fabric8.karaf.checks.Check;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.dto.BundleDTO;
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScrStateTest {
+
+    private final BundleContext context = mock(BundleContext.class);
+    private final ServiceComponentRuntime scr = mock(ServiceComponentRuntime.class);
+    @SuppressWarnings("unchecked")
+    private final ServiceReference<ServiceComponentRuntime> reference = mock(ServiceReference.class);
+    private final List<Bundle> bundles = new ArrayList<>();
+    private final List<Long> checked = new ArrayList<>();
+    private Bundle checkerBundle;
+
+    @Before
+    public void setUp() {
+        checkerBundle = bundle(0, false);
+        when(checkerBundle.getBundleContext()).thenReturn(context);
+        when(context.getBundle(0)).thenReturn(checkerBundle);
+        when(context.getService(reference)).thenReturn(scr);
+        for (int i = 1; i <= 3; i++) {
+            bundles.add(bundle(i, true));
+        }
+        when(context.getBundles()).thenReturn(bundles.toArray(new Bundle[bundles.size()]));
+    }
+
+    @Test
+    public void testOnlyTheBundlesOfChangedComponentsAreChecked() throws Exception {
+        components(ComponentConfigurationDTO.ACTIVE, ComponentConfigurationDTO.UNSATISFIED_REFERENCE, ComponentConfigurationDTO.ACTIVE);
+        ScrState state = scrState();
+        ServiceListener scrListener = serviceListener();
+        scrListener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+
+        assertFailures(state, "SCR bundle 2 is in state unsatisfied reference");
+        assertEquals(Arrays.asList(1L, 2L, 3L), checked);
+        verify(context, times(1)).getBundles();
+
+        checked.clear();
+        components(ComponentConfigurationDTO.FAILED_ACTIVATION, ComponentConfigurationDTO.SATISFIED, ComponentConfigurationDTO.ACTIVE);
+        scrListener.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, reference));
+
+        assertFailures(state, "SCR bundle 1 is in state activation failed");
+        assertEquals(Arrays.asList(1L, 2L), checked);
+        verify(context, times(1)).getBundles();
+
+        // an uninstalled bundle is dropped from the failures
+        checked.clear();
+        when(bundles.get(0).getState()).thenReturn(Bundle.UNINSTALLED);
+        bundleListener().bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, bundles.get(0)));
+        assertFailures(state);
+        assertTrue(checked.isEmpty());
+
+        // without SCR every bundle with components fails
+        scrListener.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        assertEquals(3, state.getFailingHealthChecks().size());
+        verify(context, times(2)).getBundles();
+    }
+
+    @Test
+    public void testListenersAreRemovedWhenClosed() throws Exception {
+        components(ComponentConfigurationDTO.ACTIVE, ComponentConfigurationDTO.ACTIVE, ComponentConfigurationDTO.ACTIVE);
+        ScrState state = scrState();
+        SynchronousBundleListener bundleListener = bundleListener();
+        ServiceListener scrListener = serviceListener();
+        scrListener.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+
+        state.close();
+        verify(context).removeBundleListener(bundleListener);
+        verify(context).removeServiceListener(scrListener);
+        verify(context).ungetService(reference);
+    }
+
+    private ScrState scrState() {
+        return new ScrState(checkerBundle) {
+            @Override
+            protected Check checkBundle(Bundle bundle) {
+                checked.add(bundle.getBundleId());
+                return super.checkBundle(bundle);
+            }
+        };
+    }
+
+    private void assertFailures(ScrState state, String... descriptions) {
+        List<String> actual = new ArrayList<>();
+        for (Check check : state.getFailingReadinessChecks()) {
+            assertEquals("scr-state", check.getName());
+            actual.add(check.getLongDescription());
+        }
+        assertEquals(Arrays.asList(descriptions), actual);
+    }
+
+    private SynchronousBundleListener bundleListener() {
+        ArgumentCaptor<SynchronousBundleListener> captor = ArgumentCaptor.forClass(SynchronousBundleListener.class);
+        verify(context).addBundleListener(captor.capture());
+        return captor.getValue();
+    }
+
+    private ServiceListener serviceListener() throws InvalidSyntaxException {
+        ArgumentCaptor<ServiceListener> captor = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(context).addServiceListener(captor.capture(), anyString());
+        return captor.getValue();
+    }
+
+    /**
+     * One component per bundle, in the given states
+     */
+    private void components(int... states) {
+        List<ComponentDescriptionDTO> descriptions = new ArrayList<>();
+        for (int i = 0; i < states.length; i++) {
+            ComponentDescriptionDTO description = new ComponentDescriptionDTO();
+            description.bundle = new BundleDTO();
+            description.bundle.id = i + 1;
+            ComponentConfigurationDTO configuration = new ComponentConfigurationDTO();
+            configuration.state = states[i];
+            when(scr.getComponentConfigurationDTOs(description)).thenReturn(Collections.singletonList(configuration));
+            descriptions.add(description);
+        }
+        when(scr.getComponentDescriptionDTOs()).thenReturn(descriptions);
+    }
+
+    private Bundle bundle(long id, boolean components) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(id);
+        when(bundle.getState()).thenReturn(Bundle.ACTIVE);
+        Hashtable<String, String> headers = new Hashtable<>();
+        if (components) {
+            headers.put("Service-Component", "OSGI-INF/component.xml");
+        }
+        when(bundle.getHeaders()).thenReturn(headers);
+        when(context.getBundle(id)).thenReturn(bundle);
+        return bundle;
+    }
+}
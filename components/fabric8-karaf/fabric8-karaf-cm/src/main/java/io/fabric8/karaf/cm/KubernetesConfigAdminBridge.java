@@ -16,6 +16,7 @@
 package io.fabric8.karaf.cm;
 
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -23,7 +24,16 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
 import io.fabric8.kubernetes.api.model.ConfigMapList;
@@ -82,12 +92,21 @@ import static io.fabric8.kubernetes.client.utils.Utils.getSystemPropertyOrEnvVar
         policy = ReferencePolicy.STATIC,
         cardinality = ReferenceCardinality.MANDATORY_UNARY)
 })
-public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
+public class KubernetesConfigAdminBridge implements Watcher<ConfigMap>, KubernetesConfigAdminBridgeMBean {
     private static final Logger LOGGER = LoggerFactory.getLogger(KubernetesConfigAdminBridge.class);
+    static final String OBJECT_NAME = "io.fabric8.karaf:type=KubernetesConfigAdminBridge";
 
     private final Object lock;
     private final AtomicReference<ConfigurationAdmin> configAdmin;
     private final AtomicReference<KubernetesClient> kubernetesClient;
+    private final ConcurrentMap<String, ConfigMapEvent> pendingEvents;
+    private final ConcurrentMap<String, Configuration> configurations;
+    private final AtomicLong appliedEvents;
+    private final AtomicLong coalescedEvents;
+    private final AtomicLong applyTime;
+    private final AtomicLong maxApplyTime;
+    private ExecutorService worker;
+    private ObjectName objectName;
 
     private boolean enabled;
     private String pidLabel;
@@ -102,6 +121,12 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
         this.lock = new Object();
         this.configAdmin = new AtomicReference<>();
         this.kubernetesClient = new AtomicReference<>();
+        this.pendingEvents = new ConcurrentHashMap<>();
+        this.configurations = new ConcurrentHashMap<>();
+        this.appliedEvents = new AtomicLong();
+        this.coalescedEvents = new AtomicLong();
+        this.applyTime = new AtomicLong();
+        this.maxApplyTime = new AtomicLong();
         this.configMerge = FABRIC8_CONFIG_MERGE_DEFAULT;
         this.configMeta = FABRIC8_CONFIG_META_DEFAULT;
         this.configWatch = FABRIC8_CONFIG_WATCH_DEFAULT;
@@ -139,6 +164,9 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
 
         if (enabled) {
             synchronized (lock) {
+                worker = createWorker();
+                registerMBean();
+                indexConfigurations();
                 watchConfigMapList();
 
                 ConfigMapList list = getConfigMapList();
@@ -156,6 +184,52 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
         if (watch != null) {
             watch.close();
         }
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+        unregisterMBean();
+        pendingEvents.clear();
+        configurations.clear();
+    }
+
+    /**
+     * @return the single thread the watch events are applied on - a single thread keeps the events of a pid in order
+     */
+    ExecutorService createWorker() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric8-cm-bridge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to register the metrics MBean due " + e.getMessage());
+        }
+    }
+
+    private void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.debug("Failed to unregister the metrics MBean due " + e.getMessage());
+            }
+            objectName = null;
+        }
     }
 
     // ***********************
@@ -182,19 +256,44 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
     // Watcher
     // ***********************
 
+    /**
+     * Queues the event to be applied on the worker thread, so the watch thread is never blocked by
+     * ConfigAdmin. Events for a pid that hasn't been applied yet are coalesced: only the event with the
+     * highest resourceVersion is applied.
+     */
     @Override
     public void eventReceived(Action action, ConfigMap map) {
-        synchronized (lock) {
-            switch (action) {
-            case ADDED:
-            case MODIFIED:
-                updateConfig(map);
-                break;
-            case DELETED:
-            case ERROR:
-                deleteConfig(map);
+        if (map == null || map.getMetadata() == null || map.getMetadata().getLabels() == null) {
+            return;
+        }
+        final String pid = map.getMetadata().getLabels().get(pidLabel);
+        if (pid == null) {
+            return;
+        }
+
+        ConfigMapEvent event = new ConfigMapEvent(action, map);
+        while (true) {
+            ConfigMapEvent pending = pendingEvents.putIfAbsent(pid, event);
+            if (pending == null) {
                 break;
             }
+            if (pending.version > event.version || pendingEvents.replace(pid, pending, event)) {
+                //superseded while still queued - the queued task applies whichever is latest
+                coalescedEvents.incrementAndGet();
+                return;
+            }
+        }
+
+        ExecutorService executor = worker;
+        if (executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    applyPendingEvent(pid);
+                }
+            });
+        } else {
+            applyPendingEvent(pid);
         }
     }
 
@@ -202,10 +301,69 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
     public void onClose(KubernetesClientException e) {
     }
 
+    // **********************
+    // Metrics
+    // **********************
+
+    @Override
+    public int getQueueDepth() {
+        return pendingEvents.size();
+    }
+
+    @Override
+    public long getAppliedEvents() {
+        return appliedEvents.get();
+    }
+
+    @Override
+    public long getCoalescedEvents() {
+        return coalescedEvents.get();
+    }
+
+    @Override
+    public double getMeanApplyTime() {
+        long count = appliedEvents.get();
+        return count > 0 ? (double) applyTime.get() / count / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    @Override
+    public double getMaxApplyTime() {
+        return (double) maxApplyTime.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
     // **********************
     // ConfigAdmin
     // **********************
 
+    private void applyPendingEvent(String pid) {
+        ConfigMapEvent event = pendingEvents.remove(pid);
+        if (event == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        synchronized (lock) {
+            switch (event.action) {
+            case ADDED:
+            case MODIFIED:
+                updateConfig(event.map);
+                break;
+            case DELETED:
+            case ERROR:
+                deleteConfig(event.map);
+                break;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        appliedEvents.incrementAndGet();
+        applyTime.addAndGet(elapsed);
+        long max;
+        while (elapsed > (max = maxApplyTime.get()) && !maxApplyTime.compareAndSet(max, elapsed)) {
+        }
+        LOGGER.debug("Applied {} of pid={} in {}ms, {} pids pending", event.action, pid, TimeUnit.NANOSECONDS.toMillis(elapsed), pendingEvents.size());
+    }
+
     private void updateConfig(ConfigMap map) {
         Long ver = Long.parseLong(map.getMetadata().getResourceVersion());
         String pid = map.getMetadata().getLabels().get(pidLabel);
@@ -328,6 +486,7 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
 
                 if (!merge) {
                     LOGGER.debug("Delete configuration {}", config.getPid());
+                    configurations.remove(pid, config);
                     config.delete();
                 }
             }
@@ -382,7 +541,48 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
         }
     }
 
+    /**
+     * Builds the fabric8 pid to configuration index with a single scan, rather than one scan per event
+     */
+    private void indexConfigurations() {
+        ConfigurationAdmin admin = configAdmin.get();
+        if (admin == null) {
+            return;
+        }
+        try {
+            Configuration[] existing = admin.listConfigurations("(" + FABRIC8_PID + "=*)");
+            if (existing != null) {
+                for (Configuration configuration : existing) {
+                    Dictionary<String, Object> props = configuration.getProperties();
+                    Object fabric8pid = props != null ? props.get(FABRIC8_PID) : null;
+                    if (fabric8pid != null) {
+                        configurations.put(fabric8pid.toString(), configuration);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to index configurations", e);
+        }
+    }
+
     private Configuration getConfiguration(ConfigurationAdmin configAdmin, String fabric8pid, String pid, String factoryPid) throws Exception {
+        Configuration configuration = configurations.get(fabric8pid);
+        if (configuration != null) {
+            try {
+                configuration.getProperties();
+                return configuration;
+            } catch (IllegalStateException e) {
+                //deleted outside of the bridge
+                configurations.remove(fabric8pid, configuration);
+            }
+        }
+
+        configuration = lookupConfiguration(configAdmin, fabric8pid, pid, factoryPid);
+        configurations.put(fabric8pid, configuration);
+        return configuration;
+    }
+
+    private Configuration lookupConfiguration(ConfigurationAdmin configAdmin, String fabric8pid, String pid, String factoryPid) throws Exception {
         String filter = "(" + FABRIC8_PID + "=" + fabric8pid + ")";
         Configuration[] oldConfiguration = configAdmin.listConfigurations(filter);
 
@@ -429,5 +629,17 @@ public class KubernetesConfigAdminBridge implements Watcher<ConfigMap> {
 
         return false;
     }
-}
 
+    private static final class ConfigMapEvent {
+        private final Action action;
+        private final ConfigMap map;
+        private final long version;
+
+        ConfigMapEvent(Action action, ConfigMap map) {
+            this.action = action;
+            this.map = map;
+            String resourceVersion = map.getMetadata().getResourceVersion();
+            this.version = Utils.isNotNullOrEmpty(resourceVersion) ? Long.parseLong(resourceVersion) : -1;
+        }
+    }
+}
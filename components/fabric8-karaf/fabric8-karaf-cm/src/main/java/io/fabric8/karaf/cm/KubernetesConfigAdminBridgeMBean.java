@@ -0,0 +1,44 @@
+/**
+ * Copyright 2005-2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.fabric8.karaf.cm;
+
+/**
+ * Metrics of the ConfigMap events the bridge applies to ConfigAdmin
+ */
+public interface KubernetesConfigAdminBridgeMBean {
+
+    /**
+     * @return the number of pids with an event waiting to be applied
+     */
+    int getQueueDepth();
+
+    long getAppliedEvents();
+
+    /**
+     * @return the number of events dropped because a later event for the same pid was received before they were applied
+     */
+    long getCoalescedEvents();
+
+    /**
+     * @return the mean time, in milliseconds, taken to apply an event to ConfigAdmin
+     */
+    double getMeanApplyTime();
+
+    /**
+     * @return the longest time, in milliseconds, taken to apply an event to ConfigAdmin
+     */
+    double getMaxApplyTime();
+}
@@ -15,14 +15,36 @@
  */
 package io.fabric8.karaf.cm;
 
+import java.lang.management.ManagementFactory;
+import java.util.Dictionary;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
 import io.fabric8.kubernetes.api.model.ConfigMapList;
+import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 
 public class KubernetesConfigAdminBridgeTest {
     private static final Logger LOGGER = LoggerFactory.getLogger(KubernetesConfigAdminBridgeTest.class);
@@ -76,5 +98,78 @@ public class KubernetesConfigAdminBridgeTest {
 
         kcab.activate();
     }
-}
 
+    @Test
+    public void testEventsCoalescedPerPid() throws Exception {
+        System.setProperty("fabric8.config.watch", "false");
+        try {
+            final ExecutorService worker = Executors.newSingleThreadExecutor();
+            final CountDownLatch latch = new CountDownLatch(1);
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            Configuration config = Mockito.mock(Configuration.class);
+            ConfigurationAdmin admin = Mockito.mock(ConfigurationAdmin.class);
+            when(admin.listConfigurations(anyString())).thenReturn(null);
+            when(admin.getConfiguration("my.pid", null)).thenReturn(config);
+
+            KubernetesConfigAdminBridge kcab = new KubernetesConfigAdminBridge() {
+                @Override
+                ExecutorService createWorker() {
+                    return worker;
+                }
+            };
+            kcab.bindConfigAdmin(admin);
+            kcab.activate();
+
+            // the worker is busy, so these are all queued
+            kcab.eventReceived(Watcher.Action.ADDED, configMap("1", "v1"));
+            kcab.eventReceived(Watcher.Action.MODIFIED, configMap("3", "v3"));
+            kcab.eventReceived(Watcher.Action.MODIFIED, configMap("2", "v2"));
+            assertEquals(1, kcab.getQueueDepth());
+            assertEquals(2, kcab.getCoalescedEvents());
+
+            latch.countDown();
+            worker.shutdown();
+            worker.awaitTermination(10, TimeUnit.SECONDS);
+
+            ArgumentCaptor<Dictionary> captor = ArgumentCaptor.forClass(Dictionary.class);
+            verify(config, times(1)).update(captor.capture());
+            assertEquals("v3", captor.getValue().get("key"));
+            assertEquals(0, kcab.getQueueDepth());
+            assertEquals(1, kcab.getAppliedEvents());
+
+            // the metrics are published over JMX while the bridge is active
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(KubernetesConfigAdminBridge.OBJECT_NAME);
+            assertEquals(0, server.getAttribute(name, "QueueDepth"));
+            assertEquals(1L, server.getAttribute(name, "AppliedEvents"));
+            assertEquals(2L, server.getAttribute(name, "CoalescedEvents"));
+            assertEquals(kcab.getMaxApplyTime(), (Double) server.getAttribute(name, "MaxApplyTime"), 0.0);
+            kcab.deactivate();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            System.clearProperty("fabric8.config.watch");
+        }
+    }
+
+    private static ConfigMap configMap(String resourceVersion, String value) {
+        return new ConfigMapBuilder()
+            .withNewMetadata()
+                .withName("my-config")
+                .withNamespace("test")
+                .withResourceVersion(resourceVersion)
+                .addToLabels("karaf.pid", "my.pid")
+            .endMetadata()
+            .addToData("key", value)
+            .build();
+    }
+}
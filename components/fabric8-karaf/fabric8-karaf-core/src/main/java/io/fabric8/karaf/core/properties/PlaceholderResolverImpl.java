@@ -15,8 +15,11 @@
  */
 package io.fabric8.karaf.core.properties;
 
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -50,12 +53,25 @@ public class PlaceholderResolverImpl implements PlaceholderResolver {
     public static final String PLACEHOLDER_SUFFIX = "fabric8.placeholder.suffix";
     public static final String DEFAULT_PLACEHOLDER_PREFIX =  "$[";
     public static final String DEFAULT_PLACEHOLDER_SUFFIX =  "]";
+    public static final String EXPRESSION_CACHE_SIZE = "fabric8.placeholder.cache.size";
+    public static final int DEFAULT_EXPRESSION_CACHE_SIZE = 1000;
 
     private final CopyOnWriteArrayList<PropertiesFunction> functions;
+    private volatile Map<String, PropertiesFunction> functionsByName;
+    private final Map<String, Expression> expressions;
     private final StrSubstitutor substitutor;
 
     public PlaceholderResolverImpl() {
+        final int cacheSize = getSystemPropertyOrEnvVar(EXPRESSION_CACHE_SIZE, DEFAULT_EXPRESSION_CACHE_SIZE);
+
         this.functions = new CopyOnWriteArrayList<>();
+        this.functionsByName = Collections.emptyMap();
+        this.expressions = Collections.synchronizedMap(new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > cacheSize;
+            }
+        });
         this.substitutor = Support.createStrSubstitutor(
             getSystemPropertyOrEnvVar(PLACEHOLDER_PREFIX, DEFAULT_PLACEHOLDER_PREFIX),
             getSystemPropertyOrEnvVar(PLACEHOLDER_SUFFIX, DEFAULT_PLACEHOLDER_SUFFIX),
@@ -69,11 +85,16 @@ public class PlaceholderResolverImpl implements PlaceholderResolver {
 
     @Override
     public String resolve(String value) {
-        String[] resolvers = Support.before(value, ":").split("\\+");
-        String remainder = Support.after(value, ":");
+        Expression expression = compile(value);
+        if (expression == null) {
+            return null;
+        }
 
-        for (String resolver : resolvers) {
-            PropertiesFunction function = findFunction(resolver);
+        Map<String, PropertiesFunction> functions = functionsByName;
+        String remainder = expression.remainder;
+
+        for (String resolver : expression.resolvers) {
+            PropertiesFunction function = functions.get(resolver);
 
             if (function == null) {
                 value = null;
@@ -144,24 +165,58 @@ public class PlaceholderResolverImpl implements PlaceholderResolver {
     // Binding
     // ****************************
 
-    protected void bindFunction(PropertiesFunction function) {
-        functions.addIfAbsent(function);
+    protected synchronized void bindFunction(PropertiesFunction function) {
+        if (functions.addIfAbsent(function)) {
+            indexFunctions();
+        }
     }
 
-    protected void unbindFunction(PropertiesFunction function) {
-        functions.remove(function);
+    protected synchronized void unbindFunction(PropertiesFunction function) {
+        if (functions.remove(function)) {
+            indexFunctions();
+        }
     }
 
     // ****************************
     // Helpers
     // ****************************
 
-    private PropertiesFunction findFunction(String name) {
+    /**
+     * Rebuilds the name to function index, the first bound function wins if names clash
+     */
+    private void indexFunctions() {
+        Map<String, PropertiesFunction> index = new HashMap<>();
         for (PropertiesFunction fun : functions) {
-            if (name.equals(fun.getName())) {
-                return fun;
+            if (!index.containsKey(fun.getName())) {
+                index.put(fun.getName(), fun);
             }
         }
-        return null;
+        functionsByName = index;
+    }
+
+    /**
+     * @return the parsed form of fn1+fn2:remainder, or null if the value names no function
+     */
+    private Expression compile(String value) {
+        Expression expression = expressions.get(value);
+        if (expression == null) {
+            String names = Support.before(value, ":");
+            if (names == null) {
+                return null;
+            }
+            expression = new Expression(names.split("\\+"), Support.after(value, ":"));
+            expressions.put(value, expression);
+        }
+        return expression;
+    }
+
+    private static final class Expression {
+        private final String[] resolvers;
+        private final String remainder;
+
+        Expression(String[] resolvers, String remainder) {
+            this.resolvers = resolvers;
+            this.remainder = remainder;
+        }
     }
 }
@@ -22,6 +22,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -45,15 +46,26 @@ public class KubernetesPropertiesFunction implements PropertiesFunction {
     public static final String FUNCTION_NAME = "k8s";
 
     private final AtomicReference<KubernetesClient> kubernetesClient;
-    private final Map<String, KubernetesSupport.Resource> kubernetesResources;
+    private final Map<String, KubernetesSupport.Resource<?>> kubernetesResources;
 
     public KubernetesPropertiesFunction() {
         this.kubernetesClient = new AtomicReference<>();
 
+        // map and configmap share a resource, so they share its cache
+        KubernetesSupport.Resource<?> configMaps = KubernetesSupport.configMapResource();
         this.kubernetesResources = new HashMap<>();
         this.kubernetesResources.put("secret", KubernetesSupport.secretsResource());
-        this.kubernetesResources.put("map", KubernetesSupport.configMapResource());
-        this.kubernetesResources.put("configmap", KubernetesSupport.configMapResource());
+        this.kubernetesResources.put("map", configMaps);
+        this.kubernetesResources.put("configmap", configMaps);
+    }
+
+    // ******************
+    // Lifecycle
+    // ******************
+
+    @Deactivate
+    void deactivate() {
+        closeResources();
     }
 
     // ******************
@@ -75,7 +87,7 @@ public class KubernetesPropertiesFunction implements PropertiesFunction {
         if (client != null && items.length == 2) {
             String[] tokens = items[1].split("/");
             if (tokens.length == 2) {
-                KubernetesSupport.Resource res = kubernetesResources.get(items[0]);
+                KubernetesSupport.Resource<?> res = kubernetesResources.get(items[0]);
                 if (res != null) {
                     value = res.get(client, tokens[0], tokens[1]);
                 }
@@ -94,6 +106,14 @@ public class KubernetesPropertiesFunction implements PropertiesFunction {
     }
 
     protected void unbindKubernetesClient(KubernetesClient kubernetesClient) {
-        this.kubernetesClient.compareAndSet(kubernetesClient, null);
+        if (this.kubernetesClient.compareAndSet(kubernetesClient, null)) {
+            closeResources();
+        }
+    }
+
+    private void closeResources() {
+        for (KubernetesSupport.Resource<?> resource : kubernetesResources.values()) {
+            resource.close();
+        }
     }
 }
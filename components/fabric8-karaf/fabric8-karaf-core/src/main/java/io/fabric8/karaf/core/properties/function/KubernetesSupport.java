@@ -20,12 +20,20 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.Secret;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.utils.Utils;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -35,6 +43,14 @@ final class KubernetesSupport {
     public static final Logger LOGGER = LoggerFactory.getLogger(KubernetesSupport.class);
     public static final String FABRIC8_K8S_SECRET_PATHS = "fabric8.k8s.secrets.path";
     public static final String FABRIC8_K8S_SECRET_API_ENABLED = "fabric8.k8s.secrets.api.enabled";
+    public static final String FABRIC8_K8S_CACHE_TTL = "fabric8.k8s.cache.ttl";
+    public static final int FABRIC8_K8S_CACHE_TTL_DEFAULT = 300000;
+    public static final String FABRIC8_K8S_CACHE_SIZE = "fabric8.k8s.cache.size";
+    public static final int FABRIC8_K8S_CACHE_SIZE_DEFAULT = 1000;
+    public static final String FABRIC8_K8S_CACHE_WATCH = "fabric8.k8s.cache.watch";
+    public static final Boolean FABRIC8_K8S_CACHE_WATCH_DEFAULT = true;
+    // mounted secrets are checked for changes at most this often
+    private static final long SECRET_FILE_CHECK_INTERVAL = 1000;
 
     private KubernetesSupport() {
     }
@@ -43,22 +59,345 @@ final class KubernetesSupport {
     // Resource abstraction
     // ******************************
 
-    static abstract class Resource {
+    /**
+     * Fetches each resource once and caches its data for fabric8.k8s.cache.ttl milliseconds (0 disables
+     * the cache), keeping up to fabric8.k8s.cache.size of them. While any is cached, the resources of the
+     * namespace are watched with a single watch, so changes and deletions are seen straight away.
+     */
+    static abstract class Resource<T extends HasMetadata> {
+        private final ConcurrentMap<String, CachedData> cache;
+        private final long ttl;
+        private final int maxSize;
+        private final boolean watch;
+        private final Object watchLock = new Object();
+        private volatile ResourceWatcher watcher;
+        private long watchRetryAt;
+
+        Resource() {
+            this.cache = new ConcurrentHashMap<>();
+            this.ttl = Utils.getSystemPropertyOrEnvVar(FABRIC8_K8S_CACHE_TTL, FABRIC8_K8S_CACHE_TTL_DEFAULT);
+            this.maxSize = Utils.getSystemPropertyOrEnvVar(FABRIC8_K8S_CACHE_SIZE, FABRIC8_K8S_CACHE_SIZE_DEFAULT);
+            this.watch = Utils.getSystemPropertyOrEnvVar(FABRIC8_K8S_CACHE_WATCH, FABRIC8_K8S_CACHE_WATCH_DEFAULT);
+        }
+
         public String get(KubernetesClient client, String name, String key) {
-            Map<String, String> data = getData(client, name);
+            Map<String, String> data = getCachedData(client, name);
             return data != null ? data.get(key) : null;
         }
 
-        abstract Map<String, String> getData(KubernetesClient client, String name);
+        /**
+         * Closes the watch and empties the cache
+         */
+        public void close() {
+            synchronized (watchLock) {
+                closeWatch(watcher);
+                watchRetryAt = 0;
+            }
+            cache.clear();
+        }
+
+        long getTtl() {
+            return ttl;
+        }
+
+        int getMaxSize() {
+            return maxSize;
+        }
+
+        Map<String, String> getCachedData(KubernetesClient client, String name) {
+            if (ttl <= 0) {
+                T resource = fetch(client, name);
+                return resource != null ? getData(resource) : null;
+            }
+
+            while (true) {
+                CachedData cached = cache.get(name);
+                if (cached != null && cached.awaitLoaded() && cached.isValid(client)) {
+                    return cached.data;
+                }
+                CachedData entry = new CachedData(client);
+                if (cached == null ? cache.putIfAbsent(name, entry) == null : cache.replace(name, cached, entry)) {
+                    evict(name);
+                    load(client, name, entry);
+                    return entry.data;
+                }
+                // another caller is fetching the resource, so wait for it instead
+            }
+        }
+
+        /**
+         * Fetches the resource without holding any lock, so only the callers asking for the same resource
+         * wait for it, and makes sure the namespace is watched from then on
+         */
+        private void load(KubernetesClient client, String name, CachedData entry) {
+            try {
+                ResourceWatcher current = watcher;
+                T resource = fetch(client, name);
+                entry.update(resource != null ? getData(resource) : null, getResourceVersion(resource));
+                long now = System.currentTimeMillis();
+                if (watch && (current == null || !current.isWatching(client))
+                    && !openWatch(client, current, getResourceVersion(resource))) {
+                    // changes made before another caller opened the watch may have been missed, so the data
+                    // is only used this once
+                    entry.expires = now;
+                } else {
+                    entry.expires = now + ttl;
+                }
+            } catch (RuntimeException e) {
+                cache.remove(name, entry);
+                throw e;
+            } finally {
+                entry.latch.countDown();
+            }
+        }
+
+        /**
+         * Watches the namespace from the version of the resource just fetched, unless another caller
+         * opened a watch in the meantime
+         *
+         * @return false if another caller opened the watch, so it may have started after the resource was fetched
+         */
+        private boolean openWatch(KubernetesClient client, ResourceWatcher expected, String resourceVersion) {
+            synchronized (watchLock) {
+                ResourceWatcher current = watcher;
+                if (current != expected && current != null && current.isWatching(client)) {
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                if (now < watchRetryAt) {
+                    return true;
+                }
+                closeWatch(current);
+                ResourceWatcher answer = new ResourceWatcher(client);
+                try {
+                    answer.watch = watch(client, resourceVersion, answer);
+                    watcher = answer;
+                    answer.opened();
+                } catch (KubernetesClientException e) {
+                    // e.g. not allowed to watch - the entries are just refreshed when they expire
+                    LOGGER.debug("Could not watch {} due {}", getClass().getSimpleName(), e.getMessage());
+                    watchRetryAt = now + ttl;
+                }
+                return true;
+            }
+        }
+
+        private void closeWatch(ResourceWatcher current) {
+            if (current != null) {
+                if (watcher == current) {
+                    watcher = null;
+                }
+                current.close();
+            }
+        }
+
+        /**
+         * Called by the watch when it can no longer be relied upon, the cached data may be missing changes
+         */
+        void watchLost(ResourceWatcher lost) {
+            synchronized (watchLock) {
+                if (watcher != lost) {
+                    return;
+                }
+                closeWatch(lost);
+            }
+            cache.clear();
+        }
+
+        /**
+         * Applies a change seen by the watch to the cached resource
+         */
+        void changed(String name, Map<String, String> data, String resourceVersion) {
+            CachedData cached = cache.get(name);
+            if (cached != null) {
+                cached.update(data, resourceVersion);
+            }
+        }
+
+        /**
+         * Makes room for a new entry, dropping the expired entries first and then any others
+         */
+        private void evict(String added) {
+            if (cache.size() <= maxSize) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, CachedData> entry : cache.entrySet()) {
+                CachedData cached = entry.getValue();
+                if (cached.isLoaded() && cached.expires <= now) {
+                    cache.remove(entry.getKey(), cached);
+                }
+            }
+            for (Iterator<Map.Entry<String, CachedData>> it = cache.entrySet().iterator(); it.hasNext() && cache.size() > maxSize;) {
+                Map.Entry<String, CachedData> entry = it.next();
+                if (!entry.getKey().equals(added) && entry.getValue().isLoaded()) {
+                    cache.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * Returns the named resource or null if it does not exist
+         */
+        abstract T fetch(KubernetesClient client, String name);
+
+        abstract Map<String, String> getData(T resource);
+
+        /**
+         * Watches the resources of the namespace
+         *
+         * @param resourceVersion the version to watch from, or null to watch from now
+         */
+        abstract Watch watch(KubernetesClient client, String resourceVersion, Watcher<T> watcher);
+
+        /**
+         * Keeps the cached resources of the namespace up to date
+         */
+        final class ResourceWatcher implements Watcher<T> {
+            private final KubernetesClient client;
+            private volatile Watch watch;
+            private volatile boolean opened;
+            private volatile boolean lost;
+
+            ResourceWatcher(KubernetesClient client) {
+                this.client = client;
+            }
+
+            boolean isWatching(KubernetesClient client) {
+                return this.client == client && watch != null && !lost;
+            }
+
+            /**
+             * Called once the watch is returned, in case it was closed before
+             */
+            void opened() {
+                opened = true;
+                if (lost) {
+                    watchLost(this);
+                }
+            }
+
+            void close() {
+                lost = true;
+                Watch w = watch;
+                if (w != null) {
+                    watch = null;
+                    w.close();
+                }
+            }
+
+            @Override
+            public void eventReceived(Action action, T resource) {
+                String name = resource != null && resource.getMetadata() != null ? resource.getMetadata().getName() : null;
+                switch (action) {
+                case ADDED:
+                case MODIFIED:
+                    if (name != null) {
+                        changed(name, getData(resource), getResourceVersion(resource));
+                    }
+                    break;
+                case DELETED:
+                    if (name != null) {
+                        changed(name, null, getResourceVersion(resource));
+                    }
+                    break;
+                default:
+                    lostWatch();
+                    break;
+                }
+            }
+
+            @Override
+            public void onClose(KubernetesClientException cause) {
+                if (cause != null) {
+                    // the watch was lost, so the cached data can no longer be trusted
+                    lostWatch();
+                }
+            }
+
+            private void lostWatch() {
+                lost = true;
+                if (opened) {
+                    watchLost(this);
+                }
+            }
+        }
+    }
+
+    static final class CachedData {
+        private final KubernetesClient client;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile long expires;
+        private volatile Map<String, String> data;
+        private String resourceVersion;
+
+        CachedData(KubernetesClient client) {
+            this.client = client;
+        }
+
+        boolean isValid(KubernetesClient client) {
+            return this.client == client && System.currentTimeMillis() < expires;
+        }
+
+        boolean isLoaded() {
+            return latch.getCount() == 0;
+        }
+
+        /**
+         * Waits for the resource to be fetched
+         *
+         * @return false if it could not be fetched
+         */
+        boolean awaitLoaded() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return expires > 0;
+        }
+
+        /**
+         * Updates the data unless it is older than what is cached, as the fetch and the watch can see the
+         * same change in either order
+         */
+        synchronized void update(Map<String, String> data, String resourceVersion) {
+            if (isNewer(resourceVersion, this.resourceVersion)) {
+                this.data = data;
+                this.resourceVersion = resourceVersion;
+            }
+        }
+    }
+
+    /**
+     * Returns true unless both versions are numbers and the first is not greater than the second. A missing
+     * version, e.g. of a resource that was not found, is only newer than another missing one.
+     */
+    static boolean isNewer(String resourceVersion, String than) {
+        if (resourceVersion == null || than == null) {
+            return than == null;
+        }
+        try {
+            return Long.parseLong(resourceVersion) > Long.parseLong(than);
+        } catch (NumberFormatException e) {
+            return !resourceVersion.equals(than);
+        }
+    }
+
+    private static String getResourceVersion(HasMetadata resource) {
+        return resource != null && resource.getMetadata() != null ? resource.getMetadata().getResourceVersion() : null;
     }
 
-    static final class SecretsResource extends Resource {
+    static final class SecretsResource extends Resource<Secret> {
         private final boolean useApi;
         private final List<Path> paths;
+        private final ConcurrentMap<Path, CachedFile> files;
 
         public SecretsResource() {
             this.useApi = Utils.getSystemPropertyOrEnvVar(FABRIC8_K8S_SECRET_API_ENABLED, false);
             this.paths = new ArrayList<>();
+            this.files = new ConcurrentHashMap<>();
 
             String secretPaths = Utils.getSystemPropertyOrEnvVar(FABRIC8_K8S_SECRET_PATHS);
             if (Utils.isNotNullOrEmpty(secretPaths)) {
@@ -69,9 +408,26 @@ final class KubernetesSupport {
         }
 
         @Override
-        Map<String, String> getData(KubernetesClient client, String name) {
-            Secret resource = client.secrets().withName(name).get();
-            return (resource != null) ? resource.getData() : null;
+        Secret fetch(KubernetesClient client, String name) {
+            return client.secrets().withName(name).get();
+        }
+
+        @Override
+        Map<String, String> getData(Secret resource) {
+            return resource.getData();
+        }
+
+        @Override
+        Watch watch(KubernetesClient client, String resourceVersion, Watcher<Secret> watcher) {
+            return resourceVersion != null
+                ? client.secrets().watch(resourceVersion, watcher)
+                : client.secrets().watch(watcher);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            files.clear();
         }
 
         @Override
@@ -81,13 +437,9 @@ final class KubernetesSupport {
 
             // First check if secret has been mounted locally
             for (Path path : this.paths) {
-                Path secretPath = path.resolve(name).resolve(key);
-                if (Files.exists(secretPath) && Files.isRegularFile(secretPath)) {
-                    try {
-                        value = new String(Files.readAllBytes(secretPath)).trim();
-                    } catch (IOException e) {
-                        LOGGER.warn("", e);
-                    }
+                String fileValue = readFile(path.resolve(name).resolve(key));
+                if (fileValue != null) {
+                    value = fileValue;
                 }
             }
 
@@ -101,13 +453,90 @@ final class KubernetesSupport {
 
             return value;
         }
+
+        /**
+         * @return the trimmed content of the file, or null if it doesn't exist. The file is only read again
+         * when its modification time changes, and that is checked at most once a second.
+         */
+        private String readFile(Path path) {
+            long now = System.currentTimeMillis();
+            CachedFile cached = files.get(path);
+            if (cached != null && now - cached.checked < SECRET_FILE_CHECK_INTERVAL) {
+                return cached.value;
+            }
+
+            String value = null;
+            long modified = -1;
+            if (Files.isRegularFile(path)) {
+                try {
+                    modified = Files.getLastModifiedTime(path).toMillis();
+                    value = (cached != null && cached.modified == modified)
+                        ? cached.value
+                        : new String(Files.readAllBytes(path)).trim();
+                } catch (IOException e) {
+                    LOGGER.warn("", e);
+                }
+            }
+
+            if (getTtl() > 0) {
+                files.put(path, new CachedFile(value, modified, now));
+                evictFiles(path, now);
+            }
+            return value;
+        }
+
+        /**
+         * Keeps the files within the size of the cache, dropping those not read for longer than its TTL first
+         */
+        private void evictFiles(Path added, long now) {
+            if (files.size() <= getMaxSize()) {
+                return;
+            }
+            for (Map.Entry<Path, CachedFile> entry : files.entrySet()) {
+                if (now - entry.getValue().checked >= getTtl()) {
+                    files.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Iterator<Path> it = files.keySet().iterator(); it.hasNext() && files.size() > getMaxSize();) {
+                if (!it.next().equals(added)) {
+                    it.remove();
+                }
+            }
+        }
+
+        int getCachedFileCount() {
+            return files.size();
+        }
     }
 
-    static final class ConfigMapResource extends Resource {
+    static final class ConfigMapResource extends Resource<ConfigMap> {
+        @Override
+        ConfigMap fetch(KubernetesClient client, String name) {
+            return client.configMaps().withName(name).get();
+        }
+
+        @Override
+        Map<String, String> getData(ConfigMap resource) {
+            return resource.getData();
+        }
+
         @Override
-        Map<String, String> getData(KubernetesClient client, String name) {
-            ConfigMap resource = client.configMaps().withName(name).get();
-            return (resource != null) ? resource.getData() : null;
+        Watch watch(KubernetesClient client, String resourceVersion, Watcher<ConfigMap> watcher) {
+            return resourceVersion != null
+                ? client.configMaps().watch(resourceVersion, watcher)
+                : client.configMaps().watch(watcher);
+        }
+    }
+
+    private static final class CachedFile {
+        private final String value;
+        private final long modified;
+        private final long checked;
+
+        CachedFile(String value, long modified, long checked) {
+            this.value = value;
+            this.modified = modified;
+            this.checked = checked;
         }
     }
 
@@ -115,11 +544,11 @@ final class KubernetesSupport {
     // Resource helpers
     // ******************************
 
-    public static Resource secretsResource() {
+    public static Resource<Secret> secretsResource() {
         return new SecretsResource();
     }
 
-    public static Resource configMapResource() {
+    public static Resource<ConfigMap> configMapResource() {
         return new ConfigMapResource();
     }
 }
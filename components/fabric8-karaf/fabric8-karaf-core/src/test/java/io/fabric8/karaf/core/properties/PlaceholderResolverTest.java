@@ -25,11 +25,13 @@ import org.junit.Test;
 
 public class PlaceholderResolverTest {
     private PlaceholderResolverImpl resolver;
+    private Map1 map1;
 
     @Before
     public void setUp() {
+        map1 = new Map1();
         resolver = new PlaceholderResolverImpl();
-        resolver.bindFunction(new Map1());
+        resolver.bindFunction(map1);
         resolver.bindFunction(new Map2());
     }
 
@@ -40,6 +42,18 @@ public class PlaceholderResolverTest {
         Assert.assertNull(resolver.resolve("map1:noReplace"));
     }
 
+    @Test
+    public void testResolveAfterUnbind() {
+        Assert.assertEquals("hello1", resolver.resolve("map1:prop1"));
+
+        resolver.unbindFunction(map1);
+        Assert.assertNull(resolver.resolve("map1:prop1"));
+
+        resolver.bindFunction(map1);
+        Assert.assertEquals("hello1", resolver.resolve("map1:prop1"));
+        Assert.assertNull(resolver.resolve("prop1"));
+    }
+
     @Test
     public void testReplace() {
         Assert.assertEquals("hello1 world2", resolver.replace("$[map1:prop1] $[map2:prop2]"));
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2005-2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.fabric8.karaf.core.properties.function;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KubernetesSupportTest {
+    private KubernetesMockServer server;
+    private KubernetesClient client;
+    private KubernetesSupport.Resource<?> resource;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        server = new KubernetesMockServer(false);
+        server.init();
+        client = server.createClient();
+    }
+
+    @After
+    public void tearDown() {
+        if (resource != null) {
+            resource.close();
+        }
+        client.close();
+        System.clearProperty(KubernetesSupport.FABRIC8_K8S_CACHE_TTL);
+        System.clearProperty(KubernetesSupport.FABRIC8_K8S_CACHE_SIZE);
+        System.clearProperty(KubernetesSupport.FABRIC8_K8S_CACHE_WATCH);
+        System.clearProperty(KubernetesSupport.FABRIC8_K8S_SECRET_PATHS);
+    }
+
+    @Test
+    public void testCachedUntilExpired() throws Exception {
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_CACHE_TTL, "500");
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_CACHE_WATCH, "false");
+        expectConfigMap("cm1", "v1");
+        expectConfigMap("cm1", "v2");
+        resource = KubernetesSupport.configMapResource();
+
+        Assert.assertEquals("v1", resource.get(client, "cm1", "key"));
+        Assert.assertEquals("v1", resource.get(client, "cm1", "key"));
+        Assert.assertEquals(1, server.getRequestCount());
+
+        Thread.sleep(600);
+        Assert.assertEquals("v2", resource.get(client, "cm1", "key"));
+        Assert.assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testOneWatchFromTheFetchedVersion() throws Exception {
+        expectConfigMap("cm1", "v1");
+        expectConfigMap("cm2", "v1");
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps?resourceVersion=1&watch=true")
+            .andUpgradeToWebSocket()
+            .open()
+            .waitFor(200).andEmit(new WatchEvent(configMap("cm1", "v2", "2"), "MODIFIED"))
+            .waitFor(50).andEmit(new WatchEvent(configMap("cm3", "v2", "3"), "ADDED"))
+            .waitFor(50).andEmit(new WatchEvent(configMap("cm2", "v3", "4"), "MODIFIED"))
+            // older than what is cached
+            .waitFor(50).andEmit(new WatchEvent(configMap("cm1", "stale", "1"), "MODIFIED"))
+            .done().once();
+        resource = KubernetesSupport.configMapResource();
+
+        Assert.assertEquals("v1", resource.get(client, "cm1", "key"));
+        Assert.assertEquals("v1", resource.get(client, "cm2", "key"));
+        for (int i = 0; i < 50 && !"v3".equals(resource.get(client, "cm2", "key")); i++) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(200);
+        Assert.assertEquals("v2", resource.get(client, "cm1", "key"));
+        Assert.assertEquals("v3", resource.get(client, "cm2", "key"));
+        // both config maps were fetched once and share a single watch
+        Assert.assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testMountedSecretsAreBounded() throws Exception {
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_CACHE_SIZE, "2");
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_SECRET_PATHS, folder.getRoot().getPath());
+        for (int i = 0; i < 5; i++) {
+            File file = new File(folder.newFolder("secret" + i), "key");
+            Files.write(file.toPath(), ("value" + i).getBytes());
+        }
+        KubernetesSupport.SecretsResource secrets = new KubernetesSupport.SecretsResource();
+        resource = secrets;
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("value" + i, secrets.get(client, "secret" + i, "key"));
+            Assert.assertTrue(secrets.getCachedFileCount() <= 2);
+        }
+        Assert.assertEquals("value4", secrets.get(client, "secret4", "key"));
+    }
+
+    @Test
+    public void testEvictedWhenFull() {
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_CACHE_SIZE, "1");
+        System.setProperty(KubernetesSupport.FABRIC8_K8S_CACHE_WATCH, "false");
+        expectConfigMap("cm1", "v1");
+        expectConfigMap("cm2", "v2");
+        expectConfigMap("cm1", "v3");
+        resource = KubernetesSupport.configMapResource();
+
+        Assert.assertEquals("v1", resource.get(client, "cm1", "key"));
+        Assert.assertEquals("v2", resource.get(client, "cm2", "key"));
+        Assert.assertEquals("v2", resource.get(client, "cm2", "key"));
+        Assert.assertEquals("v3", resource.get(client, "cm1", "key"));
+        Assert.assertEquals(3, server.getRequestCount());
+    }
+
+    private void expectConfigMap(String name, String value) {
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps/" + name).andReturn(200, configMap(name, value)).once();
+    }
+
+    private static ConfigMap configMap(String name, String value) {
+        return configMap(name, value, "1");
+    }
+
+    private static ConfigMap configMap(String name, String value, String resourceVersion) {
+        return new ConfigMapBuilder()
+            .withNewMetadata().withName(name).withNamespace("test").withResourceVersion(resourceVersion).endMetadata()
+            .withData(Collections.singletonMap("key", value))
+            .build();
+    }
+}
@@ -17,27 +17,58 @@ package io.fabric8.profiles;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static io.fabric8.profiles.ProfilesHelpers.mergeInto;
 import static io.fabric8.profiles.ProfilesHelpers.readJsonFile;
 import static io.fabric8.profiles.ProfilesHelpers.readPropertiesFile;
 import static io.fabric8.profiles.ProfilesHelpers.readYamlFile;
 import static io.fabric8.profiles.ProfilesHelpers.recusivelyCollectFileListing;
-import static io.fabric8.profiles.ProfilesHelpers.toBytes;
+import static io.fabric8.profiles.ProfilesHelpers.sha256;
 import static io.fabric8.profiles.ProfilesHelpers.toJsonBytes;
+import static io.fabric8.profiles.ProfilesHelpers.toStableBytes;
 import static io.fabric8.profiles.ProfilesHelpers.toYamlBytes;
 
+/**
+ * Materializes profiles of a repository into a directory.
+ * <p/>
+ * An instance remembers what it has read and written: the parents and file listing of each profile are
+ * kept until one of its directories changes, parsed files are kept until they change, and an output file
+ * is only merged again when one of the files it is made of changed, and only written when its content hash
+ * differs from what is already there. Output files are merged in parallel.
+ */
 public class Profiles {
 
+    private static final String AGENT_PROPERTIES = "io.fabric8.agent.properties";
+
     private final Path repository;
+    private final ConcurrentMap<String, Profile> profiles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, SourceFile> sourceFiles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, OutputFile> outputFiles = new ConcurrentHashMap<>();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private volatile int lastWrittenCount;
+    private volatile int lastSkippedCount;
 
     /**
      * @param repository directory should be a repository containing profile configurations.
@@ -46,112 +77,359 @@ public class Profiles {
         this.repository = repository;
     }
 
+    /**
+     * @param parallelism the number of files merged at the same time, 1 merges them on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of files the last call to {@link #materialize(Path, String...)} wrote
+     */
+    public int getLastWrittenCount() {
+        return lastWrittenCount;
+    }
+
+    /**
+     * @return the number of files the last call to {@link #materialize(Path, String...)} left as they were
+     */
+    public int getLastSkippedCount() {
+        return lastSkippedCount;
+    }
+
     /**
      * @param target       is the directory where resulting materialized profile configuration will be written to.
      * @param profileNames a list of profile names that will be combined to create the materialized profile.
      */
-    public void materialize(Path target, String... profileNames) throws IOException {
-        ArrayList<String> profileSearchOrder = new ArrayList<>();
+    public void materialize(final Path target, String... profileNames) throws IOException {
+        Map<String, Profile> resolved = new LinkedHashMap<>();
         for (String profileName : profileNames) {
-            collectProfileNames(profileSearchOrder, profileName);
+            collectProfiles(resolved, profileName);
+        }
+        final List<Profile> profileSearchOrder = new ArrayList<>(resolved.values());
+
+        LinkedHashSet<String> files = new LinkedHashSet<>();
+        for (Profile profile : profileSearchOrder) {
+            files.addAll(profile.files.keySet());
+        }
+
+        final AtomicInteger written = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(files.size());
+        for (final String file : files) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (materializeFile(target, file, profileSearchOrder)) {
+                        written.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+
+        lastWrittenCount = written.get();
+        lastSkippedCount = files.size() - written.get();
+    }
+
+    private void run(List<Callable<Void>> tasks) throws IOException {
+        int threads = Math.min(parallelism, tasks.size());
+        if (threads <= 1) {
+            for (Callable<Void> task : tasks) {
+                call(task);
+            }
+            return;
         }
 
-        HashSet<String> files = new HashSet<>();
-        for (String profileName : profileSearchOrder) {
-            files.addAll(listFiles(profileName));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric8-profiles-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw toIOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while materializing profiles", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw toIOException(e);
+        }
+    }
+
+    private static IOException toIOException(Throwable e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
         }
+        return new IOException(e);
+    }
 
-        System.out.println("profile search order" + profileSearchOrder);
-        System.out.println("files: " + files);
-        for (String file : files) {
-            try (InputStream is = materializeFile(file, profileSearchOrder)) {
-                Files.copy(is, target.resolve(file), StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * @return true if the file was written, false if it already had the materialized content
+     */
+    private boolean materializeFile(Path target, String fileName, List<Profile> profileSearchOrder) throws IOException {
+        List<SourceFile> sources = new ArrayList<>();
+        for (Profile profile : profileSearchOrder) {
+            Path path = profile.files.get(fileName);
+            if (path != null) {
+                sources.add(getSourceFile(path));
             }
         }
+        if (!isMergeable(fileName)) {
+            // Last profile in list wins, since we cant merge these types of files.
+            sources = sources.subList(sources.size() - 1, sources.size());
+        }
+
+        Path targetFile = target.resolve(fileName);
+        OutputFile output = outputFiles.get(targetFile);
+        if (output != null && output.sources.equals(sources) && output.isCurrent(targetFile)) {
+            return false;
+        }
 
+        byte[] content = merge(fileName, sources);
+        String hash = sha256(content);
+        boolean write = output == null || !output.hash.equals(hash) || !output.isCurrent(targetFile);
+        if (write && output == null && Files.isRegularFile(targetFile) && Files.size(targetFile) == content.length) {
+            // nothing is known about the existing file, so look at its content
+            write = !hash.equals(sha256(Files.readAllBytes(targetFile)));
+        }
+        if (write) {
+            Path parent = targetFile.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.write(targetFile, content);
+        }
+        outputFiles.put(targetFile, new OutputFile(sources, hash, Files.readAttributes(targetFile, BasicFileAttributes.class)));
+        return write;
     }
 
-    private InputStream materializeFile(String fileName, ArrayList<String> profileSearchOrder) throws IOException {
+    private byte[] merge(String fileName, List<SourceFile> sources) throws IOException {
         if (fileName.endsWith(".properties")) {
 
             // later property files in the profile overwrite values
             // in previous properties.
             Properties properties = new Properties();
-            for (String profile : profileSearchOrder) {
-                Path path = getProfilePath(profile).resolve(fileName);
-                if (Files.exists(path)) {
-                    ProfilesHelpers.merge(properties, readPropertiesFile(path));
-                }
+            for (SourceFile source : sources) {
+                ProfilesHelpers.merge(properties, (Properties) source.getValue());
             }
-            return new ByteArrayInputStream(toBytes(properties));
+            return toStableBytes(properties);
         } else if (fileName.endsWith(".json")) {
-            JsonNode node = null;
-            for (String profile : profileSearchOrder) {
-                Path path = getProfilePath(profile).resolve(fileName);
-                if (Files.exists(path)) {
-                    node = ProfilesHelpers.merge(node, readJsonFile(path));
-                }
-            }
-            return new ByteArrayInputStream(toJsonBytes(node));
+            return toJsonBytes(mergeNodes(sources));
         } else if (fileName.endsWith(".yml")) {
-            JsonNode node = null;
-            for (String profile : profileSearchOrder) {
-                Path path = getProfilePath(profile).resolve(fileName);
-                if (Files.exists(path)) {
-                    node = ProfilesHelpers.merge(node, readYamlFile(path));
-                }
-            }
-            return new ByteArrayInputStream(toYamlBytes(node));
+            return toYamlBytes(mergeNodes(sources));
         } else {
-            // Last profile in list wins, since we cant merge these types of files.
-            Path last = null;
-            for (String profile : profileSearchOrder) {
-                Path path = getProfilePath(profile).resolve(fileName);
-                if (Files.exists(path)) {
-                    last = path;
-                }
+            return Files.readAllBytes(sources.get(0).path);
+        }
+    }
+
+    private static JsonNode mergeNodes(List<SourceFile> sources) throws IOException {
+        if (sources.size() == 1) {
+            return (JsonNode) sources.get(0).getValue();
+        }
+        // the parsed nodes are cached, so merge them into a copy of the first one
+        JsonNode node = null;
+        for (SourceFile source : sources) {
+            JsonNode value = (JsonNode) source.getValue();
+            if (node != null && (node.isObject() && value.isObject() || node.isArray() && value.isArray())) {
+                mergeInto(node, value);
+            } else {
+                node = value != null ? value.deepCopy() : null;
             }
-            return Files.newInputStream(last);
         }
+        return node;
+    }
+
+    private static boolean isMergeable(String fileName) {
+        return fileName.endsWith(".properties") || fileName.endsWith(".json") || fileName.endsWith(".yml");
     }
 
-    private ArrayList<String> listFiles(String profileName) throws IOException {
-        ArrayList<String> rc = new ArrayList<>();
-        Path dir = getProfilePath(profileName);
-        recusivelyCollectFileListing(rc, dir, dir);
-        return rc;
+    private SourceFile getSourceFile(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        SourceFile source = sourceFiles.get(path);
+        if (source == null || !source.isCurrent(attributes)) {
+            source = new SourceFile(path, attributes);
+            sourceFiles.put(path, source);
+        }
+        return source;
     }
 
-    private void collectProfileNames(ArrayList<String> target, String profileName) throws IOException {
-        if (target.contains(profileName)) {
+    private void collectProfiles(Map<String, Profile> target, String profileName) throws IOException {
+        if (target.containsKey(profileName)) {
             return;
         }
 
+        Profile profile = getProfile(profileName);
+        for (String parent : profile.parents) {
+            collectProfiles(target, parent);
+        }
+
+        target.put(profileName, profile);
+    }
+
+    private Profile getProfile(String profileName) throws IOException {
+        Profile profile = profiles.get(profileName);
+        if (profile == null || !profile.isCurrent()) {
+            profile = loadProfile(profileName);
+            profiles.put(profileName, profile);
+        }
+        return profile;
+    }
+
+    private Profile loadProfile(String profileName) throws IOException {
         Path path = getProfilePath(profileName);
         if (!Files.exists(path)) {
             throw new IOException("Profile directory does not exists: " + path);
         }
+
+        Map<Path, FileTime> directories = new HashMap<>();
+        ArrayList<String> listing = new ArrayList<>();
+        recusivelyCollectFileListing(listing, path, path, directories);
+        Map<String, Path> files = new HashMap<>();
+        for (String file : listing) {
+            files.put(file, path.resolve(file));
+        }
+
         Properties props = new Properties();
-        Path agentProperties = path.resolve("io.fabric8.agent.properties");
-        if (Files.exists(agentProperties)) {
+        Path agentProperties = path.resolve(AGENT_PROPERTIES);
+        FileTime agentPropertiesTime = null;
+        if (files.containsKey(AGENT_PROPERTIES)) {
+            agentPropertiesTime = Files.getLastModifiedTime(agentProperties);
             props = readPropertiesFile(agentProperties);
         }
 
-        String parents = props.getProperty("attribute.parents", "default".equals(profileName) ? "" : "default");
-        for (String parent : parents.split(",")) {
+        List<String> parents = new ArrayList<>();
+        for (String parent : props.getProperty("attribute.parents", "default".equals(profileName) ? "" : "default").split(",")) {
             parent = parent.trim();
             if (!parent.isEmpty()) {
-                collectProfileNames(target, parent);
+                parents.add(parent);
             }
         }
-
-        target.add(profileName);
+        return new Profile(parents, files, directories, agentProperties, agentPropertiesTime);
     }
 
-
     private Path getProfilePath(String profileName) {
         return repository.resolve(profileName.replaceAll("-", "/") + ".profile");
     }
 
+    /**
+     * The parents and files of a profile, as they were when its directories were last modified
+     */
+    private static final class Profile {
+        private final List<String> parents;
+        private final Map<String, Path> files;
+        private final Map<Path, FileTime> directories;
+        private final Path agentProperties;
+        private final FileTime agentPropertiesTime;
+
+        Profile(List<String> parents, Map<String, Path> files, Map<Path, FileTime> directories, Path agentProperties, FileTime agentPropertiesTime) {
+            this.parents = parents;
+            this.files = files;
+            this.directories = directories;
+            this.agentProperties = agentProperties;
+            this.agentPropertiesTime = agentPropertiesTime;
+        }
+
+        boolean isCurrent() throws IOException {
+            try {
+                for (Map.Entry<Path, FileTime> entry : directories.entrySet()) {
+                    if (!entry.getValue().equals(Files.getLastModifiedTime(entry.getKey()))) {
+                        return false;
+                    }
+                }
+                return agentPropertiesTime == null || agentPropertiesTime.equals(Files.getLastModifiedTime(agentProperties));
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * A file of a profile, parsed the first time it is merged
+     */
+    private static final class SourceFile {
+        private final Path path;
+        private final FileTime lastModified;
+        private final long size;
+        private Object value;
+        private boolean parsed;
+
+        SourceFile(Path path, BasicFileAttributes attributes) {
+            this.path = path;
+            this.lastModified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+
+        synchronized Object getValue() throws IOException {
+            if (!parsed) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".properties")) {
+                    value = readPropertiesFile(path);
+                } else if (name.endsWith(".json")) {
+                    value = readJsonFile(path);
+                } else if (name.endsWith(".yml")) {
+                    value = readYamlFile(path);
+                }
+                parsed = true;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A file that was materialized, with the source files it was made of
+     */
+    private static final class OutputFile {
+        private final List<SourceFile> sources;
+        private final String hash;
+        private final FileTime lastModified;
+        private final long size;
+
+        OutputFile(List<SourceFile> sources, String hash, BasicFileAttributes attributes) {
+            this.sources = new ArrayList<>(sources);
+            this.hash = hash;
+            this.lastModified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
 
-}
\ No newline at end of file
+        boolean isCurrent(Path path) throws IOException {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+}
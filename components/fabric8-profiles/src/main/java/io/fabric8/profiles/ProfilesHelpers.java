@@ -26,10 +26,15 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -69,6 +74,39 @@ public class ProfilesHelpers {
         }
     }
 
+    /**
+     * Like {@link #toBytes(Properties)}, but without the timestamp comment and with the entries sorted, so
+     * the same properties always give the same bytes.
+     */
+    public static byte[] toStableBytes(Properties properties) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(toBytes(properties), StandardCharsets.ISO_8859_1).split("\r?\n")) {
+            // store() escapes a leading '#' of a key, so only its own comment starts with one
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        Collections.sort(lines);
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static byte[] toYamlBytes(JsonNode yaml) throws IOException {
         return YAML_MAPPER.writeValueAsBytes(yaml);
     }
@@ -89,6 +127,22 @@ public class ProfilesHelpers {
         }
     }
 
+    /**
+     * Like {@link #recusivelyCollectFileListing(ArrayList, Path, Path)}, also recording when each directory was last modified.
+     */
+    public static void recusivelyCollectFileListing(ArrayList<String> rc, Path base, Path directory, Map<Path, FileTime> directories) throws IOException {
+        directories.put(directory, Files.getLastModifiedTime(directory));
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            for (Path path : directoryStream) {
+                if (Files.isDirectory(path)) {
+                    recusivelyCollectFileListing(rc, base, path, directories);
+                } else {
+                    rc.add(base.relativize(path).toString());
+                }
+            }
+        }
+    }
+
     public static void merge(Properties target, Properties source) {
         if( source.contains(DELETED) ) {
             target.clear();
@@ -145,4 +199,46 @@ public class ProfilesHelpers {
 
     }
 
+    /**
+     * Merges the source into the target in place, giving the same result as {@link #merge(JsonNode, JsonNode)}
+     * without copying the target at every level. The target must be an object or array that nothing else
+     * refers to; the source is left unchanged.
+     */
+    public static void mergeInto(JsonNode target, JsonNode source) {
+        if( target.isArray() && source.isArray() ) {
+            // we append values from the source.
+            ArrayNode array = (ArrayNode) target;
+            for (JsonNode n : source) {
+                if( (n.isTextual() && DELETED.equals(n.textValue())) ) {
+                    array.removeAll();
+                } else {
+                    array.add(n.deepCopy());
+                }
+            }
+        } else if ( target.isObject() && source.isObject() ) {
+            ObjectNode object = (ObjectNode) target;
+            if( source.get(DELETED)!=null ) {
+                object.removeAll();
+            } else {
+                Iterator<String> iterator = source.fieldNames();
+                while (iterator.hasNext()) {
+                    String key =  iterator.next();
+                    if( !DELETED.equals(key) ) {
+                        JsonNode value = source.get(key);
+                        if( (value.isTextual() && DELETED.equals(value.textValue())) ) {
+                            object.remove(key);
+                        } else {
+                            JsonNode original = object.get(key);
+                            if( original != null && (original.isArray() && value.isArray() || original.isObject() && value.isObject()) ) {
+                                mergeInto(original, value);
+                            } else {
+                                object.set(key, value.deepCopy());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,148 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.profiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static io.fabric8.profiles.TestHelpers.recusiveDeleteIfExists;
+
+/**
+ * Materializes the leaves of a synthetic repository of {@link #PROFILE_COUNT} profiles, so every profile is
+ * in the search order. Each profile has its own text file and a properties, yml and json file that are merged
+ * across all of them.
+ * <p/>
+ * {@link #materializeCold()} starts from a new {@link Profiles} each time, {@link #materializeUnchanged()} reuses
+ * one on an unchanged repository, and {@link #materializeAfterChange()} reuses one after a file of a single
+ * profile changed.
+ * <p/>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.profiles.ProfilesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProfilesBenchmark {
+    static final int PROFILE_COUNT = 1000;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Path directory;
+    private Path repository;
+    private Path target;
+    private String[] leaves;
+    private Profiles profiles;
+    private int changes;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("profiles-benchmark");
+        repository = directory.resolve("repository");
+        target = directory.resolve("target");
+        Files.createDirectories(target);
+        leaves = generateRepository(repository, PROFILE_COUNT);
+
+        profiles = newProfiles();
+        profiles.materialize(target, leaves);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        recusiveDeleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Profiles materializeCold() throws IOException {
+        Profiles cold = newProfiles();
+        cold.materialize(target, leaves);
+        return cold;
+    }
+
+    @Benchmark
+    public Profiles materializeUnchanged() throws IOException {
+        profiles.materialize(target, leaves);
+        return profiles;
+    }
+
+    @Benchmark
+    public Profiles materializeAfterChange() throws IOException {
+        Path file = repository.resolve("p" + (changes % PROFILE_COUNT) + ".profile/shared.yml");
+        write(file, "name: changed" + changes++ + "\n");
+        profiles.materialize(target, leaves);
+        return profiles;
+    }
+
+    private Profiles newProfiles() {
+        Profiles answer = new Profiles(repository);
+        answer.setParallelism(parallelism);
+        return answer;
+    }
+
+    /**
+     * Creates profiles p0 to p(count - 1) where the parents of pN are p(N / 2) and p(N / 3)
+     *
+     * @return the names of the profiles that are no other profile's parent
+     */
+    static String[] generateRepository(Path repository, int count) throws IOException {
+        write(repository.resolve("default.profile/default.txt"), "default");
+        for (int i = 0; i < count; i++) {
+            Path profile = repository.resolve("p" + i + ".profile");
+            String parents = i == 0 ? "default" : "p" + (i / 2) + ", p" + (i / 3);
+            write(profile.resolve("io.fabric8.agent.properties"), "attribute.parents = " + parents + "\n");
+            write(profile.resolve("p" + i + ".txt"), "p" + i);
+            write(profile.resolve("shared.properties"), "name = p" + i + "\nkey" + i + " = value" + i + "\n");
+            write(profile.resolve("shared.yml"), "name: p" + i + "\nattributes:\n  p" + i + ": true\nitems:\n- p" + i + "\n");
+            write(profile.resolve("shared.json"), "{\"name\": \"p" + i + "\", \"attributes\": {\"p" + i + "\": true}, \"items\": [\"p" + i + "\"]}");
+        }
+
+        int first = count / 2;
+        String[] leaves = new String[count - first];
+        for (int i = first; i < count; i++) {
+            leaves[i - first] = "p" + i;
+        }
+        return leaves;
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ProfilesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
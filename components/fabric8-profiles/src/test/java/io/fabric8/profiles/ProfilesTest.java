@@ -20,6 +20,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Properties;
@@ -59,4 +60,40 @@ public class ProfilesTest {
 
     }
 
+    @Test
+    public void incrementalTest() throws IOException {
+        Path base = PROJECT_BASE_DIR.resolve("target/test-data/incremental");
+        recusiveDeleteIfExists(base);
+        Path repository = base.resolve("profiles");
+        Path target = base.resolve("materialized");
+        Files.createDirectories(target);
+        String[] leaves = ProfilesBenchmark.generateRepository(repository, 20);
+
+        Profiles profiles = new Profiles(repository);
+        profiles.setParallelism(4);
+        profiles.materialize(target, leaves);
+        Assert.assertEquals(25, profiles.getLastWrittenCount());
+        Assert.assertEquals("value0", readPropertiesFile(target.resolve("shared.properties")).getProperty("key0"));
+        Assert.assertEquals(20, readYamlFile(target.resolve("shared.yml")).get("attributes").size());
+
+        // nothing changed, so nothing is written
+        profiles.materialize(target, leaves);
+        Assert.assertEquals(0, profiles.getLastWrittenCount());
+        Assert.assertEquals(25, profiles.getLastSkippedCount());
+
+        // a new instance finds the outputs already have the right content
+        Profiles other = new Profiles(repository);
+        other.materialize(target, leaves);
+        Assert.assertEquals(0, other.getLastWrittenCount());
+
+        // only the outputs made from a changed file are written
+        Files.write(repository.resolve("p3.profile/shared.yml"), "name: changed\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(repository.resolve("p5.profile/extra.txt"), "extra".getBytes(StandardCharsets.UTF_8));
+        profiles.materialize(target, leaves);
+        Assert.assertEquals(2, profiles.getLastWrittenCount());
+        Assert.assertEquals("extra", readTextFile(target.resolve("extra.txt")));
+        JsonNode yaml = readYamlFile(target.resolve("shared.yml"));
+        Assert.assertEquals(19, yaml.get("attributes").size());
+    }
+
 }
\ No newline at end of file
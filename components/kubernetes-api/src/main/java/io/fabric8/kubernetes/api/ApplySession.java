@@ -0,0 +1,141 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.dsl.MixedOperation;
+import io.fabric8.kubernetes.client.dsl.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.fabric8.kubernetes.api.KubernetesHelper.getName;
+
+/**
+ * Looks up the existing versions of the entities of a {@link io.fabric8.kubernetes.api.model.KubernetesList}
+ * while the {@link Controller} applies it.
+ * <p/>
+ * Kinds with more than one entity in the list are listed once per namespace, then their entities are
+ * found in that snapshot, so a GET is only needed for entities that did not exist when it was taken.
+ */
+public class ApplySession {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ApplySession.class);
+
+    private final Map<Class<?>, Integer> kindCounts = new HashMap<>();
+    private final Map<String, Map<String, HasMetadata>> snapshots = new ConcurrentHashMap<>();
+    private final AtomicInteger listCalls = new AtomicInteger();
+    private final AtomicInteger getCalls = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+
+    public ApplySession(List<HasMetadata> entities) {
+        for (HasMetadata entity : entities) {
+            if (entity != null) {
+                Integer count = kindCounts.get(entity.getClass());
+                kindCounts.put(entity.getClass(), count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the existing entity of the same kind with the given name or null if there is none
+     */
+    public <T extends HasMetadata> T getExisting(T entity, String namespace, String name, MixedOperation<T, ?, ?, ? extends Resource<T, ?>> resources) {
+        Map<String, HasMetadata> snapshot = getSnapshot(entity, namespace, resources);
+        if (snapshot != null) {
+            HasMetadata existing = snapshot.get(name);
+            if (existing != null && existing.getClass() == entity.getClass()) {
+                hits.incrementAndGet();
+                return (T) existing;
+            }
+        }
+        getCalls.incrementAndGet();
+        return resources.inNamespace(namespace).withName(name).get();
+    }
+
+    /**
+     * Returns the number of GETs that were answered from a snapshot, less the lists taken to do so
+     */
+    public int getApiCallsSaved() {
+        return hits.get() - listCalls.get();
+    }
+
+    public int getListCalls() {
+        return listCalls.get();
+    }
+
+    public int getGetCalls() {
+        return getCalls.get();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    private <T extends HasMetadata> Map<String, HasMetadata> getSnapshot(T entity, String namespace, MixedOperation<T, ?, ?, ? extends Resource<T, ?>> resources) {
+        Integer count = kindCounts.get(entity.getClass());
+        if (count == null || count < 2) {
+            return null;
+        }
+        String key = entity.getClass().getName() + ":" + namespace;
+        Map<String, HasMetadata> snapshot = snapshots.get(key);
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = snapshots.get(key);
+                if (snapshot == null) {
+                    snapshot = list(entity, namespace, resources);
+                    snapshots.put(key, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private <T extends HasMetadata> Map<String, HasMetadata> list(T entity, String namespace, MixedOperation<T, ?, ?, ? extends Resource<T, ?>> resources) {
+        Map<String, HasMetadata> snapshot = new HashMap<>();
+        try {
+            listCalls.incrementAndGet();
+            Object list = resources.inNamespace(namespace).list();
+            if (list instanceof KubernetesResourceList) {
+                List<? extends HasMetadata> items = ((KubernetesResourceList<?>) list).getItems();
+                if (items != null) {
+                    for (HasMetadata item : items) {
+                        String name = getName(item);
+                        if (name != null) {
+                            snapshot.put(name, item);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // e.g. not allowed to list - fall back to a GET per entity
+            LOG.debug("Could not list " + entity.getClass().getSimpleName() + " in namespace " + namespace + " due " + e.getMessage());
+            return Collections.emptyMap();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplySession{lists: " + listCalls + ", gets: " + getCalls + ", snapshot hits: " + hits + ", API calls saved: " + getApiCallsSaved() + "}";
+    }
+}
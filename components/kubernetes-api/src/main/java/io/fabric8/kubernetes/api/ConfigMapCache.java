@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.utils.Systems;
+
+/**
+ * Caches the ConfigMaps that configure fabric8 - such as the environments, spaces and pipelines - per
+ * namespace and name.
+ * <p/>
+ * A cached ConfigMap is watched, so it is kept until it changes or the watch is lost. If it cannot be
+ * watched it is kept for fabric8.configmap.cache.ttl milliseconds, and watching it is only tried again after
+ * fabric8.configmap.cache.retry milliseconds. Watching can be turned off with fabric8.configmap.cache.watch=false.
+ * A ConfigMap that is not used for fabric8.configmap.cache.idle.ttl milliseconds is dropped.
+ * <p/>
+ * {@link #getDefault()} returns a cache shared by the helpers that used to create a client per call. The client
+ * runs a watch on threads that keep the JVM alive, and nothing closes the shared cache when its callers are done -
+ * so the shared cache only watches if fabric8.configmap.cache.watch=true is set, and is then closed by a shutdown hook.
+ */
+public class ConfigMapCache extends WatchedResourceCache<ConfigMap> {
+    public static final String CACHE_TTL = "fabric8.configmap.cache.ttl";
+    public static final String CACHE_RETRY = "fabric8.configmap.cache.retry";
+    public static final String CACHE_WATCH = "fabric8.configmap.cache.watch";
+    public static final String CACHE_IDLE_TTL = "fabric8.configmap.cache.idle.ttl";
+
+    private static ConfigMapCache defaultCache;
+    private static boolean shutdownHookAdded;
+
+    private final KubernetesClient client;
+    private final boolean closeClient;
+
+    public ConfigMapCache(KubernetesClient client) {
+        this(client, false, Systems.getEnvVarOrSystemProperty(CACHE_WATCH, Boolean.TRUE));
+    }
+
+    private ConfigMapCache(KubernetesClient client, boolean closeClient, boolean watch) {
+        super("ConfigMap", watch,
+              Systems.getEnvVarOrSystemProperty(CACHE_TTL, 10000).longValue(),
+              Systems.getEnvVarOrSystemProperty(CACHE_RETRY, 10000).longValue(),
+              Systems.getEnvVarOrSystemProperty(CACHE_IDLE_TTL, 10 * 60 * 1000).longValue());
+        this.client = client;
+        this.closeClient = closeClient;
+    }
+
+    /**
+     * Returns the cache shared by the helpers, creating it and its client the first time
+     */
+    public static synchronized ConfigMapCache getDefault() {
+        if (defaultCache == null) {
+            boolean watch = Systems.getEnvVarOrSystemProperty(CACHE_WATCH, Boolean.FALSE);
+            if (watch && !shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread("fabric8-configmap-cache-shutdown") {
+                    @Override
+                    public void run() {
+                        closeDefault();
+                    }
+                });
+                shutdownHookAdded = true;
+            }
+            defaultCache = new ConfigMapCache(new DefaultKubernetesClient(), true, watch);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Closes the shared cache and its client, the next call to {@link #getDefault()} creates new ones
+     */
+    public static synchronized void closeDefault() {
+        if (defaultCache != null) {
+            defaultCache.close();
+            defaultCache = null;
+        }
+    }
+
+    public KubernetesClient getClient() {
+        return client;
+    }
+
+    @Override
+    protected ConfigMap lookup(String namespace, String name) {
+        return client.configMaps().inNamespace(namespace).withName(name).get();
+    }
+
+    @Override
+    protected Watch watch(String namespace, String name, String resourceVersion, Watcher<ConfigMap> watcher) {
+        if (resourceVersion != null) {
+            return client.configMaps().inNamespace(namespace).withName(name).watch(resourceVersion, watcher);
+        }
+        return client.configMaps().inNamespace(namespace).withName(name).watch(watcher);
+    }
+
+    /**
+     * Closes the watches, empties the cache and closes the client if the cache created it
+     */
+    @Override
+    public void close() {
+        super.close();
+        if (closeClient) {
+            client.close();
+        }
+    }
+}
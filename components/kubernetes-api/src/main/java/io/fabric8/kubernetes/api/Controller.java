@@ -75,8 +75,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 import static io.fabric8.kubernetes.api.KubernetesHelper.getKind;
@@ -93,6 +103,7 @@ import static io.fabric8.kubernetes.api.KubernetesHelper.toItemList;
  */
 public class Controller {
     private static final transient Logger LOG = LoggerFactory.getLogger(Controller.class);
+    private static final int APPLY_TIERS = 4;
 
     private final KubernetesClient kubernetesClient;
 
@@ -112,6 +123,11 @@ public class Controller {
     private String namesapce = KubernetesHelper.defaultNamespace();
     private boolean requireSecretsCreatedBeforeReplicationControllers;
     private boolean rollingUpgradePreserveScale = true;
+    private int applyParallelism = 1;
+    private boolean prefetchExisting = true;
+    private volatile ApplySession lastApplySession;
+    // the list being applied by each thread, so concurrent calls to applyList do not share their state
+    private final ThreadLocal<ApplyContext> applyContext = new ThreadLocal<>();
 
     public Controller() {
         this(new DefaultKubernetesClient());
@@ -381,7 +397,7 @@ public class Controller {
             String namespace = getNamespace();
             String id = getName(entity);
             Objects.notNull(id, "No name for " + entity + " " + sourceName);
-            Template old = openShiftClient.templates().inNamespace(namespace).withName(id).get();
+            Template old = getExisting(entity, namespace, id, openShiftClient.templates());
             if (isRunning(old)) {
                 if (UserConfigurationCompare.configEqual(entity, old)) {
                     LOG.info("Template has not changed so not doing anything");
@@ -465,7 +481,7 @@ public class Controller {
             LOG.debug("Only processing Services right now so ignoring ServiceAccount: " + id);
             return;
         }
-        ServiceAccount old = kubernetesClient.serviceAccounts().inNamespace(namespace).withName(id).get();
+        ServiceAccount old = getExisting(serviceAccount, namespace, id, kubernetesClient.serviceAccounts());
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(serviceAccount, old)) {
                 LOG.info("ServiceAccount has not changed so not doing anything");
@@ -518,7 +534,7 @@ public class Controller {
             LOG.debug("Only processing Services right now so ignoring PersistentVolumeClaim: " + id);
             return;
         }
-        PersistentVolumeClaim old = kubernetesClient.persistentVolumeClaims().inNamespace(namespace).withName(id).get();
+        PersistentVolumeClaim old = getExisting(entity, namespace, id, kubernetesClient.persistentVolumeClaims());
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(entity, old)) {
                 LOG.info("PersistentVolumeClaim has not changed so not doing anything");
@@ -569,7 +585,7 @@ public class Controller {
             return;
         }
 
-        Secret old = kubernetesClient.secrets().inNamespace(namespace).withName(id).get();
+        Secret old = getExisting(secret, namespace, id, kubernetesClient.secrets());
         // check if the secret already exists or not
         if (isRunning(old)) {
             // if the secret already exists and is the same, then do nothing
@@ -741,7 +757,7 @@ public class Controller {
             if (Strings.isNullOrBlank(namespace)) {
                 namespace = getNamespace();
             }
-            Route route = openShiftClient.routes().inNamespace(namespace).withName(id).get();
+            Route route = getExisting(entity, namespace, id, openShiftClient.routes());
             if (route == null) {
                 try {
                     LOG.info("Creating Route " + namespace + ":" + id + " " + KubernetesHelper.summaryText(entity));
@@ -764,7 +780,7 @@ public class Controller {
                 namespace = getNamespace();
             }
             applyNamespace(namespace);
-            BuildConfig old = openShiftClient.buildConfigs().inNamespace(namespace).withName(id).get();
+            BuildConfig old = getExisting(entity, namespace, id, openShiftClient.buildConfigs());
             if (isRunning(old)) {
                 if (UserConfigurationCompare.configEqual(entity, old)) {
                     LOG.info("BuildConfig has not changed so not doing anything");
@@ -819,7 +835,7 @@ public class Controller {
                 namespace = getNamespace();
             }
             applyNamespace(namespace);
-            RoleBinding old = openShiftClient.roleBindings().inNamespace(namespace).withName(id).get();
+            RoleBinding old = getExisting(entity, namespace, id, openShiftClient.roleBindings());
             if (isRunning(old)) {
                 if (UserConfigurationCompare.configEqual(entity, old)) {
                     LOG.info("RoleBinding has not changed so not doing anything");
@@ -874,7 +890,7 @@ public class Controller {
                 namespace = getNamespace();
             }
             applyNamespace(namespace);
-            PolicyBinding old = openShiftClient.policyBindings().inNamespace(namespace).withName(id).get();
+            PolicyBinding old = getExisting(entity, namespace, id, openShiftClient.policyBindings());
             if (isRunning(old)) {
                 if (UserConfigurationCompare.configEqual(entity, old)) {
                     LOG.info("PolicyBinding has not changed so not doing anything");
@@ -990,12 +1006,138 @@ public class Controller {
     public void applyList(KubernetesList list, String sourceName) throws Exception {
         List<HasMetadata> entities = list.getItems();
         if (entities != null) {
+            if (applyContext.get() != null) {
+                // a nested list (e.g. from a template) joins the context of the outer one
+                doApplyList(entities, sourceName);
+                return;
+            }
+            ApplyContext context = new ApplyContext(prefetchExisting ? new ApplySession(entities) : null);
+            applyContext.set(context);
+            try {
+                doApplyList(entities, sourceName);
+            } finally {
+                applyContext.remove();
+                if (context.session != null) {
+                    lastApplySession = context.session;
+                    if (context.session.getHits() > 0) {
+                        LOG.info("Prefetched existing entities from " + sourceName + ": " + context.session);
+                    }
+                }
+            }
+        }
+    }
+
+    private void doApplyList(List<HasMetadata> entities, String sourceName) throws Exception {
+        if (applyParallelism > 1 && entities.size() > 1) {
+            for (ApplyResult result : applyEntities(entities, sourceName)) {
+                if (result.getError() != null) {
+                    throw result.getError();
+                }
+            }
+        } else {
             for (Object entity : entities) {
                 applyEntity(entity, sourceName);
             }
         }
     }
 
+    /**
+     * Returns the existing version of the entity, from the snapshot of the current {@link ApplySession} if there is one
+     */
+    protected <T extends HasMetadata> T getExisting(T entity, String namespace, String id, MixedOperation<T, ?, ?, ? extends Resource<T, ?>> resources) {
+        ApplyContext context = applyContext.get();
+        ApplySession session = context != null ? context.session : null;
+        if (session != null) {
+            return session.getExisting(entity, namespace, id, resources);
+        }
+        return resources.inNamespace(namespace).withName(id).get();
+    }
+
+    /**
+     * Applies the entities tier by tier - namespaces, then secrets and configuration, then services, then
+     * everything else - with the entities of a tier applied in parallel by up to {@link #getApplyParallelism()}
+     * threads. If an entity fails, the rest of its tier is still applied but later tiers are skipped.
+     *
+     * @return the result of each entity, in the order of the given list
+     */
+    public List<ApplyResult> applyEntities(List<HasMetadata> entities, final String sourceName) throws InterruptedException {
+        List<List<ApplyResult>> tiers = new ArrayList<>();
+        for (int i = 0; i < APPLY_TIERS; i++) {
+            tiers.add(new ArrayList<ApplyResult>());
+        }
+        List<ApplyResult> results = new ArrayList<>(entities.size());
+        for (HasMetadata entity : entities) {
+            ApplyResult result = new ApplyResult(entity);
+            results.add(result);
+            tiers.get(getApplyTier(entity)).add(result);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(applyParallelism, entities.size())), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fabric8-apply-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // the threads applying the entities share the context of the list, e.g. the namespaces already checked
+        ApplyContext current = applyContext.get();
+        final ApplyContext context = current != null ? current : new ApplyContext(null);
+        try {
+            for (List<ApplyResult> tier : tiers) {
+                List<Future<?>> futures = new ArrayList<>(tier.size());
+                for (final ApplyResult result : tier) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            applyContext.set(context);
+                            try {
+                                result.apply(Controller.this, sourceName);
+                            } finally {
+                                applyContext.remove();
+                            }
+                        }
+                    }));
+                }
+                boolean failed = false;
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException("Failed to apply " + getKind(tier.get(i).getEntity()) + " " + getName(tier.get(i).getEntity()), e.getCause());
+                    }
+                    failed |= tier.get(i).getError() != null;
+                }
+                if (failed) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Returns the tier of an entity in {@link #applyEntities(List, String)}, entities are only applied once all
+     * the entities of lower tiers have been
+     */
+    static int getApplyTier(HasMetadata entity) {
+        if (entity instanceof Namespace || entity instanceof ProjectRequest) {
+            return 0;
+        }
+        if (entity instanceof Secret || entity instanceof ConfigMap || entity instanceof ServiceAccount
+            || entity instanceof PersistentVolumeClaim) {
+            return 1;
+        }
+        if (entity instanceof Service) {
+            return 2;
+        }
+        return 3;
+    }
+
     public void applyService(Service service, String sourceName) throws Exception {
         String namespace = getNamespace();
         String id = getName(service);
@@ -1004,7 +1146,7 @@ public class Controller {
             LOG.debug("Ignoring Service: " + namespace + ":" + id);
             return;
         }
-        Service old = kubernetesClient.services().inNamespace(namespace).withName(id).get();
+        Service old = getExisting(service, namespace, id, kubernetesClient.services());
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(service, old)) {
                 LOG.info("Service has not changed so not doing anything");
@@ -1045,7 +1187,7 @@ public class Controller {
             LOG.debug("Ignoring " + kind + ": " + namespace + ":" + id);
             return;
         }
-        T old = resources.inNamespace(namespace).withName(id).get();
+        T old = getExisting(resource, namespace, id, resources);
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(resource, old)) {
                 LOG.info(kind + " has not changed so not doing anything");
@@ -1142,6 +1284,24 @@ public class Controller {
         if (Strings.isNullOrBlank(namespaceName)) {
             return;
         }
+        ApplyContext context = applyContext.get();
+        if (context == null) {
+            doApplyNamespace(namespaceName, labels);
+            return;
+        }
+        if (context.namespaces.contains(namespaceName)) {
+            return;
+        }
+        // entities applied in parallel often share a namespace, so only one of them checks and creates it
+        synchronized (context.getNamespaceLock(namespaceName)) {
+            if (!context.namespaces.contains(namespaceName)) {
+                doApplyNamespace(namespaceName, labels);
+                context.namespaces.add(namespaceName);
+            }
+        }
+    }
+
+    private void doApplyNamespace(String namespaceName, Map<String,String> labels) {
         OpenShiftClient openshiftClient = getOpenShiftClientOrNull();
         if (openshiftClient != null && openshiftClient.supportsOpenShiftAPIGroup(OpenShiftAPIGroups.PROJECT)) {
             ProjectRequest entity = new ProjectRequest();
@@ -1233,7 +1393,7 @@ public class Controller {
             LOG.debug("Only processing Services right now so ignoring ReplicationController: " + namespace + ":" + id);
             return;
         }
-        ReplicationController old = kubernetesClient.replicationControllers().inNamespace(namespace).withName(id).get();
+        ReplicationController old = getExisting(replicationController, namespace, id, kubernetesClient.replicationControllers());
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(replicationController, old)) {
                 LOG.info("ReplicationController has not changed so not doing anything");
@@ -1333,7 +1493,7 @@ public class Controller {
             LOG.debug("Only processing Services right now so ignoring Pod: " + namespace + ":" + id);
             return;
         }
-        Pod old = kubernetesClient.pods().inNamespace(namespace).withName(id).get();
+        Pod old = getExisting(pod, namespace, id, kubernetesClient.pods());
         if (isRunning(old)) {
             if (UserConfigurationCompare.configEqual(pod, old)) {
                 LOG.info("Pod has not changed so not doing anything");
@@ -1547,6 +1707,37 @@ public class Controller {
         this.rollingUpgrade = rollingUpgrade;
     }
 
+    public int getApplyParallelism() {
+        return applyParallelism;
+    }
+
+    /**
+     * Sets the number of entities of a {@link KubernetesList} that may be applied at the same time, the default
+     * of 1 applies them one at a time in the order of the list
+     */
+    public void setApplyParallelism(int applyParallelism) {
+        this.applyParallelism = applyParallelism;
+    }
+
+    public boolean isPrefetchExisting() {
+        return prefetchExisting;
+    }
+
+    /**
+     * Sets whether applying a {@link KubernetesList} lists the kinds it has several entities of once per namespace,
+     * rather than getting each entity, to find what already exists
+     */
+    public void setPrefetchExisting(boolean prefetchExisting) {
+        this.prefetchExisting = prefetchExisting;
+    }
+
+    /**
+     * Returns the session of the last {@link KubernetesList} applied, with the number of API calls prefetching saved
+     */
+    public ApplySession getLastApplySession() {
+        return lastApplySession;
+    }
+
     public boolean isRollingUpgradePreserveScale() {
         return rollingUpgradePreserveScale;
     }
@@ -1554,4 +1745,83 @@ public class Controller {
     public void setRollingUpgradePreserveScale(boolean rollingUpgradePreserveScale) {
         this.rollingUpgradePreserveScale = rollingUpgradePreserveScale;
     }
+
+    /**
+     * The state of applying one list, shared by the threads applying its entities and by the lists nested in it
+     */
+    private static final class ApplyContext {
+        private final ApplySession session;
+        private final Set<String> namespaces = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final ConcurrentMap<String, Object> namespaceLocks = new ConcurrentHashMap<>();
+
+        ApplyContext(ApplySession session) {
+            this.session = session;
+        }
+
+        Object getNamespaceLock(String namespace) {
+            Object lock = namespaceLocks.get(namespace);
+            if (lock == null) {
+                Object newLock = new Object();
+                lock = namespaceLocks.putIfAbsent(namespace, newLock);
+                if (lock == null) {
+                    lock = newLock;
+                }
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * The outcome of applying an entity with {@link #applyEntities(List, String)}
+     */
+    public static class ApplyResult {
+        private final HasMetadata entity;
+        private volatile boolean applied;
+        private volatile Exception error;
+        private volatile long duration;
+
+        ApplyResult(HasMetadata entity) {
+            this.entity = entity;
+        }
+
+        void apply(Controller controller, String sourceName) {
+            long start = System.currentTimeMillis();
+            try {
+                controller.applyEntity(entity, sourceName);
+                applied = true;
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                duration = System.currentTimeMillis() - start;
+            }
+        }
+
+        public HasMetadata getEntity() {
+            return entity;
+        }
+
+        /**
+         * Returns true if the entity was applied without error, false if it failed or was skipped
+         */
+        public boolean isApplied() {
+            return applied;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * Returns how long applying the entity took in milliseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return getKind(entity) + " " + getName(entity) + (applied ? " applied" : error != null ? " failed: " + error : " skipped")
+                + " in " + duration + "ms";
+        }
+    }
 }
@@ -25,6 +25,9 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
@@ -37,6 +40,26 @@ public class UserConfigurationCompare {
 
     protected static final Set<String> ignoredProperties = new HashSet<>(Collections.singletonList("status"));
 
+    private static final ClassValue<Property[]> properties = new ClassValue<Property[]>() {
+        @Override
+        protected Property[] computeValue(Class<?> clazz) {
+            try {
+                BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+                List<Property> list = new ArrayList<>();
+                for (PropertyDescriptor propertyDescriptor : beanInfo.getPropertyDescriptors()) {
+                    Method readMethod = propertyDescriptor.getReadMethod();
+                    if (readMethod != null) {
+                        list.add(new Property(propertyDescriptor.getName(), readMethod));
+                    }
+                }
+                return list.toArray(new Property[list.size()]);
+            } catch (IntrospectionException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    };
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
 
     /**
      * This method detects if the user has changed the configuration of an entity.
@@ -73,10 +96,149 @@ public class UserConfigurationCompare {
         }
     }
 
+    /**
+     * Returns true if every item of each collection has an equal item in the other.
+     * <p/>
+     * Collections with the items in the same order are compared pairwise, otherwise the items are
+     * matched by {@link #configHashCode(Object)} so only items with the same hash are compared.
+     */
     static <L,R> boolean collectionsEqual(Collection<L> left, Collection<R> right) {
+        if (left.size() == right.size() && pairwiseEqual(left, right)) {
+            return true;
+        }
+        if (left.size() > 1 && right.size() > 1 && sameItemClass(left, right)) {
+            try {
+                int[] leftHashes = configHashCodes(left);
+                int[] rightHashes = configHashCodes(right);
+                return bucketsContain(left, leftHashes, groupByHash(right, rightHashes))
+                    && bucketsContain(right, rightHashes, groupByHash(left, leftHashes));
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to hash collection items, comparing every pair. " + e, e);
+            }
+        }
         return subCollection(left, right) && subCollection(right, left);
     }
 
+    private static <L, R> boolean pairwiseEqual(Collection<L> left, Collection<R> right) {
+        Iterator<R> it = right.iterator();
+        for (L item : left) {
+            if (!configEqual(item, it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Items of different classes may be compared on the properties of a common super class, which
+     * {@link #configHashCode(Object)} cannot know about - so hashing is only used when all items share a class
+     */
+    private static boolean sameItemClass(Collection<?> left, Collection<?> right) {
+        Class<?> itemClass = null;
+        for (Collection<?> collection : Arrays.asList(left, right)) {
+            for (Object item : collection) {
+                if (item != null) {
+                    if (itemClass == null) {
+                        itemClass = item.getClass();
+                    } else if (itemClass != item.getClass()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int[] configHashCodes(Collection<?> collection) {
+        int[] answer = new int[collection.size()];
+        int idx = 0;
+        for (Object item : collection) {
+            answer[idx++] = configHashCode(item);
+        }
+        return answer;
+    }
+
+    private static <T> Map<Integer, List<T>> groupByHash(Collection<T> collection, int[] hashes) {
+        Map<Integer, List<T>> answer = new HashMap<>();
+        int idx = 0;
+        for (T item : collection) {
+            Integer hash = hashes[idx++];
+            List<T> bucket = answer.get(hash);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                answer.put(hash, bucket);
+            }
+            bucket.add(item);
+        }
+        return answer;
+    }
+
+    private static <L, R> boolean bucketsContain(Collection<L> items, int[] hashes, Map<Integer, List<R>> buckets) {
+        int idx = 0;
+        for (L item : items) {
+            List<R> bucket = buckets.get(hashes[idx++]);
+            if (bucket == null || !itemExists(item, bucket)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code that is the same for any two objects {@link #configEqual(Object, Object)} finds equal
+     * when they are of the same class
+     */
+    static int configHashCode(Object entity) {
+        if (entity == null) {
+            return 0;
+        } else if (entity instanceof Map) {
+            int hash = 0;
+            for (Object o : ((Map) entity).entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                // a null value equals a missing key, so it must not change the hash
+                if (entry.getValue() != null) {
+                    hash += Objects.hashCode(entry.getKey()) ^ configHashCode(entry.getValue());
+                }
+            }
+            return hash;
+        } else if (entity instanceof ObjectMeta) {
+            ObjectMeta meta = (ObjectMeta) entity;
+            return 31 * (31 * Objects.hashCode(meta.getName()) + Objects.hashCode(meta.getNamespace()))
+                + configHashCode(meta.getLabels()) + configHashCode(meta.getAnnotations());
+        } else if (entity instanceof Collection) {
+            // collections are equal when each item has an equal item in the other, in any order and number
+            Set<Integer> hashes = new HashSet<>();
+            for (Object item : (Collection) entity) {
+                hashes.add(configHashCode(item));
+            }
+            int hash = 0;
+            for (Integer h : hashes) {
+                hash += h;
+            }
+            return hash;
+        } else if (entity.getClass().getPackage() != null && entity.getClass().getPackage().getName().startsWith("io.fabric8")) {
+            Property[] props;
+            try {
+                props = getProperties(entity.getClass());
+            } catch (IntrospectionException e) {
+                return 0;
+            }
+            int hash = 1;
+            for (Property property : props) {
+                if (!ignoredProperties.contains(property.name)) {
+                    try {
+                        hash = 31 * hash + configHashCode(property.get(entity));
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Failed to read " + property.name + " of " + entity, e);
+                    }
+                }
+            }
+            return hash;
+        } else {
+            return Objects.hashCode(entity);
+        }
+    }
+
 
     static <L, R> boolean itemExists(L item, Collection<R> collection) {
         for (R candidate : collection) {
@@ -116,27 +278,22 @@ public class UserConfigurationCompare {
      */
     protected static boolean configEqualKubernetesDTO(@NotNull Object entity1, @NotNull Object entity2, @NotNull Class<?> clazz) {
         // lets iterate through the objects making sure we've not
-        BeanInfo beanInfo = null;
+        Property[] props;
         try {
-            beanInfo = Introspector.getBeanInfo(clazz);
+            props = getProperties(clazz);
         } catch (IntrospectionException e) {
             LOG.warn("Failed to get beanInfo for " + clazz.getName() + ". " + e, e);
             return false;
         }
         try {
-            PropertyDescriptor[] propertyDescriptors = beanInfo.getPropertyDescriptors();
-            for (PropertyDescriptor propertyDescriptor : propertyDescriptors) {
-                String name = propertyDescriptor.getName();
-                if (ignoredProperties.contains(name)) {
+            for (Property property : props) {
+                if (ignoredProperties.contains(property.name)) {
                     continue;
                 }
-                Method readMethod = propertyDescriptor.getReadMethod();
-                if (readMethod != null) {
-                    Object value1 = invokeMethod(entity1, readMethod);
-                    Object value2 = invokeMethod(entity2, readMethod);
-                    if (!configEqual(value1, value2)) {
-                        return false;
-                    }
+                Object value1 = property.get(entity1);
+                Object value2 = property.get(entity2);
+                if (!configEqual(value1, value2)) {
+                    return false;
                 }
             }
             return true;
@@ -145,6 +302,20 @@ public class UserConfigurationCompare {
         }
     }
 
+    /**
+     * Returns the readable properties of the class, introspected once per class
+     */
+    static Property[] getProperties(Class<?> clazz) throws IntrospectionException {
+        try {
+            return properties.get(clazz);
+        } catch (IllegalArgumentException e) {
+            if (e.getCause() instanceof IntrospectionException) {
+                throw (IntrospectionException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     protected static Object invokeMethod(@NotNull Object entity, Method readMethod) throws InvocationTargetException, IllegalAccessException {
         try {
             return readMethod.invoke(entity);
@@ -226,4 +397,38 @@ public class UserConfigurationCompare {
         return (coll == null) ? 0 : coll.size();
     }
 
+    /**
+     * A readable bean property, read through a {@link MethodHandle} when the getter is accessible
+     */
+    static final class Property {
+        private final String name;
+        private final Method readMethod;
+        private final MethodHandle getter;
+
+        Property(String name, Method readMethod) {
+            this.name = name;
+            this.readMethod = readMethod;
+            MethodHandle handle = null;
+            try {
+                handle = MethodHandles.publicLookup().unreflect(readMethod).asType(GETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                // e.g. declared by a non public class - fall back to reflection
+            }
+            this.getter = handle;
+        }
+
+        Object get(Object entity) throws Exception {
+            if (getter == null) {
+                return invokeMethod(entity, readMethod);
+            }
+            try {
+                return (Object) getter.invokeExact(entity);
+            } catch (Exception | Error e) {
+                LOG.warn("Failed to invoke method " + readMethod + " on " + entity + ". " + e, e);
+                throw e;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
 }
@@ -0,0 +1,321 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.utils.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches resources of one kind by namespace and name, keeping each one up to date with a watch.
+ * <p/>
+ * A resource is looked up and watched by the first caller that asks for it; other callers asking for the
+ * same resource wait for that caller, while callers asking for other resources carry on. A watched resource
+ * is kept until its watch is lost. If the watch cannot be opened, the resource is kept for
+ * <code>unwatchedTtl</code> milliseconds and is not watched again for <code>watchRetry</code> milliseconds.
+ * A resource nobody asks for during <code>idleTtl</code> milliseconds is dropped and its watch closed.
+ */
+public abstract class WatchedResourceCache<T extends HasMetadata> {
+    private static final transient Logger LOG = LoggerFactory.getLogger(WatchedResourceCache.class);
+
+    private final String kind;
+    private final boolean watch;
+    private final long unwatchedTtl;
+    private final long watchRetry;
+    private final long idleTtl;
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private volatile long nextEviction;
+    private volatile boolean closed;
+
+    /**
+     * @param kind         the kind of resource, for logging
+     * @param watch        false to only keep resources for <code>unwatchedTtl</code> milliseconds
+     * @param unwatchedTtl how long a resource that is not watched is kept
+     * @param watchRetry   how long to wait before watching a resource again after its watch could not be opened
+     * @param idleTtl      how long a resource is kept while nobody asks for it, 0 to keep it until its watch is lost
+     */
+    protected WatchedResourceCache(String kind, boolean watch, long unwatchedTtl, long watchRetry, long idleTtl) {
+        this.kind = kind;
+        this.watch = watch;
+        this.unwatchedTtl = unwatchedTtl;
+        this.watchRetry = watchRetry;
+        this.idleTtl = idleTtl;
+    }
+
+    /**
+     * Returns the resource or null if it does not exist
+     */
+    protected abstract T lookup(String namespace, String name);
+
+    /**
+     * Watches the resource
+     *
+     * @param resourceVersion the version to watch from, or null to watch from now
+     * @throws KubernetesClientException if the watch cannot be opened
+     */
+    protected abstract Watch watch(String namespace, String name, String resourceVersion, Watcher<T> watcher);
+
+    /**
+     * Returns the resource or null if it does not exist
+     */
+    public T get(String namespace, String name) {
+        return getEntry(namespace, name).getValue();
+    }
+
+    /**
+     * Returns the cached entry of the resource, looking the resource up if it is not cached
+     */
+    public Entry<T> getEntry(String namespace, String name) {
+        String key = namespace + "/" + name;
+        evictIdle(System.currentTimeMillis());
+        while (true) {
+            Entry<T> entry = entries.get(key);
+            if (entry != null && entry.awaitLoaded() && entry.isValid()) {
+                hits.incrementAndGet();
+                entry.lastUsed = System.currentTimeMillis();
+                return entry;
+            }
+            Entry<T> answer = new Entry<>(this, key, entry != null ? entry.watchRetryAt : 0);
+            if (entry == null ? entries.putIfAbsent(key, answer) == null : entries.replace(key, entry, answer)) {
+                if (entry != null) {
+                    entry.close();
+                }
+                load(namespace, name, answer);
+                return answer;
+            }
+            // another caller is looking the resource up, so wait for it instead
+        }
+    }
+
+    /**
+     * Forgets the resource, e.g. after it was changed through another client
+     */
+    public void invalidate(String namespace, String name) {
+        Entry<T> entry = entries.remove(namespace + "/" + name);
+        if (entry != null) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that went to the API server
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Returns the number of cached resources
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Closes the watches and empties the cache
+     */
+    public void close() {
+        closed = true;
+        for (Entry<T> entry : entries.values()) {
+            if (entries.remove(entry.key, entry)) {
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * Looks the resource up and watches it, without holding any lock
+     */
+    private void load(String namespace, String name, Entry<T> entry) {
+        try {
+            lookups.incrementAndGet();
+            T value = lookup(namespace, name);
+            entry.value = value;
+            long now = System.currentTimeMillis();
+            entry.loaded = now;
+            entry.lastUsed = now;
+            if (watch && !closed && now >= entry.watchRetryAt) {
+                String resourceVersion = value != null && value.getMetadata() != null ? value.getMetadata().getResourceVersion() : null;
+                if (Strings.isNullOrBlank(resourceVersion)) {
+                    resourceVersion = null;
+                }
+                try {
+                    // carry on from the version that was looked up, so no change in between is missed
+                    entry.watch = watch(namespace, name, resourceVersion, entry.watcher);
+                    entry.opened();
+                } catch (KubernetesClientException e) {
+                    // e.g. not allowed to watch
+                    LOG.debug("Could not watch " + kind + " " + entry.key + " due " + e.getMessage());
+                    entry.watchRetryAt = now + watchRetry;
+                }
+            }
+            if (closed && entries.remove(entry.key, entry)) {
+                entry.close();
+            }
+        } catch (RuntimeException e) {
+            entries.remove(entry.key, entry);
+            throw e;
+        } finally {
+            entry.latch.countDown();
+        }
+    }
+
+    private void evictIdle(long now) {
+        if (idleTtl <= 0 || now < nextEviction) {
+            return;
+        }
+        nextEviction = now + idleTtl / 2;
+        for (Entry<T> entry : entries.values()) {
+            if (entry.latch.getCount() == 0 && now - entry.lastUsed > idleTtl && entries.remove(entry.key, entry)) {
+                entry.close();
+            }
+        }
+    }
+
+    /**
+     * A cached resource, kept up to date by its watch
+     */
+    public static final class Entry<T extends HasMetadata> {
+        private final WatchedResourceCache<T> cache;
+        private final String key;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile T value;
+        private volatile long version;
+        private volatile long loaded;
+        private volatile long lastUsed;
+        private volatile long watchRetryAt;
+        private volatile Watch watch;
+        private volatile boolean opened;
+        private volatile boolean lost;
+        private final Watcher<T> watcher = new Watcher<T>() {
+            @Override
+            public void eventReceived(Action action, T resource) {
+                switch (action) {
+                case ADDED:
+                case MODIFIED:
+                    value = resource;
+                    version++;
+                    break;
+                case DELETED:
+                    value = null;
+                    version++;
+                    break;
+                default:
+                    invalidate();
+                    break;
+                }
+            }
+
+            @Override
+            public void onClose(KubernetesClientException cause) {
+                // a watch that cannot be opened is closed before it is returned, so it is only lost once opened
+                lost = true;
+                if (opened) {
+                    invalidate();
+                }
+            }
+        };
+
+        Entry(WatchedResourceCache<T> cache, String key, long watchRetryAt) {
+            this.cache = cache;
+            this.key = key;
+            this.watchRetryAt = watchRetryAt;
+        }
+
+        /**
+         * Returns the resource or null if it does not exist
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Returns a number that changes whenever the watch changes the resource or is lost
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns true while the resource is kept up to date by its watch
+         */
+        public boolean isWatching() {
+            return watch != null && !lost;
+        }
+
+        boolean isValid() {
+            return isWatching() || System.currentTimeMillis() < loaded + cache.unwatchedTtl;
+        }
+
+        boolean awaitLoaded() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return loaded > 0;
+        }
+
+        /**
+         * Called once the watch is returned, in case it was closed before
+         */
+        void opened() {
+            opened = true;
+            if (lost) {
+                invalidate();
+            }
+        }
+
+        private void invalidate() {
+            lost = true;
+            version++;
+            if (cache.entries.remove(key, this)) {
+                close();
+            }
+        }
+
+        void close() {
+            Watch w = watch;
+            if (w != null) {
+                watch = null;
+                try {
+                    w.close();
+                } catch (KubernetesClientException e) {
+                    LOG.debug("Failed to close the watch of " + cache.kind + " " + key + " due " + e.getMessage());
+                }
+            }
+        }
+    }
+}
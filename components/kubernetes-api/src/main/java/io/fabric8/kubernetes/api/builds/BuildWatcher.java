@@ -16,35 +16,85 @@
 package io.fabric8.kubernetes.api.builds;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.openshift.api.model.Build;
 import io.fabric8.openshift.api.model.BuildList;
 import io.fabric8.openshift.client.OpenShiftClient;
 import io.fabric8.utils.Strings;
+import io.fabric8.utils.Systems;
+import io.fabric8.utils.URLUtils;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import java.io.IOException;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
+/**
+ * Notifies a {@link BuildListener} once for every build that finishes.
+ * <p/>
+ * The builds can either be polled with {@link #schedule(long)}, which lists all the builds every time, or
+ * watched with {@link #watch()}, which lists them once - a page of fabric8.build.watcher.page.size builds at a
+ * time where the API server supports it - and then follows the changes from the version of that list.
+ * <p/>
+ * When watching, the UIDs of the finished builds are remembered until the builds are deleted - and, in case a
+ * deletion is missed, for at most fabric8.build.watcher.seen.ttl milliseconds and up to
+ * fabric8.build.watcher.seen.max of them; when polling, only those of the builds that are still listed are
+ * remembered. A lost watch is listed and watched again in the background, waiting from
+ * fabric8.build.watcher.rewatch.delay milliseconds up to a minute between attempts that fail.
+ */
 public class BuildWatcher {
+    public static final String PAGE_SIZE = "fabric8.build.watcher.page.size";
+    public static final String SEEN_MAX = "fabric8.build.watcher.seen.max";
+    public static final String SEEN_TTL = "fabric8.build.watcher.seen.ttl";
+    public static final String REWATCH_DELAY = "fabric8.build.watcher.rewatch.delay";
+
+    private static final long MAX_REWATCH_DELAY = 60 * 1000;
+
     private static final transient Logger LOG = LoggerFactory.getLogger(BuildWatcher.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectReader BUILD_READER = OBJECT_MAPPER.readerFor(Build.class);
 
     private final OpenShiftClient client;
     private final BuildListener buildListener;
     private final String namespace;
     private final String fabric8ConsoleLink;
-    private boolean loading = true;
-    private Set<String> seenBuildIds = Collections.<String>synchronizedSet(new HashSet<String>());
+    private final int pageSize;
+    private final int maxSeenBuilds;
+    private final long seenBuildTtl;
+    private final long rewatchDelay;
+    private volatile boolean loading = true;
+    private final Map<String, Long> seenBuildIds = new LinkedHashMap<>();
+    private final Object watchLock = new Object();
+    private Watch watch;
+    private Timer rewatchTimer;
+    private volatile boolean watching;
 
     public BuildWatcher(OpenShiftClient client, BuildListener buildListener, String namespace, String fabric8ConsoleLink) {
         this.client = client;
         this.buildListener = buildListener;
         this.namespace = namespace;
         this.fabric8ConsoleLink = fabric8ConsoleLink;
+        this.pageSize = Systems.getEnvVarOrSystemProperty(PAGE_SIZE, 500).intValue();
+        this.maxSeenBuilds = Systems.getEnvVarOrSystemProperty(SEEN_MAX, 10000).intValue();
+        this.seenBuildTtl = Systems.getEnvVarOrSystemProperty(SEEN_TTL, 24 * 60 * 60 * 1000).longValue();
+        this.rewatchDelay = Math.max(1, Systems.getEnvVarOrSystemProperty(REWATCH_DELAY, 1000).longValue());
     }
 
 
@@ -70,10 +120,16 @@ public class BuildWatcher {
         if (buildList != null) {
             List<Build> items = buildList.getItems();
             if (items != null) {
+                Set<String> listed = new HashSet<>();
                 for (Build build : items) {
                     buildPolled(build);
+                    listed.add(Builds.getUid(build));
                     foundBuild = true;
                 }
+                // a build that is no longer listed will not come back, so there is no need to remember it
+                synchronized (seenBuildIds) {
+                    seenBuildIds.keySet().retainAll(listed);
+                }
             }
         }
         if (foundBuild) {
@@ -81,15 +137,173 @@ public class BuildWatcher {
         }
     }
 
+    /**
+     * Lists the builds and then watches them for changes, until the returned watch is closed. If the watch
+     * is closed by the server the builds are listed and watched again, retrying until it works.
+     *
+     * @throws KubernetesClientException if the builds cannot be listed or watched
+     */
+    public Watch watch() {
+        synchronized (watchLock) {
+            watching = true;
+        }
+        try {
+            listAndWatch();
+        } catch (KubernetesClientException e) {
+            synchronized (watchLock) {
+                watching = false;
+            }
+            throw e;
+        }
+        return new Watch() {
+            @Override
+            public void close() {
+                synchronized (watchLock) {
+                    watching = false;
+                    if (watch != null) {
+                        watch.close();
+                        watch = null;
+                    }
+                    if (rewatchTimer != null) {
+                        rewatchTimer.cancel();
+                        rewatchTimer = null;
+                    }
+                }
+            }
+        };
+    }
+
+    private void listAndWatch() {
+        // a new list may include builds that were already notified but have since been forgotten
+        loading = true;
+        String resourceVersion = loadBuilds();
+        loading = false;
+        BuildsWatcher watcher = new BuildsWatcher();
+        Watch answer = watchBuilds(resourceVersion, watcher);
+        synchronized (watchLock) {
+            if (!watching) {
+                // closed while the builds were listed
+                answer.close();
+                return;
+            }
+            watch = answer;
+        }
+        // only now, so that the watch of a rewatch can not be replaced by this one
+        watcher.opened();
+    }
+
+    /**
+     * Watches the builds from the resource version of their list, or from now if it is blank
+     */
+    protected Watch watchBuilds(String resourceVersion, Watcher<Build> watcher) {
+        if (Strings.isNotBlank(resourceVersion)) {
+            return client.builds().inNamespace(namespace).watch(resourceVersion, watcher);
+        }
+        return client.builds().inNamespace(namespace).watch(watcher);
+    }
+
+    /**
+     * Lists and watches the builds again after the delay, on a timer thread rather than the one of the lost watch
+     */
+    private void scheduleRewatch(final long delay) {
+        synchronized (watchLock) {
+            if (!watching) {
+                return;
+            }
+            watch = null;
+            if (rewatchTimer == null) {
+                rewatchTimer = new Timer("BuildWatcher-" + namespace, true);
+            }
+            rewatchTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    rewatch(delay);
+                }
+            }, delay);
+        }
+    }
+
+    private void rewatch(long delay) {
+        if (!watching) {
+            return;
+        }
+        try {
+            listAndWatch();
+        } catch (KubernetesClientException e) {
+            long nextDelay = Math.min(delay * 2, MAX_REWATCH_DELAY);
+            LOG.warn("Failed to watch builds in namespace " + namespace + " due " + e.getMessage() + ". Retrying in " + nextDelay + " ms");
+            scheduleRewatch(nextDelay);
+        }
+    }
+
+    /**
+     * Notifies the listener of the finished builds a page at a time
+     *
+     * @return the resource version of the build list
+     */
+    protected String loadBuilds() {
+        if (!(client instanceof HttpClientAware)) {
+            BuildList buildList = client.builds().inNamespace(namespace).list();
+            if (buildList.getItems() != null) {
+                for (Build build : buildList.getItems()) {
+                    buildPolled(build);
+                }
+            }
+            return buildList.getMetadata() != null ? buildList.getMetadata().getResourceVersion() : null;
+        }
+
+        // the client does not support paging so lets request the pages directly
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+        String ns = Strings.isNotBlank(namespace) ? namespace : client.getNamespace();
+        String url = Strings.isNotBlank(ns)
+                ? URLUtils.pathJoin(client.getOpenshiftUrl().toString(), "namespaces", ns, "builds")
+                : URLUtils.pathJoin(client.getOpenshiftUrl().toString(), "builds");
+        String resourceVersion = null;
+        String continueToken = null;
+        do {
+            HttpUrl.Builder pageUrl = HttpUrl.parse(url).newBuilder().addQueryParameter("limit", Integer.toString(pageSize));
+            if (continueToken != null) {
+                pageUrl.addQueryParameter("continue", continueToken);
+            }
+            JsonNode page = getJson(httpClient, pageUrl.build());
+            JsonNode metadata = page.path("metadata");
+            if (resourceVersion == null) {
+                // all the pages are from the version of the first one
+                resourceVersion = metadata.path("resourceVersion").asText(null);
+            }
+            for (JsonNode item : page.path("items")) {
+                try {
+                    buildPolled(BUILD_READER.<Build>readValue(item));
+                } catch (IOException e) {
+                    LOG.warn("Ignoring build which cannot be parsed due " + e.getMessage());
+                }
+            }
+            continueToken = metadata.path("continue").asText(null);
+        } while (Strings.isNotBlank(continueToken));
+        return resourceVersion;
+    }
+
+    private static JsonNode getJson(OkHttpClient httpClient, HttpUrl url) {
+        Request request = new Request.Builder().get().url(url).build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new KubernetesClientException("Failed to list builds from " + url + " due HTTP " + response.code());
+            }
+            return OBJECT_MAPPER.readTree(response.body().byteStream());
+        } catch (IOException e) {
+            throw new KubernetesClientException("Failed to list builds from " + url + " due " + e.getMessage(), e);
+        }
+    }
+
     protected void buildPolled(Build build) {
-        String status = build.getStatus().getPhase();
+        String status = build.getStatus() != null ? build.getStatus().getPhase() : null;
         if (status != null) {
             if (Builds.isFinished(status)) {
                 String uid = Builds.getUid(build);
                 if (Strings.isNullOrBlank(uid)) {
                     LOG.warn("Ignoring bad build which has no UID: " + build);
                 } else {
-                    if (seenBuildIds.add(uid)) {
+                    if (addSeenBuild(uid)) {
                         String name = Builds.getName(build);
                         String buildLink = Builds.createConsoleBuildLink(this.fabric8ConsoleLink, name);
                         BuildFinishedEvent event = new BuildFinishedEvent(uid, build, loading, buildLink);
@@ -100,6 +314,102 @@ public class BuildWatcher {
         }
     }
 
+    /**
+     * Remembers the build, forgetting the oldest ones when there are too many or they are too old in case
+     * their deletion was missed
+     *
+     * @return true if the build had not been seen before
+     */
+    private boolean addSeenBuild(String uid) {
+        long now = System.currentTimeMillis();
+        synchronized (seenBuildIds) {
+            if (seenBuildIds.containsKey(uid)) {
+                return false;
+            }
+            // when polling, the builds that are no longer listed are forgotten instead
+            Iterator<Long> iterator = seenBuildIds.values().iterator();
+            while (watching && iterator.hasNext()) {
+                long seen = iterator.next();
+                if (seenBuildIds.size() < maxSeenBuilds && now - seen < seenBuildTtl) {
+                    break;
+                }
+                iterator.remove();
+            }
+            seenBuildIds.put(uid, now);
+            return true;
+        }
+    }
+
+    /**
+     * Forgets a deleted build
+     */
+    private void removeSeenBuild(String uid) {
+        if (Strings.isNotBlank(uid)) {
+            synchronized (seenBuildIds) {
+                seenBuildIds.remove(uid);
+            }
+        }
+    }
+
+    /**
+     * Notifies the finished builds and starts again if the watch is lost
+     */
+    private class BuildsWatcher implements Watcher<Build> {
+        // a watch that cannot be opened is closed straight away, which watch() reports to its caller
+        private boolean started;
+        // the watch was lost before it was started
+        private KubernetesClientException lostCause;
+
+        /**
+         * Starts handling the loss of the watch, which may already have happened while it was being opened
+         */
+        void opened() {
+            KubernetesClientException cause;
+            synchronized (this) {
+                started = true;
+                cause = lostCause;
+            }
+            if (cause != null) {
+                lost(cause);
+            }
+        }
+
+        @Override
+        public void eventReceived(Action action, Build build) {
+            switch (action) {
+            case ADDED:
+            case MODIFIED:
+                buildPolled(build);
+                break;
+            case DELETED:
+                removeSeenBuild(Builds.getUid(build));
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            if (cause == null) {
+                return;
+            }
+            synchronized (this) {
+                if (!started) {
+                    lostCause = cause;
+                    return;
+                }
+            }
+            lost(cause);
+        }
+
+        private void lost(KubernetesClientException cause) {
+            // e.g. the version we watched from is too old, so start again from a new list
+            LOG.warn("Watch of builds in namespace " + namespace + " closed due " + cause.getMessage());
+            scheduleRewatch(rewatchDelay);
+        }
+    }
+
     /**
      * Waits until this watcher is finished (which by default is forever)
      */
@@ -16,9 +16,9 @@
  */
 package io.fabric8.kubernetes.api.environments;
 
+import io.fabric8.kubernetes.api.ConfigMapCache;
 import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.ConfigMap;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.utils.Strings;
 import org.slf4j.Logger;
@@ -52,15 +52,31 @@ public class Environments {
 
 
     public static Environments load() {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            String namespace = findSpaceNamespace(kubernetesClient);
-            return load(kubernetesClient, namespace);
-        }
+        ConfigMapCache cache = ConfigMapCache.getDefault();
+        String namespace = findSpaceNamespace(cache, KubernetesHelper.getNamespace(cache.getClient()));
+        return load(cache, namespace);
     }
+
     public static Environments load(String namespace) {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            return load(kubernetesClient, namespace);
+        return load(ConfigMapCache.getDefault(), namespace);
+    }
+
+    /**
+     * Loads the environments using the ConfigMaps in the cache, so repeated calls do not go to the API server
+     * until the ConfigMaps change
+     */
+    public static Environments load(ConfigMapCache cache, String namespace) {
+        namespace = getDefaultNamespace(cache.getClient(), namespace);
+        LOG.debug("Loading environments from namespace: " + namespace);
+        ConfigMap configMap = cache.get(namespace, ENVIRONMENTS_CONFIGMAP_NAME);
+        if (configMap == null) {
+            String spaceNamespace = findSpaceNamespace(cache, namespace);
+            if (Strings.isNotBlank(spaceNamespace) && !spaceNamespace.equals(namespace)) {
+                namespace = spaceNamespace;
+                configMap = cache.get(spaceNamespace, ENVIRONMENTS_CONFIGMAP_NAME);
+            }
         }
+        return load(configMap, namespace);
     }
 
     public static Environments load(KubernetesClient kubernetesClient, String namespace) {
@@ -92,21 +108,40 @@ public class Environments {
      * @return the space namespace containing the fabric8-environments ConfigMap or returns namespace if another namespace can be found
      */
     public static String findSpaceNamespace(KubernetesClient kubernetesClient, String namespace) {
+        ConfigMap configMap = null;
         try {
-            ConfigMap configMap = kubernetesClient.configMaps().inNamespace(namespace).withName(SPACE_LINK_CONFIGMAP_NAME).get();
-            if (configMap != null) {
-                Map<String, String> data = configMap.getData();
-                if (data != null) {
-                    String answer = data.get("space");
-                    if (Strings.isNotBlank(answer)) {
-                        return answer;
-                    }
+            configMap = kubernetesClient.configMaps().inNamespace(namespace).withName(SPACE_LINK_CONFIGMAP_NAME).get();
+        } catch (Exception e) {
+            LOG.warn("Failed to lookup Space Link ConfigMap " + namespace + "/" + SPACE_LINK_CONFIGMAP_NAME + ". " + e, e);
+        }
+        return findSpaceNamespace(configMap, namespace);
+    }
 
-                }
-            }
+    /**
+     * Tries to find the current space namespace from the current namespace using the ConfigMaps in the cache
+     *
+     * @return the space namespace containing the fabric8-environments ConfigMap or returns namespace if another namespace can be found
+     */
+    public static String findSpaceNamespace(ConfigMapCache cache, String namespace) {
+        ConfigMap configMap = null;
+        try {
+            configMap = cache.get(namespace, SPACE_LINK_CONFIGMAP_NAME);
         } catch (Exception e) {
             LOG.warn("Failed to lookup Space Link ConfigMap " + namespace + "/" + SPACE_LINK_CONFIGMAP_NAME + ". " + e, e);
         }
+        return findSpaceNamespace(configMap, namespace);
+    }
+
+    private static String findSpaceNamespace(ConfigMap spaceLink, String namespace) {
+        if (spaceLink != null) {
+            Map<String, String> data = spaceLink.getData();
+            if (data != null) {
+                String answer = data.get("space");
+                if (Strings.isNotBlank(answer)) {
+                    return answer;
+                }
+            }
+        }
 
         // lets try guess the namespace by stripping the suffix such as '-run', '-che', '-jenkins', '-test', '-prod' etc
         int idx = namespace.lastIndexOf('-');
@@ -120,26 +155,32 @@ public class Environments {
      * Returns the namespace for the given environment name
      */
     public static String namespaceForEnvironment(String environmentKey) {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            String namespace = KubernetesHelper.getNamespace(kubernetesClient);
-            return namespaceForEnvironment(kubernetesClient, environmentKey, namespace);
-        }
+        ConfigMapCache cache = ConfigMapCache.getDefault();
+        return namespaceForEnvironment(cache, environmentKey, KubernetesHelper.getNamespace(cache.getClient()));
     }
 
     /**
      * Returns the namespace for the given environment name if its defined or null if one cannot be found
      */
     public static String namespaceForEnvironment(String environmentKey, String namespace) {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            return namespaceForEnvironment(kubernetesClient, environmentKey, namespace);
-        }
+        return namespaceForEnvironment(ConfigMapCache.getDefault(), environmentKey, namespace);
+    }
+
+    /**
+     * Returns the namespace for the given environment name if its defined or null if one cannot be found
+     */
+    public static String namespaceForEnvironment(ConfigMapCache cache, String environmentKey, String namespace) {
+        return namespaceForEnvironment(Environments.load(cache, namespace), environmentKey);
     }
 
     /**
      * Returns the namespace for the given environment name if its defined or null if one cannot be found
      */
     public static String namespaceForEnvironment(KubernetesClient kubernetesClient, String environmentKey, String namespace) {
-        Environments environments = Environments.load(kubernetesClient, namespace);
+        return namespaceForEnvironment(Environments.load(kubernetesClient, namespace), environmentKey);
+    }
+
+    private static String namespaceForEnvironment(Environments environments, String environmentKey) {
         Environment environment = environments.getEnvironment(environmentKey);
         if (environment == null) {
             environment = environments.getEnvironment(environmentKey.toLowerCase());
@@ -0,0 +1,175 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api.extensions;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.fabric8.openshift.api.model.Parameter;
+import io.fabric8.utils.Strings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the <code>${NAME}</code> references to the parameters of a template.
+ * <p/>
+ * The parameter values are resolved once up front - references from one value to another are followed
+ * to any depth and a cycle is reported as an error - and the objects are then processed in a single pass
+ * over their JSON tokens, substituting only inside strings and field names. References to names that are
+ * not parameters are left as they are.
+ */
+public class TemplateProcessor {
+
+    private final Map<String, String> values;
+    private final Map<String, String> substituted = new HashMap<>();
+
+    /**
+     * @throws IllegalArgumentException if failOnMissingParameterValue and a parameter has no value, or if
+     *                                  the values of some parameters refer to each other in a cycle
+     */
+    public TemplateProcessor(List<Parameter> parameters, boolean failOnMissingParameterValue) {
+        Map<String, String> rawValues = new LinkedHashMap<>();
+        for (Parameter parameter : parameters) {
+            String name = parameter.getName();
+            String value = parameter.getValue();
+
+            // TODO generate random strings for passwords etc!
+            if (Strings.isNullOrBlank(value)) {
+                if (failOnMissingParameterValue) {
+                    throw new IllegalArgumentException("No value available for parameter name: " + name);
+                } else {
+                    value = "";
+                }
+            }
+            if (name != null && !rawValues.containsKey(name)) {
+                rawValues.put(name, value);
+            }
+        }
+
+        this.values = new HashMap<>();
+        for (String name : rawValues.keySet()) {
+            resolve(name, rawValues, new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Writes the value to a token buffer, replacing the parameter references in every string as it goes
+     */
+    public TokenBuffer process(ObjectMapper mapper, Object value) throws IOException {
+        TokenBuffer source = new TokenBuffer(mapper, false);
+        mapper.writeValue(source, value);
+        return process(mapper, source);
+    }
+
+    /**
+     * Copies the tokens of the buffer, replacing the parameter references in every string as it goes
+     */
+    public TokenBuffer process(ObjectMapper mapper, TokenBuffer source) throws IOException {
+        TokenBuffer target = new TokenBuffer(mapper, false);
+        try (JsonParser parser = source.asParser(mapper)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME) {
+                    target.writeFieldName(substitute(parser.getCurrentName()));
+                } else if (token == JsonToken.VALUE_STRING) {
+                    target.writeString(substitute(parser.getText()));
+                } else {
+                    target.copyCurrentEvent(parser);
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @return the text with the parameter references replaced by their values
+     */
+    public String substitute(String text) {
+        if (text == null || text.indexOf("${") < 0) {
+            return text;
+        }
+        // the same label or image often appears many times
+        String answer = substituted.get(text);
+        if (answer == null) {
+            answer = substitute(text, values, null, null);
+            substituted.put(text, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * @return the resolved values of the parameters
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    private String resolve(String name, Map<String, String> rawValues, List<String> resolving) {
+        String value = values.get(name);
+        if (value != null) {
+            return value;
+        }
+        if (resolving.contains(name)) {
+            StringBuilder cycle = new StringBuilder();
+            for (String step : resolving.subList(resolving.indexOf(name), resolving.size())) {
+                cycle.append(step).append(" -> ");
+            }
+            throw new IllegalArgumentException("Template parameters refer to each other in a cycle: " + cycle + name);
+        }
+        resolving.add(name);
+        value = substitute(rawValues.get(name), rawValues, resolving, this);
+        resolving.remove(resolving.size() - 1);
+        values.put(name, value);
+        return value;
+    }
+
+    /**
+     * Replaces the references in one scan of the text. While the parameter values are being resolved,
+     * references are resolved through the processor, otherwise they are looked up in the given values.
+     */
+    private static String substitute(String text, Map<String, String> values, List<String> resolving, TemplateProcessor processor) {
+        int start = text.indexOf("${");
+        if (start < 0) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length() + 32);
+        int position = 0;
+        while (start >= 0) {
+            int end = text.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            String name = text.substring(start + 2, end);
+            if (values.containsKey(name)) {
+                builder.append(text, position, start);
+                builder.append(processor != null ? processor.resolve(name, values, resolving) : values.get(name));
+                position = end + 1;
+                start = text.indexOf("${", position);
+            } else {
+                // not a parameter, so leave it as it is
+                start = text.indexOf("${", start + 2);
+            }
+        }
+        builder.append(text, position, text.length());
+        return builder.toString();
+    }
+}
@@ -15,7 +15,9 @@
  */
 package io.fabric8.kubernetes.api.extensions;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.KubernetesList;
@@ -196,31 +198,18 @@ public class Templates {
         }
         List<Parameter> parameters = entity != null ? entity.getParameters() : null;
         if (parameters != null && !parameters.isEmpty()) {
-            String json = "{\"kind\": \"List\", \"apiVersion\": \"" +
-                    KubernetesHelper.defaultApiVersion + "\",\n" +
-                    "  \"items\": " +
-                    KubernetesHelper.toJson(objects) +
-                    " }";
-
-            // lets make a few passes in case there's expressions in values
-            for (int i = 0; i < 5; i++) {
-                for (Parameter parameter : parameters) {
-                    String name = parameter.getName();
-                    String regex = "${" + name + "}";
-                    String value = parameter.getValue();
-
-                    // TODO generate random strings for passwords etc!
-                    if (Strings.isNullOrBlank(value)) {
-                        if (failOnMissingParameterValue) {
-                            throw new IllegalArgumentException("No value available for parameter name: " + name);
-                        } else {
-                            value = "";
-                        }
-                    }
-                    json = Strings.replaceAllWithoutRegex(json, regex, value);
-                }
+            TemplateProcessor processor = new TemplateProcessor(parameters, failOnMissingParameterValue);
+            TokenBuffer list = new TokenBuffer(OBJECT_MAPPER, false);
+            list.writeStartObject();
+            list.writeStringField("kind", "List");
+            list.writeStringField("apiVersion", KubernetesHelper.defaultApiVersion);
+            list.writeFieldName("items");
+            OBJECT_MAPPER.writeValue(list, objects);
+            list.writeEndObject();
+
+            try (JsonParser parser = processor.process(OBJECT_MAPPER, list).asParser(OBJECT_MAPPER)) {
+                return OBJECT_MAPPER.readerFor(KubernetesList.class).readValue(parser);
             }
-            return  OBJECT_MAPPER.readerFor(KubernetesList.class).readValue(json);
         } else {
             KubernetesList answer = new KubernetesList();
             answer.setItems(objects);
@@ -17,10 +17,10 @@
 package io.fabric8.kubernetes.api.pipelines;
 
 
+import io.fabric8.kubernetes.api.ConfigMapCache;
 import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.ConfigMap;
 import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.utils.Strings;
 import org.slf4j.Logger;
@@ -156,17 +156,22 @@ public class PipelineConfiguration {
     }
 
     public static PipelineConfiguration loadPipelineConfiguration() {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            String namespace = findSpaceNamespace(kubernetesClient);
-            return loadPipelineConfiguration(kubernetesClient, namespace);
-        }
+        ConfigMapCache cache = ConfigMapCache.getDefault();
+        String namespace = findSpaceNamespace(cache, KubernetesHelper.getNamespace(cache.getClient()));
+        return loadPipelineConfiguration(cache, namespace);
     }
 
 
     public static PipelineConfiguration loadPipelineConfiguration(String namespace) {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            return loadPipelineConfiguration(kubernetesClient, namespace);
-        }
+        return loadPipelineConfiguration(ConfigMapCache.getDefault(), namespace);
+    }
+
+    /**
+     * Loads the pipeline configuration using the ConfigMap in the cache if it is present. Otherwise a default
+     * configuration is loaded.
+     */
+    public static PipelineConfiguration loadPipelineConfiguration(ConfigMapCache cache, String namespace) {
+        return loadPipelineConfiguration(cache.get(namespace, FABRIC8_PIPELINES), namespace);
     }
 
     /**
@@ -175,6 +180,10 @@ public class PipelineConfiguration {
      */
     public static PipelineConfiguration loadPipelineConfiguration(KubernetesClient kubernetesClient, String namespace) {
         ConfigMap configMap = kubernetesClient.configMaps().inNamespace(namespace).withName(FABRIC8_PIPELINES).get();
+        return loadPipelineConfiguration(configMap, namespace);
+    }
+
+    private static PipelineConfiguration loadPipelineConfiguration(ConfigMap configMap, String namespace) {
         PipelineConfiguration configuration;
         if (configMap != null) {
             configuration = getPipelineConfiguration(configMap);
@@ -233,9 +242,10 @@ public class PipelineConfiguration {
     }
 
     public static PipelineConfiguration getPipelineConfiguration(ConfigMap configMap) {
-        Map<String, String> data = configMap.getData();
-        if (data == null) {
-            data = new HashMap<>();
+        // copy the data as the ConfigMap may be shared by a ConfigMapCache
+        Map<String, String> data = new HashMap<>();
+        if (configMap.getData() != null) {
+            data.putAll(configMap.getData());
         }
         return new PipelineConfiguration(data);
     }
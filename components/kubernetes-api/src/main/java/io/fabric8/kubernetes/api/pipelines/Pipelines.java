@@ -16,8 +16,8 @@
  */
 package io.fabric8.kubernetes.api.pipelines;
 
+import io.fabric8.kubernetes.api.ConfigMapCache;
 import io.fabric8.kubernetes.api.KubernetesHelper;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.utils.Strings;
 import org.slf4j.Logger;
@@ -44,10 +44,9 @@ public class Pipelines {
      * so that this function can properly detect if a build should be a <code>CD</code> build or not!
      */
     public static Pipeline getPipeline(Map<String, String> jobEnvironment) throws IntrospectionException {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            String namespace = findSpaceNamespace(kubernetesClient);
-            return getPipeline(kubernetesClient, namespace, jobEnvironment);
-        }
+        ConfigMapCache cache = ConfigMapCache.getDefault();
+        String namespace = findSpaceNamespace(cache, KubernetesHelper.getNamespace(cache.getClient()));
+        return getPipeline(cache, namespace, jobEnvironment);
     }
     /**
      * Looks up the pipeline kind based on the configuration in the given kubernetes namespace.
@@ -56,9 +55,7 @@ public class Pipelines {
      * so that this function can properly detect if a build should be a <code>CD</code> build or not!
      */
     public static Pipeline getPipeline(String namespace, Map<String, String> jobEnvironment) throws IntrospectionException {
-        try (KubernetesClient kubernetesClient = new DefaultKubernetesClient()) {
-            return getPipeline(kubernetesClient, namespace, jobEnvironment);
-        }
+        return getPipeline(ConfigMapCache.getDefault(), namespace, jobEnvironment);
     }
 
     /**
@@ -68,6 +65,31 @@ public class Pipelines {
      * so that this function can properly detect if a build should be a <code>CD</code> build or not!
      */
     public static Pipeline getPipeline(KubernetesClient kubernetesClient, String namespace, Map<String, String> jobEnvironment) throws IntrospectionException {
+        Pipeline pipeline = getPipelineFromEnvironment(jobEnvironment);
+        if (pipeline == null) {
+            PipelineConfiguration configuration = PipelineConfiguration.loadPipelineConfiguration(kubernetesClient, namespace);
+            pipeline = updateEnvironment(jobEnvironment, configuration.getPipeline(jobEnvironment));
+        }
+        return pipeline;
+    }
+
+    /**
+     * Looks up the pipeline kind based on the configuration in the given kubernetes namespace, using the
+     * ConfigMap in the cache.
+     * <p>
+     * <b>NOTE</b> that you should pass in the <code>BRANCH_NAME</code> and <code>GIT_URL</code> environment variables
+     * so that this function can properly detect if a build should be a <code>CD</code> build or not!
+     */
+    public static Pipeline getPipeline(ConfigMapCache cache, String namespace, Map<String, String> jobEnvironment) throws IntrospectionException {
+        Pipeline pipeline = getPipelineFromEnvironment(jobEnvironment);
+        if (pipeline == null) {
+            PipelineConfiguration configuration = PipelineConfiguration.loadPipelineConfiguration(cache, namespace);
+            pipeline = updateEnvironment(jobEnvironment, configuration.getPipeline(jobEnvironment));
+        }
+        return pipeline;
+    }
+
+    private static Pipeline getPipelineFromEnvironment(Map<String, String> jobEnvironment) {
         String kind = jobEnvironment.get(PIPELINE_KIND);
         String jobName = jobEnvironment.get(JOB_NAME);
         if (Strings.isNotBlank(jobName) && Strings.isNotBlank(kind)) {
@@ -79,9 +101,10 @@ public class Pipelines {
                         " which is not a valid value. Available values are: " + Arrays.asList(PipelineKind.values()) + ". " + e, e);
             }
         }
-        PipelineConfiguration configuration = PipelineConfiguration.loadPipelineConfiguration(kubernetesClient, namespace);
-        Pipeline pipeline = configuration.getPipeline(jobEnvironment);
+        return null;
+    }
 
+    private static Pipeline updateEnvironment(Map<String, String> jobEnvironment, Pipeline pipeline) {
         // lets update the environment with the new pipeline so we can avoid querying the ConfigMap next time we try create this object
         jobEnvironment.put(PIPELINE_KIND, pipeline.getKind().toString());
         return pipeline;
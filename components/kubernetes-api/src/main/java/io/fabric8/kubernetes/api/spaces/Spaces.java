@@ -16,6 +16,7 @@
  */
 package io.fabric8.kubernetes.api.spaces;
 
+import io.fabric8.kubernetes.api.ConfigMapCache;
 import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.api.model.ConfigMap;
 import io.fabric8.kubernetes.client.KubernetesClient;
@@ -49,6 +50,20 @@ public class Spaces {
         return load(configMap);
     }
 
+    public static Spaces load(String namespace) {
+        return load(ConfigMapCache.getDefault(), namespace);
+    }
+
+    /**
+     * Loads the spaces using the ConfigMap in the cache, so repeated calls do not go to the API server
+     * until the ConfigMap changes
+     */
+    public static Spaces load(ConfigMapCache cache, String namespace) {
+        namespace = getDefaultNamespace(cache.getClient(), namespace);
+        LOG.debug("Loading spaces from namespace: " + namespace);
+        return load(cache.get(namespace, FABRIC8_SPACES));
+    }
+
 
     protected static String getDefaultNamespace(KubernetesClient kubernetesClient, String namespace) {
         if (Strings.isNullOrBlank(namespace)) {
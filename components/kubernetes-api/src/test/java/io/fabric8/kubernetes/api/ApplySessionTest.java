@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.ConfigMapListBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.mockwebserver.DefaultMockServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ApplySessionTest {
+
+    private DefaultMockServer server;
+    private KubernetesClient client;
+
+    @Before
+    public void setUp() {
+        server = new DefaultMockServer();
+        server.start();
+        client = new DefaultKubernetesClient(new ConfigBuilder().withMasterUrl(server.url("/")).withNamespace("test").build());
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testExistingEntitiesServedFromList() {
+        ConfigMap cm1 = configMap("cm1");
+        ConfigMap cm2 = configMap("cm2");
+        ConfigMap cm3 = configMap("cm3");
+        ConfigMap cm4 = configMap("cm4");
+        Secret secret = new SecretBuilder().withNewMetadata().withName("secret").endMetadata().build();
+        List<HasMetadata> entities = Arrays.<HasMetadata>asList(cm1, cm2, cm3, cm4, secret);
+
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps")
+            .andReturn(200, new ConfigMapListBuilder().withItems(cm1, cm2, cm3).build()).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/secrets/secret").andReturn(200, secret).once();
+
+        ApplySession session = new ApplySession(entities);
+        assertNotNull(session.getExisting(cm1, "test", "cm1", client.configMaps()));
+        assertNotNull(session.getExisting(cm2, "test", "cm2", client.configMaps()));
+        assertNotNull(session.getExisting(cm3, "test", "cm3", client.configMaps()));
+        // not in the list, so it is fetched - and the mock server doesn't have it either
+        assertNull(session.getExisting(cm4, "test", "cm4", client.configMaps()));
+        // the only secret is fetched on its own
+        assertNotNull(session.getExisting(secret, "test", "secret", client.secrets()));
+
+        assertEquals(1, session.getListCalls());
+        assertEquals(3, session.getHits());
+        assertEquals(2, session.getGetCalls());
+        assertEquals(2, session.getApiCallsSaved());
+    }
+
+    private static ConfigMap configMap(String name) {
+        return new ConfigMapBuilder().withNewMetadata().withName(name).withNamespace("test").endMetadata().addToData("key", name).build();
+    }
+}
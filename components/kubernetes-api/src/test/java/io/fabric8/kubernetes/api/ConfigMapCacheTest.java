@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.environments.Environments;
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ConfigMapCacheTest {
+
+    private KubernetesMockServer server;
+    private KubernetesClient client;
+    private ConfigMapCache cache;
+
+    @Before
+    public void setUp() {
+        server = new KubernetesMockServer(false);
+        server.init();
+        client = server.createClient();
+        cache = new ConfigMapCache(client);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(ConfigMapCache.CACHE_TTL);
+        System.clearProperty(ConfigMapCache.CACHE_RETRY);
+        System.clearProperty(Config.KUBERNETES_MASTER_SYSTEM_PROPERTY);
+        System.clearProperty(Config.KUBERNETES_NAMESPACE_SYSTEM_PROPERTY);
+        ConfigMapCache.closeDefault();
+        cache.close();
+        client.close();
+        server.destroy();
+    }
+
+    @Test
+    public void testEnvironmentsFollowTheWatch() throws Exception {
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps/fabric8-environments")
+                .andReturn(200, environments("1", "test-staging")).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps?fieldSelector=metadata.name%3Dfabric8-environments&resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(500).andEmit(new WatchEvent(environments("2", "test-stage"), "MODIFIED"))
+                .done().once();
+
+        assertEquals("test-staging", Environments.namespaceForEnvironment(cache, "staging", "test"));
+        assertEquals("test-staging", Environments.namespaceForEnvironment(cache, "Staging", "test"));
+
+        String namespace = null;
+        for (int i = 0; i < 50 && !"test-stage".equals(namespace); i++) {
+            Thread.sleep(100);
+            namespace = Environments.namespaceForEnvironment(cache, "staging", "test");
+        }
+        assertEquals("test-stage", namespace);
+        assertEquals(1, cache.getLookups());
+    }
+
+    @Test
+    public void testWatchIsRetriedAfterTheRetryInterval() throws Exception {
+        System.setProperty(ConfigMapCache.CACHE_TTL, "100");
+        System.setProperty(ConfigMapCache.CACHE_RETRY, "60000");
+        cache.close();
+        cache = new ConfigMapCache(client);
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps/fabric8-environments")
+                .andReturn(200, environments("1", "test-staging")).times(2);
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps?fieldSelector=metadata.name%3Dfabric8-environments&resourceVersion=1&watch=true")
+                .andReturn(403, "").once();
+
+        assertEquals("test-staging", Environments.namespaceForEnvironment(cache, "staging", "test"));
+        assertEquals(2, server.getRequestCount());
+        Thread.sleep(200);
+        // looked up again once the ttl has passed, but not watched again before the retry interval
+        assertEquals("test-staging", Environments.namespaceForEnvironment(cache, "staging", "test"));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, cache.getLookups());
+    }
+
+    @Test
+    public void testDefaultCacheIsNotWatched() {
+        System.setProperty(Config.KUBERNETES_MASTER_SYSTEM_PROPERTY, client.getMasterUrl().toString());
+        System.setProperty(Config.KUBERNETES_NAMESPACE_SYSTEM_PROPERTY, "test");
+        server.expect().get().withPath("/api/v1/namespaces/test/configmaps/fabric8-environments")
+                .andReturn(200, environments("1", "test-staging")).once();
+
+        // a watch would keep the JVM alive, as nothing closes the shared cache
+        ConfigMapCache defaultCache = ConfigMapCache.getDefault();
+        assertEquals("test-staging", Environments.namespaceForEnvironment(defaultCache, "staging", "test"));
+        assertEquals("test-staging", Environments.namespaceForEnvironment(defaultCache, "staging", "test"));
+        assertFalse(defaultCache.getEntry("test", "fabric8-environments").isWatching());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private static ConfigMap environments(String resourceVersion, String stagingNamespace) {
+        return new ConfigMapBuilder()
+                .withNewMetadata().withName("fabric8-environments").withNamespace("test").withResourceVersion(resourceVersion).endMetadata()
+                .addToData("staging", "name: Staging\nnamespace: " + stagingNamespace + "\norder: 1\n")
+                .build();
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.ReplicationControllerBuilder;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ControllerApplyListTest {
+
+    private final List<HasMetadata> applied = Collections.synchronizedList(new ArrayList<HasMetadata>());
+    private List<HasMetadata> entities;
+
+    @Before
+    public void setUp() {
+        entities = Arrays.asList(
+            new ReplicationControllerBuilder().withNewMetadata().withName("rc").endMetadata().build(),
+            new ServiceBuilder().withNewMetadata().withName("svc1").endMetadata().build(),
+            new SecretBuilder().withNewMetadata().withName("secret").endMetadata().build(),
+            new NamespaceBuilder().withNewMetadata().withName("ns").endMetadata().build(),
+            new ConfigMapBuilder().withNewMetadata().withName("config").endMetadata().build(),
+            new ServiceBuilder().withNewMetadata().withName("svc2").endMetadata().build());
+    }
+
+    @Test
+    public void testApplyListInTiers() throws Exception {
+        Controller controller = new RecordingController(null);
+        controller.setApplyParallelism(4);
+        controller.applyList(new KubernetesList(null, entities, null, null), "test");
+
+        assertEquals(entities.size(), applied.size());
+        int lastTier = -1;
+        for (HasMetadata entity : applied) {
+            int tier = Controller.getApplyTier(entity);
+            assertTrue("Applied " + KubernetesHelper.getName(entity) + " out of order: " + applied, tier >= lastTier);
+            lastTier = tier;
+        }
+    }
+
+    @Test
+    public void testFailureSkipsLaterTiers() throws Exception {
+        Controller controller = new RecordingController("secret");
+        controller.setApplyParallelism(4);
+
+        List<Controller.ApplyResult> results = controller.applyEntities(entities, "test");
+        assertEquals(entities.size(), results.size());
+        for (int i = 0; i < entities.size(); i++) {
+            assertEquals(entities.get(i), results.get(i).getEntity());
+        }
+        assertTrue(results.get(3).isApplied());
+        assertTrue(results.get(4).isApplied());
+        assertFalse(results.get(2).isApplied());
+        assertTrue(results.get(2).getError() instanceof IllegalStateException);
+        // services and controllers are not applied once a secret failed
+        for (int i : new int[]{0, 1, 5}) {
+            assertFalse(results.get(i).isApplied());
+            assertNull(results.get(i).getError());
+        }
+
+        try {
+            controller.applyList(new KubernetesList(null, entities, null, null), "test");
+            fail("Should have thrown the failure");
+        } catch (IllegalStateException e) {
+            assertEquals("secret", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSharedNamespaceIsCreatedOnce() throws Exception {
+        List<HasMetadata> inNamespace = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            inNamespace.add(new ReplicationControllerBuilder().withNewMetadata().withName("rc" + i).withNamespace("shared").endMetadata().build());
+        }
+        NamespaceController controller = new NamespaceController();
+        controller.setApplyParallelism(4);
+        controller.applyList(new KubernetesList(null, inNamespace, null, null), "test");
+
+        assertEquals(inNamespace.size(), applied.size());
+        assertEquals(Collections.singletonList("shared"), controller.created);
+    }
+
+    @Test
+    public void testNestedListKeepsTheNamespacesOfTheOuterOne() throws Exception {
+        List<HasMetadata> outer = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            outer.add(new ReplicationControllerBuilder().withNewMetadata().withName("rc" + i).withNamespace("shared").endMetadata().build());
+        }
+        // applied as a list of its own, like the objects of a template
+        outer.add(new ReplicationControllerBuilder().withNewMetadata().withName("nested").withNamespace("shared").endMetadata().build());
+        for (int i = 4; i < 8; i++) {
+            outer.add(new ReplicationControllerBuilder().withNewMetadata().withName("rc" + i).withNamespace("shared").endMetadata().build());
+        }
+        NamespaceController controller = new NamespaceController();
+        controller.setApplyParallelism(4);
+        controller.applyList(new KubernetesList(null, outer, null, null), "test");
+
+        assertEquals(outer.size() - 1 + 2, applied.size());
+        assertEquals(Collections.singletonList("shared"), controller.created);
+        // the nested list did not end the outer one, so the namespace was only checked once
+        assertEquals(1, controller.checks.get());
+
+        // a new list checks it again
+        controller.applyList(new KubernetesList(null, outer.subList(0, 2), null, null), "test");
+        assertEquals(2, controller.checks.get());
+    }
+
+    private class RecordingController extends Controller {
+        private final String failing;
+
+        RecordingController(String failing) {
+            super(new DefaultKubernetesClient());
+            this.failing = failing;
+        }
+
+        @Override
+        public void applyEntity(Object dto, String sourceName) throws Exception {
+            HasMetadata entity = (HasMetadata) dto;
+            if (KubernetesHelper.getName(entity).equals(failing)) {
+                throw new IllegalStateException(failing);
+            }
+            applied.add(entity);
+        }
+    }
+
+    /**
+     * Makes sure the namespace of each entity exists, like applyBuildConfig does, with a namespace that can
+     * only be created once
+     */
+    private class NamespaceController extends Controller {
+        private final Set<String> existing = Collections.synchronizedSet(new HashSet<String>());
+        private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger checks = new AtomicInteger();
+
+        NamespaceController() {
+            super(new DefaultKubernetesClient());
+        }
+
+        @Override
+        public OpenShiftClient getOpenShiftClientOrNull() {
+            return null;
+        }
+
+        @Override
+        public void applyEntity(Object dto, String sourceName) throws Exception {
+            HasMetadata entity = (HasMetadata) dto;
+            if ("nested".equals(KubernetesHelper.getName(entity))) {
+                List<HasMetadata> nested = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    nested.add(new ReplicationControllerBuilder().withNewMetadata().withName("nested" + i).withNamespace("shared").endMetadata().build());
+                }
+                applyList(new KubernetesList(null, nested, null, null), sourceName);
+                return;
+            }
+            applyNamespace(KubernetesHelper.getNamespace(entity));
+            applied.add(entity);
+        }
+
+        @Override
+        public boolean applyNamespace(Namespace entity) {
+            String name = KubernetesHelper.getName(entity);
+            checks.incrementAndGet();
+            if (existing.contains(name)) {
+                return false;
+            }
+            try {
+                // leaves time for another entity to check the namespace too
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!existing.add(name)) {
+                throw new IllegalStateException("Namespace " + name + " already exists");
+            }
+            created.add(name);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.extensions.TemplateProcessor;
+import io.fabric8.kubernetes.api.extensions.Templates;
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.openshift.api.model.Parameter;
+import io.fabric8.openshift.api.model.Template;
+import io.fabric8.openshift.api.model.TemplateBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TemplateProcessorTest {
+
+    @Test
+    public void testSubstitute() {
+        TemplateProcessor processor = new TemplateProcessor(Arrays.asList(
+                parameter("HOST", "${NAME}.${DOMAIN}"),
+                parameter("NAME", "jenkins"),
+                parameter("DOMAIN", "${ZONE}.example.com"),
+                parameter("ZONE", "eu")), true);
+
+        assertEquals("jenkins.eu.example.com", processor.getValues().get("HOST"));
+        assertEquals("http://jenkins.eu.example.com:8080/", processor.substitute("http://${HOST}:8080/"));
+        assertEquals("${UNKNOWN}-jenkins-${", processor.substitute("${UNKNOWN}-${NAME}-${"));
+        assertEquals("no references", processor.substitute("no references"));
+    }
+
+    @Test
+    public void testCycle() {
+        try {
+            new TemplateProcessor(Arrays.asList(
+                    parameter("A", "${B}"),
+                    parameter("B", "x${C}"),
+                    parameter("C", "${A}")), false);
+            fail("Expected the cycle to be reported");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("A -> B -> C -> A"));
+        }
+    }
+
+    @Test
+    public void testMissingValue() {
+        try {
+            new TemplateProcessor(Collections.singletonList(parameter("A", "")), true);
+            fail("Expected the missing value to be reported");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No value available for parameter name: A", e.getMessage());
+        }
+        assertEquals("[]", new TemplateProcessor(Collections.singletonList(parameter("A", "")), false).substitute("[${A}]"));
+    }
+
+    @Test
+    public void testProcessTemplatesLocally() throws Exception {
+        ConfigMap configMap = new ConfigMapBuilder()
+                .withNewMetadata().withName("${NAME}-config").addToLabels("${LABEL}", "${NAME}").endMetadata()
+                .addToData("message", "say \"${GREETING}\"")
+                .addToData("plain", "value")
+                .build();
+        Template template = new TemplateBuilder()
+                .withNewMetadata().withName("test").endMetadata()
+                .withObjects(configMap)
+                .withParameters(parameter("NAME", "app"), parameter("LABEL", "group"), parameter("GREETING", "hello \\ \"${NAME}\""))
+                .build();
+
+        KubernetesList list = Templates.processTemplatesLocally(template, true);
+        HasMetadata item = list.getItems().get(0);
+        assertTrue(item instanceof ConfigMap);
+        ConfigMap processed = (ConfigMap) item;
+        assertEquals("app-config", processed.getMetadata().getName());
+        assertEquals("app", processed.getMetadata().getLabels().get("group"));
+        assertEquals("say \"hello \\ \"app\"\"", processed.getData().get("message"));
+        assertEquals("value", processed.getData().get("plain"));
+    }
+
+    private static Parameter parameter(String name, String value) {
+        Parameter parameter = new Parameter();
+        parameter.setName(name);
+        parameter.setValue(value);
+        return parameter;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.extensions.Templates;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.openshift.api.model.Parameter;
+import io.fabric8.openshift.api.model.Template;
+import io.fabric8.utils.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link Templates#processTemplatesLocally(Template, boolean)} with the string replacing implementation
+ * it replaced, on a template of {@link #objects} ConfigMaps with {@link #parameters} parameters, where every
+ * ConfigMap refers to some of the parameters and some parameters refer to others.
+ * <p/>
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.fabric8.kubernetes.api.TemplatesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplatesBenchmark {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Param({"100", "500"})
+    public int parameters;
+
+    @Param({"1000"})
+    public int objects;
+
+    private Template template;
+
+    @Setup
+    public void setUp() {
+        template = createTemplate(parameters, objects);
+    }
+
+    @Benchmark
+    public KubernetesList processTemplatesLocally() throws IOException {
+        return Templates.processTemplatesLocally(template, true);
+    }
+
+    @Benchmark
+    public KubernetesList processTemplatesWithStringPasses() throws IOException {
+        return processTemplatesWithStringPasses(template, true);
+    }
+
+    static Template createTemplate(int parameterCount, int objectCount) {
+        List<Parameter> parameters = new ArrayList<>();
+        for (int i = 0; i < parameterCount; i++) {
+            Parameter parameter = new Parameter();
+            parameter.setName("PARAM_" + i);
+            // every tenth value refers to the next parameter
+            parameter.setValue(i % 10 == 0 && i + 1 < parameterCount ? "value-" + i + "-${PARAM_" + (i + 1) + "}" : "value-" + i);
+            parameters.add(parameter);
+        }
+
+        List<HasMetadata> items = new ArrayList<>();
+        for (int i = 0; i < objectCount; i++) {
+            ConfigMapBuilder builder = new ConfigMapBuilder()
+                    .withNewMetadata()
+                    .withName("config-" + i)
+                    .addToLabels("project", "${PARAM_0}")
+                    .addToLabels("version", "${PARAM_" + (i % parameterCount) + "}")
+                    .endMetadata();
+            for (int j = 0; j < 20; j++) {
+                builder.addToData("key" + j, "http://${PARAM_" + ((i + j) % parameterCount) + "}:8080/path/" + j);
+            }
+            items.add(builder.build());
+        }
+
+        Template template = new Template();
+        template.setObjects(items);
+        template.setParameters(parameters);
+        return template;
+    }
+
+    /**
+     * The implementation of {@link Templates#processTemplatesLocally(Template, boolean)} before it used a
+     * {@link io.fabric8.kubernetes.api.extensions.TemplateProcessor}
+     */
+    static KubernetesList processTemplatesWithStringPasses(Template entity, boolean failOnMissingParameterValue) throws IOException {
+        List<Parameter> parameters = entity.getParameters();
+        String json = "{\"kind\": \"List\", \"apiVersion\": \"" +
+                KubernetesHelper.defaultApiVersion + "\",\n" +
+                "  \"items\": " +
+                KubernetesHelper.toJson(entity.getObjects()) +
+                " }";
+
+        // lets make a few passes in case there's expressions in values
+        for (int i = 0; i < 5; i++) {
+            for (Parameter parameter : parameters) {
+                String name = parameter.getName();
+                String regex = "${" + name + "}";
+                String value = parameter.getValue();
+                if (Strings.isNullOrBlank(value)) {
+                    if (failOnMissingParameterValue) {
+                        throw new IllegalArgumentException("No value available for parameter name: " + name);
+                    } else {
+                        value = "";
+                    }
+                }
+                json = Strings.replaceAllWithoutRegex(json, regex, value);
+            }
+        }
+        return OBJECT_MAPPER.readerFor(KubernetesList.class).readValue(json);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(TemplatesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -15,10 +15,17 @@
  */
 package io.fabric8.kubernetes.api;
 
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarBuilder;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.ReplicationController;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public class UserConfigurationCompareTest {
@@ -33,4 +40,34 @@ public class UserConfigurationCompareTest {
 
         assertEquals(null, UserConfigurationCompare.getCommonDenominator(ReplicationController.class, Pod.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCollectionsEqualInAnyOrder() {
+        List<EnvVar> env1 = new ArrayList<>();
+        List<EnvVar> env2 = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            env1.add(envVar("NAME" + i, "value" + i));
+            env2.add(envVar("NAME" + i, "value" + i));
+        }
+        assertTrue(UserConfigurationCompare.configEqual(env1, env2));
+
+        Collections.reverse(env2);
+        assertTrue(UserConfigurationCompare.configEqual(env1, env2));
+
+        env2.set(250, envVar("NAME250", "changed"));
+        assertFalse(UserConfigurationCompare.configEqual(env1, env2));
+        assertFalse(UserConfigurationCompare.configEqual(env2, env1));
+    }
+
+    @Test
+    public void testCollectionsEqualIgnoresDuplicates() {
+        List<EnvVar> env1 = Arrays.asList(envVar("A", "1"), envVar("A", "1"), envVar("B", "2"));
+        List<EnvVar> env2 = Arrays.asList(envVar("B", "2"), envVar("A", "1"), envVar("B", "2"));
+        assertTrue(UserConfigurationCompare.configEqual(env1, env2));
+        assertFalse(UserConfigurationCompare.configEqual(env1, Arrays.asList(envVar("B", "2"), envVar("A", "2"))));
+    }
+
+    private static EnvVar envVar(String name, String value) {
+        return new EnvVarBuilder().withName(name).withValue(value).build();
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api;
+
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WatchedResourceCacheTest {
+
+    @Test
+    public void testResourcesFollowTheWatch() throws Exception {
+        KubernetesMockServer server = new KubernetesMockServer(false);
+        server.init();
+        server.expect().get().withPath("/api/v1/namespaces/test/secrets/secret1").andReturn(200, secret("secret1", "1")).once();
+        server.expect().get().withPath("/api/v1/namespaces/test/secrets?fieldSelector=metadata.name%3Dsecret1&resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(500).andEmit(new WatchEvent(secret("secret1", "2"), "MODIFIED"))
+                .done().once();
+        KubernetesClient client = server.createClient();
+        SecretCache cache = new SecretCache(client, 0, 60000, 0);
+        try {
+            WatchedResourceCache.Entry<Secret> entry = cache.getEntry("test", "secret1");
+            long version = entry.getVersion();
+            assertEquals("1", entry.getValue().getMetadata().getResourceVersion());
+
+            for (int i = 0; i < 50 && "1".equals(cache.get("test", "secret1").getMetadata().getResourceVersion()); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals("2", cache.get("test", "secret1").getMetadata().getResourceVersion());
+            assertNotEquals(version, entry.getVersion());
+            assertEquals(1, cache.getLookups());
+        } finally {
+            cache.close();
+            client.close();
+            server.destroy();
+        }
+    }
+
+    @Test
+    public void testUnwatchedResourcesAreKeptUntilTheyExpire() throws Exception {
+        SecretCache cache = new SecretCache(null, 200, 60000, 0);
+        assertEquals("1", cache.get("test", "secret1").getMetadata().getResourceVersion());
+        assertEquals("1", cache.get("test", "secret1").getMetadata().getResourceVersion());
+        assertFalse(cache.getEntry("test", "secret1").isWatching());
+        assertEquals(1, cache.getLookups());
+        assertEquals(2, cache.getHits());
+
+        // looked up again once expired, but not watched again until the retry
+        Thread.sleep(300);
+        assertEquals("2", cache.get("test", "secret1").getMetadata().getResourceVersion());
+        assertEquals(2, cache.getLookups());
+        assertEquals(1, cache.watches.get());
+
+        cache.invalidate("test", "secret1");
+        assertEquals("3", cache.get("test", "secret1").getMetadata().getResourceVersion());
+        assertEquals(3, cache.getLookups());
+    }
+
+    @Test
+    public void testIdleResourcesAreDropped() throws Exception {
+        SecretCache cache = new SecretCache(null, 60000, 60000, 100);
+        cache.get("test", "secret1");
+        cache.get("test", "secret2");
+        assertEquals(2, cache.size());
+
+        Thread.sleep(200);
+        cache.get("test", "secret2");
+        assertEquals(1, cache.size());
+        cache.get("test", "secret1");
+        assertEquals(4, cache.getLookups());
+    }
+
+    @Test
+    public void testEachResourceIsLookedUpOnceWithoutBlockingTheOthers() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SecretCache cache = new SecretCache(null, 60000, 60000, 0) {
+            @Override
+            protected Secret lookup(String namespace, String name) {
+                if ("slow".equals(name)) {
+                    blocked.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.lookup(namespace, name);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Secret> slow = new Callable<Secret>() {
+                @Override
+                public Secret call() throws Exception {
+                    return cache.get("test", "slow");
+                }
+            };
+            Future<Secret> first = executor.submit(slow);
+            assertTrue(blocked.await(10, TimeUnit.SECONDS));
+            Future<Secret> second = executor.submit(slow);
+
+            // other resources are looked up while the slow one is
+            assertEquals("1", cache.get("test", "fast").getMetadata().getResourceVersion());
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+
+            release.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(2, cache.getLookups());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Secret secret(String name, String resourceVersion) {
+        return new SecretBuilder()
+                .withNewMetadata().withName(name).withNamespace("test").withResourceVersion(resourceVersion).endMetadata()
+                .build();
+    }
+
+    /**
+     * Looks secrets up through the client, or makes up a new version on every lookup if there is none
+     */
+    private static class SecretCache extends WatchedResourceCache<Secret> {
+        private final KubernetesClient client;
+        private final AtomicInteger versions = new AtomicInteger();
+        private final AtomicInteger watches = new AtomicInteger();
+
+        SecretCache(KubernetesClient client, long unwatchedTtl, long watchRetry, long idleTtl) {
+            super("Secret", true, unwatchedTtl, watchRetry, idleTtl);
+            this.client = client;
+        }
+
+        @Override
+        protected Secret lookup(String namespace, String name) {
+            if (client != null) {
+                return client.secrets().inNamespace(namespace).withName(name).get();
+            }
+            return secret(name, Integer.toString(versions.incrementAndGet()));
+        }
+
+        @Override
+        protected Watch watch(String namespace, String name, String resourceVersion, Watcher<Secret> watcher) {
+            watches.incrementAndGet();
+            if (client != null) {
+                return client.secrets().inNamespace(namespace).withName(name).watch(resourceVersion, watcher);
+            }
+            throw new KubernetesClientException("Not allowed to watch");
+        }
+    }
+}
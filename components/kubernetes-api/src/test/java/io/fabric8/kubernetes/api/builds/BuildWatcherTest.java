@@ -0,0 +1,235 @@
+/**
+ *  Copyright 2005-2016 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.kubernetes.api.builds;
+
+import io.fabric8.kubernetes.api.KubernetesHelper;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.Build;
+import io.fabric8.openshift.api.model.BuildBuilder;
+import io.fabric8.openshift.api.model.BuildListBuilder;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.server.mock.OpenShiftMockServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BuildWatcherTest {
+
+    private OpenShiftMockServer server;
+    private OpenShiftClient client;
+    private final List<BuildFinishedEvent> events = new CopyOnWriteArrayList<>();
+    private final BuildListener listener = new BuildListener() {
+        @Override
+        public void onBuildFinished(BuildFinishedEvent event) {
+            events.add(event);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        System.setProperty(BuildWatcher.PAGE_SIZE, "2");
+        System.setProperty(BuildWatcher.REWATCH_DELAY, "100");
+        server = new OpenShiftMockServer(false);
+        server.init();
+        client = server.createOpenShiftClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty(BuildWatcher.PAGE_SIZE);
+        System.clearProperty(BuildWatcher.REWATCH_DELAY);
+        client.close();
+        server.destroy();
+    }
+
+    @Test
+    public void testWatchLoadsPagesAndFollowsChanges() throws Exception {
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"5\", \"continue\": \"next/page\"}, \"items\": ["
+                        + KubernetesHelper.toJson(build("b1", "Complete")) + ", " + KubernetesHelper.toJson(build("b2", "Running")) + "]}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2&continue=next/page")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"6\"}, \"items\": ["
+                        + KubernetesHelper.toJson(build("b3", "Failed")) + "]}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=5&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(200).andEmit(new WatchEvent(build("b1", "Complete"), "MODIFIED"))
+                .waitFor(200).andEmit(new WatchEvent(build("b2", "Complete"), "MODIFIED"))
+                .done().once();
+
+        BuildWatcher watcher = new BuildWatcher(client, listener, "test", null);
+        Watch watch = watcher.watch();
+        try {
+            assertEquals(2, events.size());
+            assertEquals("b1", events.get(0).getUid());
+            assertEquals("b3", events.get(1).getUid());
+            assertTrue(events.get(0).isLoading());
+
+            for (int i = 0; i < 50 && events.size() < 3; i++) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(200);
+            assertEquals(3, events.size());
+            assertEquals("b2", events.get(2).getUid());
+            assertFalse(events.get(2).isLoading());
+        } finally {
+            watch.close();
+        }
+    }
+
+    @Test
+    public void testWatchForgetsDeletedBuilds() throws Exception {
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"5\"}, \"items\": ["
+                        + KubernetesHelper.toJson(build("b1", "Complete")) + "]}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=5&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(200).andEmit(new WatchEvent(build("b1", "Complete"), "DELETED"))
+                .waitFor(200).andEmit(new WatchEvent(build("b1", "Complete"), "MODIFIED"))
+                .done().once();
+
+        Watch watch = new BuildWatcher(client, listener, "test", null).watch();
+        try {
+            assertEquals(1, events.size());
+            awaitEvents(2);
+            // once deleted, a build with the same UID is new
+            assertEquals("b1", events.get(1).getUid());
+        } finally {
+            watch.close();
+        }
+    }
+
+    @Test
+    public void testLostWatchIsRetriedUntilTheBuildsAreListed() throws Exception {
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"5\"}, \"items\": []}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=5&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(200).andEmit(new WatchEvent(new StatusBuilder().withCode(410).withMessage("too old resource version").build(), "ERROR"))
+                .done().once();
+        // the first attempt to list them again fails
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2").andReturn(500, "").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"8\"}, \"items\": ["
+                        + KubernetesHelper.toJson(build("b1", "Complete")) + "]}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=8&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(200).andEmit(new WatchEvent(build("b2", "Failed"), "MODIFIED"))
+                .done().once();
+
+        Watch watch = new BuildWatcher(client, listener, "test", null).watch();
+        try {
+            assertTrue(events.isEmpty());
+            awaitEvents(2);
+            assertEquals("b1", events.get(0).getUid());
+            assertTrue(events.get(0).isLoading());
+            assertEquals("b2", events.get(1).getUid());
+        } finally {
+            watch.close();
+        }
+    }
+
+    @Test
+    public void testWatchLostWhileItIsOpenedIsRetried() throws Exception {
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"5\"}, \"items\": []}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=5&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .done().once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?limit=2")
+                .andReturn(200, "{\"kind\": \"BuildList\", \"metadata\": {\"resourceVersion\": \"8\"}, \"items\": ["
+                        + KubernetesHelper.toJson(build("b1", "Complete")) + "]}").once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds?resourceVersion=8&watch=true")
+                .andUpgradeToWebSocket()
+                .open()
+                .waitFor(200).andEmit(new WatchEvent(build("b2", "Failed"), "MODIFIED"))
+                .done().once();
+
+        Watch watch = new BuildWatcher(client, listener, "test", null) {
+            private boolean first = true;
+
+            @Override
+            protected Watch watchBuilds(String resourceVersion, Watcher<Build> watcher) {
+                Watch answer = super.watchBuilds(resourceVersion, watcher);
+                if (first) {
+                    // lost before watch() has returned it
+                    first = false;
+                    watcher.onClose(new KubernetesClientException("too old resource version"));
+                }
+                return answer;
+            }
+        }.watch();
+        try {
+            assertTrue(events.isEmpty());
+            awaitEvents(2);
+            assertEquals("b1", events.get(0).getUid());
+            assertEquals("b2", events.get(1).getUid());
+        } finally {
+            watch.close();
+        }
+    }
+
+    @Test
+    public void testPollForgetsBuildsThatAreNoLongerListed() {
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds")
+                .andReturn(200, new BuildListBuilder().withItems(build("b1", "Complete"), build("b2", "Complete")).build()).once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds")
+                .andReturn(200, new BuildListBuilder().withItems(build("b2", "Complete")).build()).once();
+        server.expect().get().withPath("/oapi/v1/namespaces/test/builds")
+                .andReturn(200, new BuildListBuilder().withItems(build("b1", "Complete"), build("b2", "Complete")).build()).once();
+
+        BuildWatcher watcher = new BuildWatcher(client, listener, "test", null);
+        watcher.poll();
+        assertEquals(2, events.size());
+        watcher.poll();
+        assertEquals(2, events.size());
+
+        // b1 was deleted in between, so when a build with its UID is listed again it is new
+        watcher.poll();
+        assertEquals(3, events.size());
+        assertEquals("b1", events.get(2).getUid());
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        for (int i = 0; i < 50 && events.size() < count; i++) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(200);
+        assertEquals(count, events.size());
+    }
+
+    private static Build build(String uid, String phase) {
+        return new BuildBuilder()
+                .withNewMetadata().withName(uid).withNamespace("test").withUid(uid).withResourceVersion("5").endMetadata()
+                .withNewStatus().withPhase(phase).endStatus()
+                .build();
+    }
+}